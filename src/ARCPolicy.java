@@ -0,0 +1,225 @@
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * {@code ARCPolicy} implements the <b>Adaptive Replacement Cache</b> of
+ * Megiddo and Modha. Resident blocks are split between {@code T1}, blocks
+ * referenced once recently, and {@code T2}, blocks referenced at least twice.
+ * The ghost lists {@code B1} and {@code B2} remember the numbers of blocks
+ * recently evicted from each. A miss on a block remembered in {@code B1} means
+ * {@code T1} was too small, so the target size {@code p} of {@code T1} grows; a
+ * miss remembered in {@code B2} shrinks it. Victims are taken from whichever
+ * of {@code T1} or {@code T2} is over its share of the target.
+ * <p/>
+ * This lets the pool balance recency against frequency on its own as a
+ * workload moves between scanning and repeatedly touching the same blocks.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class ARCPolicy
+		implements ReplacementPolicy
+{
+
+	/**
+	 * Resident blocks seen once recently, most recent first.
+	 */
+	private BufferList t1 = new BufferList();
+	/**
+	 * Resident blocks seen at least twice recently, most recent first.
+	 */
+	private BufferList t2 = new BufferList();
+	/**
+	 * Numbers of blocks recently evicted from {@code T1}, oldest first.
+	 */
+	private LinkedHashSet<Integer> b1 = new LinkedHashSet<>();
+	/**
+	 * Numbers of blocks recently evicted from {@code T2}, oldest first.
+	 */
+	private LinkedHashSet<Integer> b2 = new LinkedHashSet<>();
+	/**
+	 * The maximum number of {@link Buffer Buffers} in the pool.
+	 */
+	private int capacity;
+	/**
+	 * The adaptive target size of {@code T1}.
+	 */
+	private int p;
+	/**
+	 * The block the last victim was chosen for, until it is admitted; a
+	 * repeated request after a pinned victim neither adapts {@code p} nor
+	 * trims the ghost lists again.
+	 */
+	private int pending;
+	/**
+	 * The number of hits reported to this policy.
+	 */
+	private long hits;
+	/**
+	 * The number of misses reported to this policy.
+	 */
+	private long misses;
+
+	/**
+	 * Constructs a new {@code ARCPolicy} for a pool of {@code capacity}
+	 * {@link Buffer Buffers}.
+	 * <p/>
+	 * @param capacity the maximum number of {@link Buffer Buffers} in the pool
+	 */
+	public ARCPolicy(int capacity)
+	{
+		this.capacity = capacity;
+		this.p = 0;
+		this.pending = -1;
+	}
+
+	@Override
+	public void accessed(Buffer buff)
+	{
+		hits++;
+		if (t1.contains(buff))
+		{
+			t1.remove(buff);
+			t2.addFirst(buff);
+		}
+		else
+		{
+			t2.moveToFront(buff);
+		}
+	}
+
+	@Override
+	public void admitted(Buffer buff)
+	{
+		misses++;
+		Integer blockNum = buff.getNumber();
+		pending = -1;
+		if (b1.remove(blockNum) || b2.remove(blockNum))
+		{
+			t2.addFirst(buff);
+		}
+		else
+		{
+			t1.addFirst(buff);
+		}
+	}
+
+	@Override
+	public Buffer evict(int blockNum)
+	{
+		Integer x = blockNum;
+		boolean first = blockNum != pending;
+		pending = blockNum;
+		if (b1.contains(x))
+		{
+			if (first)
+			{
+				p = Math.min(capacity, p + Math.max(b2.size() / b1.size(), 1));
+			}
+			return replace(false);
+		}
+		if (b2.contains(x))
+		{
+			if (first)
+			{
+				p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+			}
+			return replace(true);
+		}
+		//a block in neither ghost list; keep the directory within 2c entries.
+		//The first request for the block made the room, and reinstating a
+		//pinned victim does not take it back, so retries must not trim again
+		if (t1.size() + b1.size() == capacity)
+		{
+			if (t1.size() < capacity)
+			{
+				if (first)
+				{
+					removeOldest(b1);
+				}
+				return replace(false);
+			}
+			//B1 is empty and T1 fills the pool: drop T1's LRU block outright
+			return t1.removeLast();
+		}
+		if (first
+				&& t1.size() + t2.size() + b1.size() + b2.size() >= 2 * capacity)
+		{
+			removeOldest(b2);
+		}
+		return replace(false);
+	}
+
+	@Override
+	public void reinstate(Buffer buff)
+	{
+		Integer blockNum = buff.getNumber();
+		if (b2.remove(blockNum))
+		{
+			t2.addLast(buff);
+		}
+		else
+		{
+			//taken from T1, either through B1 or dropped outright
+			b1.remove(blockNum);
+			t1.addLast(buff);
+		}
+	}
+
+	@Override
+	public long getHits()
+	{
+		return hits;
+	}
+
+	@Override
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "ARC";
+	}
+
+	/**
+	 * The ARC {@code REPLACE} subroutine: evicts the LRU block of {@code T1}
+	 * if {@code T1} exceeds its target, or of {@code T2} otherwise, and
+	 * remembers its number in the matching ghost list.
+	 * <p/>
+	 * @param inB2 whether the requested block was remembered in {@code B2}
+	 * <p/>
+	 * @return the victim {@link Buffer}
+	 */
+	private Buffer replace(boolean inB2)
+	{
+		if (t1.size() > 0
+				&& (t1.size() > p || (inB2 && t1.size() == p) || t2.size() == 0))
+		{
+			Buffer victim = t1.removeLast();
+			b1.add(victim.getNumber());
+			return victim;
+		}
+		Buffer victim = t2.removeLast();
+		b2.add(victim.getNumber());
+		return victim;
+	}
+
+	/**
+	 * Forgets the oldest block number in {@code ghosts}, if any.
+	 * <p/>
+	 * @param ghosts a ghost list
+	 */
+	private void removeOldest(LinkedHashSet<Integer> ghosts)
+	{
+		Iterator<Integer> oldest = ghosts.iterator();
+		if (oldest.hasNext())
+		{
+			oldest.next();
+			oldest.remove();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+
+/**
+ * {@code ArrayCollection} objects are {@link RecordCollection
+ * RecordCollections} held entirely in memory, in an array of fixed length.
+ * They let a {@link MaxHeap} be used as an ordinary in-memory priority queue,
+ * for example by the {@link ExternalSorter}. An array holds fewer than
+ * 2<sup>31</sup> records, so record indices are narrowed to {@code int}.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ * @param <E> the record type
+ */
+public class ArrayCollection<E>
+		implements RecordCollection<E>
+{
+
+	/**
+	 * The records.
+	 */
+	private Object[] records;
+
+	/**
+	 * Constructs a new {@code ArrayCollection} with room for {@code length}
+	 * records, all initially {@code null}.
+	 * <p/>
+	 * @param length the number of records
+	 */
+	public ArrayCollection(int length)
+	{
+		records = new Object[length];
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public E get(long recordNum)
+	{
+		return (E) records[(int) recordNum];
+	}
+
+	@Override
+	public void set(E element, long recordNum)
+	{
+		records[(int) recordNum] = element;
+	}
+
+	@Override
+	public void getRange(long from, int count, E[] dst)
+	{
+		System.arraycopy(records, (int) from, dst, 0, count);
+	}
+
+	@Override
+	public void setRange(long from, int count, E[] src)
+	{
+		System.arraycopy(src, 0, records, (int) from, count);
+	}
+
+	/**
+	 * Does nothing; the records are already in memory.
+	 * <p/>
+	 * @param recordNum the index of the record that will be needed
+	 */
+	@Override
+	public void prefetch(long recordNum)
+	{
+	}
+
+	@Override
+	public void swap(long first, long second)
+	{
+		Object record = records[(int) first];
+		records[(int) first] = records[(int) second];
+		records[(int) second] = record;
+	}
+
+	/**
+	 * Compares two records by their natural ordering; the records must be
+	 * {@link Comparable}.
+	 * <p/>
+	 * @param first  the index of one record
+	 * @param second the index of the other record
+	 * <p/>
+	 * @return the result of comparing the first record to the second
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public int compare(long first, long second)
+	{
+		return ((Comparable<Object>) records[(int) first])
+				.compareTo(records[(int) second]);
+	}
+
+	@Override
+	public long getLength()
+	{
+		return records.length;
+	}
+}
@@ -0,0 +1,185 @@
+
+/**
+ * {@code BlockTable} objects map block numbers to the {@link Buffer} currently
+ * holding that block. The table uses open addressing with linear probing over
+ * primitive {@code int} keys so that lookups neither box the block number nor
+ * walk the pool; every operation is expected constant time.
+ * <p/>
+ * The table never grows. It is sized once, from the maximum number of
+ * {@link Buffer Buffers} a {@link BufferPool} may hold, to at most half full.
+ * Removal uses backward shifting rather than tombstones, so a long running
+ * pool does not slowly degrade as blocks are evicted and reloaded.
+ * <p/>
+ * Only one thread may change a table, but others may look blocks up through
+ * {@link BlockTable#probe(int) probe} at the same time.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class BlockTable
+{
+
+	/**
+	 * Marker for an unused slot in {@link BlockTable#keys keys}. Block numbers
+	 * are never negative.
+	 */
+	private static final int EMPTY = -1;
+	/**
+	 * The block numbers stored in this table, or {@link BlockTable#EMPTY}.
+	 */
+	private final int[] keys;
+	/**
+	 * The {@link Buffer} stored for the block number in the same slot of
+	 * {@link BlockTable#keys keys}.
+	 */
+	private final Buffer[] values;
+	/**
+	 * The bit mask used to reduce a hash to a slot index. The table length is
+	 * always a power of two.
+	 */
+	private final int mask;
+
+	/**
+	 * Constructs a new {@code BlockTable} able to hold at least
+	 * {@code capacity} entries.
+	 * <p/>
+	 * @param capacity the maximum number of entries that will ever be stored
+	 */
+	public BlockTable(int capacity)
+	{
+		int length = 2;
+		while (length < capacity * 2)
+		{
+			length <<= 1;
+		}
+		keys = new int[length];
+		values = new Buffer[length];
+		mask = length - 1;
+		for (int i = 0; i < length; i++)
+		{
+			keys[i] = EMPTY;
+		}
+	}
+
+	/**
+	 * Retrieves the {@link Buffer} holding block {@code blockNum}.
+	 * <p/>
+	 * @param blockNum the block number to look up
+	 * <p/>
+	 * @return the {@link Buffer} holding the block, or {@code null} if the
+	 *            block is not in the table
+	 */
+	public Buffer get(int blockNum)
+	{
+		int slot = slot(blockNum);
+		while (keys[slot] != EMPTY)
+		{
+			if (keys[slot] == blockNum)
+			{
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Retrieves the {@link Buffer} stored for block {@code blockNum} without
+	 * synchronizing with the thread changing the table. A lookup racing with a
+	 * change may miss a block that is present, or return a {@link Buffer}
+	 * that has just been given another block, but it always ends; the caller
+	 * must check the number of the {@link Buffer} it gets.
+	 * <p/>
+	 * @param blockNum the block number to look up
+	 * <p/>
+	 * @return the {@link Buffer} found, or {@code null}
+	 */
+	public Buffer probe(int blockNum)
+	{
+		int slot = slot(blockNum);
+		//entries may move while probing; never go round the table more than once
+		for (int i = 0; i <= mask; i++)
+		{
+			int key = keys[slot];
+			if (key == blockNum)
+			{
+				return values[slot];
+			}
+			if (key == EMPTY)
+			{
+				return null;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Associates {@code buff} with block {@code blockNum}, replacing any
+	 * previous association.
+	 * <p/>
+	 * @param blockNum the block number
+	 * @param buff     the {@link Buffer} holding that block
+	 */
+	public void put(int blockNum, Buffer buff)
+	{
+		int slot = slot(blockNum);
+		while (keys[slot] != EMPTY && keys[slot] != blockNum)
+		{
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = blockNum;
+		values[slot] = buff;
+	}
+
+	/**
+	 * Removes block {@code blockNum} from the table, if present. Entries
+	 * following the removed one in its probe run are shifted back so that
+	 * every remaining entry stays reachable from its home slot.
+	 * <p/>
+	 * @param blockNum the block number to remove
+	 */
+	public void remove(int blockNum)
+	{
+		int slot = slot(blockNum);
+		while (keys[slot] != blockNum)
+		{
+			if (keys[slot] == EMPTY)
+			{
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		//backward shift: pull later entries of the run into the hole whenever
+		//their home slot does not lie (cyclically) between the hole and them
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while (keys[next] != EMPTY)
+		{
+			int home = slot(keys[next]);
+			if (((next - home) & mask) >= ((next - hole) & mask))
+			{
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[hole] = EMPTY;
+		values[hole] = null;
+	}
+
+	/**
+	 * Computes the home slot of {@code blockNum}. Block numbers are mostly
+	 * sequential, so they are scrambled first to spread neighbouring blocks.
+	 * <p/>
+	 * @param blockNum the block number to hash
+	 * <p/>
+	 * @return the home slot index
+	 */
+	private int slot(int blockNum)
+	{
+		int h = blockNum * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
@@ -1,6 +1,9 @@
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 /**
- * {@code Buffer} objects manage an array of bytes. They are capable of reading
+ * {@code Buffer} objects manage one block of bytes. They are capable of reading
  * and writing these bytes, using a {@code boolean} flag {@code isDirty} to
  * determine when the bytes have been modified and need to be updated in the
  * source. However, {@code Buffers} have no concept of what that source is, only
@@ -9,6 +12,20 @@
  * {@code Buffer} objects also have a {@code number} field to denote where a
  * {@code Buffer} falls in line within a source.
  * <p/>
+ * The bytes are held in a {@link ByteBuffer}, either wrapping an ordinary
+ * array or a slice of direct memory outside the Java heap (see
+ * {@link BufferArena}). All access is absolute, so the {@link ByteBuffer}'s
+ * position and limit are free for channel I/O. Multi-byte values are
+ * big-endian.
+ * <p/>
+ * A {@code Buffer} may be read and written by threads that do not hold its
+ * pool's lock (see {@link ConcurrentBufferPool}). Such a thread first takes a
+ * pin or a short access, either of which keeps the {@code Buffer} from being
+ * evicted until it is given back, and then checks that the {@code Buffer}
+ * still holds the block it wants. A pool claims a {@code Buffer} before
+ * evicting it, which only succeeds while it has neither, and releases it
+ * once it has been loaded with its new block.
+ * <p/>
  * @author orionf22
  * @author rinaldi1
  */
@@ -16,19 +33,69 @@ public class Buffer
 {
 
 	/**
-	 * The bytes managed by this {@code Buffer}. This array is always the length
-	 * of one block, defined by {@link BufferPool#BLOCK_SIZE}.
+	 * The bytes managed by this {@code Buffer}. This is always the length of
+	 * one block of the owning pool, {@link BufferPool#getBlockSize()}.
 	 */
-	private byte[] bytes;
+	private ByteBuffer bytes;
 	/**
 	 * The number of this {@code Buffer}.
 	 */
-	private int number;
+	private volatile int number;
 	/**
 	 * Flag indicating when this {@code Buffer} has had modifications made to
-	 * its bytes.
+	 * its bytes. The flag is volatile because a background writer may clean
+	 * a {@code Buffer} while its owner keeps modifying it; the owner always
+	 * changes the bytes before setting the flag, and the writer always clears
+	 * the flag before copying the bytes, so no modification is ever lost.
+	 */
+	private volatile boolean isDirty;
+	/**
+	 * The {@code Buffer} ahead of this one in its {@link BufferList}, or
+	 * {@code null} if this {@code Buffer} is at the front.
+	 */
+	private Buffer prev;
+	/**
+	 * The {@code Buffer} behind this one in its {@link BufferList}, or
+	 * {@code null} if this {@code Buffer} is at the back.
 	 */
-	private boolean isDirty;
+	private Buffer next;
+	/**
+	 * The {@link BufferList} this {@code Buffer} is currently on, or
+	 * {@code null} if it is on none.
+	 */
+	private BufferList owner;
+	/**
+	 * Reference flag maintained by {@link ReplacementPolicy} implementations
+	 * that give recently used {@code Buffers} a second chance.
+	 */
+	private boolean referenced;
+	/**
+	 * The time of the last access to this {@code Buffer}, on its pool's
+	 * logical clock.
+	 */
+	private long lastUsed;
+	/**
+	 * The outstanding pins on this {@code Buffer}, in units of
+	 * {@link Buffer#PIN PIN}, plus the number of outstanding short accesses,
+	 * or {@link Buffer#CLAIMED CLAIMED} while the pool is replacing its block.
+	 * A {@code Buffer} with pins or accesses is never evicted.
+	 */
+	private volatile int pins;
+	/**
+	 * The weight of one pin in {@link Buffer#pins pins}; anything below it
+	 * counts short accesses.
+	 */
+	private static final int PIN = 1 << 16;
+	/**
+	 * The value of {@link Buffer#pins pins} while the pool is replacing the
+	 * block of this {@code Buffer}.
+	 */
+	private static final int CLAIMED = -1;
+	/**
+	 * Atomic access to {@link Buffer#pins pins}.
+	 */
+	private static final AtomicIntegerFieldUpdater<Buffer> PINS =
+			AtomicIntegerFieldUpdater.newUpdater(Buffer.class, "pins");
 
 	/**
 	 * Constructs a new {@code Buffer} with a number of {@code blockNum} and
@@ -38,6 +105,18 @@ public class Buffer
 	 * @param b        the bytes managed by this {@code Buffer}
 	 */
 	public Buffer(int blockNum, byte[] b)
+	{
+		this(blockNum, ByteBuffer.wrap(b));
+	}
+
+	/**
+	 * Constructs a new {@code Buffer} with a number of {@code blockNum} and
+	 * managing the bytes of {@code b}, which may be direct.
+	 * <p/>
+	 * @param blockNum the number of this {@code Buffer}
+	 * @param b        the bytes managed by this {@code Buffer}
+	 */
+	public Buffer(int blockNum, ByteBuffer b)
 	{
 		this.number = blockNum;
 		this.bytes = b;
@@ -45,15 +124,33 @@ public class Buffer
 	}
 
 	/**
-	 * Retrieves the byte array managed by this {@code Buffer}.
+	 * Retrieves the {@link ByteBuffer} managed by this {@code Buffer}. Its
+	 * position and limit may be changed freely, for example to read into it
+	 * from a channel.
 	 * <p/>
 	 * @return the managed bytes
 	 */
-	public byte[] bytes()
+	public ByteBuffer bytes()
 	{
 		return this.bytes;
 	}
 
+	/**
+	 * Replaces the whole {@link ByteBuffer} managed by this {@code Buffer}
+	 * with {@code b}, which must be one block long, and hands back the old one
+	 * so it can be reused.
+	 * <p/>
+	 * @param b the new bytes
+	 * <p/>
+	 * @return the previously managed bytes
+	 */
+	public ByteBuffer replaceBytes(ByteBuffer b)
+	{
+		ByteBuffer old = this.bytes;
+		this.bytes = b;
+		return old;
+	}
+
 	/**
 	 * Replaces select bytes in this {@code Buffer}, starting at {@code start}
 	 * and replacing the corresponding bytes in {@code bytes} with those bytes
@@ -65,15 +162,142 @@ public class Buffer
 	 */
 	public void setBytes(byte[] b, int start)
 	{
-		int bIndex = 0;
-		int size = b.length;
-		for (int i = start; i < start + size; i++)
+		setBytes(b, 0, start, b.length);
+	}
+
+	/**
+	 * Replaces {@code len} bytes in this {@code Buffer}, starting at
+	 * {@code start}, with the bytes of {@code b} starting at {@code from}.
+	 * <p/>
+	 * @param b     the bytes to use
+	 * @param from  the first index within {@code b} to copy
+	 * @param start the starting index within {@code bytes} at which overwriting
+	 *                 will begin
+	 * @param len   the number of bytes to copy
+	 */
+	public void setBytes(byte[] b, int from, int start, int len)
+	{
+		if (bytes.hasArray())
 		{
-			bytes[i] = b[bIndex];
-			bIndex++;
+			System.arraycopy(b, from, bytes.array(), bytes.arrayOffset() + start,
+					len);
+			return;
+		}
+		for (int i = 0; i < len; i++)
+		{
+			bytes.put(start + i, b[from + i]);
 		}
 	}
 
+	/**
+	 * Copies {@code len} bytes of this {@code Buffer}, starting at
+	 * {@code start}, into {@code dst} starting at {@code to}.
+	 * <p/>
+	 * @param dst   the array to copy into
+	 * @param to    the first index within {@code dst} to fill
+	 * @param start the starting index within {@code bytes} to copy from
+	 * @param len   the number of bytes to copy
+	 */
+	public void getBytes(byte[] dst, int to, int start, int len)
+	{
+		if (bytes.hasArray())
+		{
+			System.arraycopy(bytes.array(), bytes.arrayOffset() + start, dst, to,
+					len);
+			return;
+		}
+		for (int i = 0; i < len; i++)
+		{
+			dst[to + i] = bytes.get(start + i);
+		}
+	}
+
+	/**
+	 * Copies all bytes of this {@code Buffer} into {@code dst}, which is
+	 * cleared first and flipped afterwards, ready to be written out.
+	 * <p/>
+	 * @param dst the {@link ByteBuffer} to copy into, at least one block long
+	 */
+	public void copyTo(ByteBuffer dst)
+	{
+		ByteBuffer src = bytes.duplicate();
+		src.clear();
+		dst.clear();
+		dst.put(src);
+		dst.flip();
+	}
+
+	/**
+	 * Reads the four bytes starting at {@code index} as one big-endian
+	 * {@code int}.
+	 * <p/>
+	 * @param index the index of the most significant byte
+	 * <p/>
+	 * @return the assembled {@code int}
+	 */
+	public int getInt(int index)
+	{
+		return bytes.getInt(index);
+	}
+
+	/**
+	 * Writes {@code value} as four big-endian bytes starting at
+	 * {@code index}.
+	 * <p/>
+	 * @param index the index at which to write the most significant byte
+	 * @param value the value to write
+	 */
+	public void setInt(int index, int value)
+	{
+		bytes.putInt(index, value);
+	}
+
+	/**
+	 * Reads {@code count} consecutive big-endian {@code int} values, starting
+	 * at {@code index}, into {@code dst}.
+	 * <p/>
+	 * @param index the index of the most significant byte of the first value
+	 * @param dst   the array to fill
+	 * @param off   the first index of {@code dst} to fill
+	 * @param count the number of values to read
+	 */
+	public void getInts(int index, int[] dst, int off, int count)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			dst[off + i] = bytes.getInt(index + 4 * i);
+		}
+	}
+
+	/**
+	 * Writes {@code count} values of {@code src} as consecutive big-endian
+	 * {@code int} values starting at {@code index}.
+	 * <p/>
+	 * @param index the index at which to write the most significant byte of
+	 *                 the first value
+	 * @param src   the values to write
+	 * @param off   the first index of {@code src} to write
+	 * @param count the number of values to write
+	 */
+	public void setInts(int index, int[] src, int off, int count)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			bytes.putInt(index + 4 * i, src[off + i]);
+		}
+	}
+
+	/**
+	 * Sets the byte at position {@code index} to {@code b}.
+	 * <p/>
+	 * @param index the index at which to write
+	 * @param b     the new byte
+	 */
+	public void set(int index, byte b)
+	{
+		bytes.put(index, b);
+	}
+
 	/**
 	 * Sets the number of this {@code Buffer}. This allows a {@code Buffer}
 	 * object to be recycled rather than garbage collected when pool replacement
@@ -96,7 +320,7 @@ public class Buffer
 	public byte get(int index)
 	{
 		//heapsort.output.println("Buffer, get, array size == "+ bytes.length);
-		return bytes[index];
+		return bytes.get(index);
 	}
 
 	/**
@@ -137,4 +361,212 @@ public class Buffer
 	{
 		return this.isDirty;
 	}
+
+	/**
+	 * Returns the {@code Buffer} ahead of this one in its {@link BufferList}.
+	 * <p/>
+	 * @return the previous {@code Buffer}, or {@code null} if none
+	 */
+	public Buffer getPrev()
+	{
+		return this.prev;
+	}
+
+	/**
+	 * Sets the {@code Buffer} ahead of this one in its {@link BufferList}.
+	 * <p/>
+	 * @param p the new previous {@code Buffer}
+	 */
+	public void setPrev(Buffer p)
+	{
+		this.prev = p;
+	}
+
+	/**
+	 * Returns the {@code Buffer} behind this one in its {@link BufferList}.
+	 * <p/>
+	 * @return the next {@code Buffer}, or {@code null} if none
+	 */
+	public Buffer getNext()
+	{
+		return this.next;
+	}
+
+	/**
+	 * Sets the {@code Buffer} behind this one in its {@link BufferList}.
+	 * <p/>
+	 * @param n the new next {@code Buffer}
+	 */
+	public void setNext(Buffer n)
+	{
+		this.next = n;
+	}
+
+	/**
+	 * Returns the {@link BufferList} this {@code Buffer} is on.
+	 * <p/>
+	 * @return the owning list, or {@code null} if none
+	 */
+	public BufferList getOwner()
+	{
+		return this.owner;
+	}
+
+	/**
+	 * Sets the {@link BufferList} this {@code Buffer} is on.
+	 * <p/>
+	 * @param o the new owning list
+	 */
+	public void setOwner(BufferList o)
+	{
+		this.owner = o;
+	}
+
+	/**
+	 * Returns the reference flag of this {@code Buffer}.
+	 * <p/>
+	 * @return {@code true} if this {@code Buffer} has been referenced since
+	 *            the flag was last cleared, {@code false} otherwise
+	 */
+	public boolean isReferenced()
+	{
+		return this.referenced;
+	}
+
+	/**
+	 * Sets the reference flag of this {@code Buffer}.
+	 * <p/>
+	 * @param r the new flag value
+	 */
+	public void setReferenced(boolean r)
+	{
+		this.referenced = r;
+	}
+
+	/**
+	 * Returns the time of the last access to this {@code Buffer}.
+	 * <p/>
+	 * @return the last access time, on the owning pool's logical clock
+	 */
+	public long getLastUsed()
+	{
+		return this.lastUsed;
+	}
+
+	/**
+	 * Sets the time of the last access to this {@code Buffer}.
+	 * <p/>
+	 * @param t the access time, on the owning pool's logical clock
+	 */
+	public void setLastUsed(long t)
+	{
+		this.lastUsed = t;
+	}
+
+	/**
+	 * Adds a pin to this {@code Buffer}. The caller must hold the lock of the
+	 * owning pool, so the {@code Buffer} cannot be claimed.
+	 */
+	public void pin()
+	{
+		PINS.addAndGet(this, PIN);
+	}
+
+	/**
+	 * Adds a pin to this {@code Buffer} unless the pool has claimed it.
+	 * <p/>
+	 * @return {@code true} if the {@code Buffer} is now pinned, {@code false}
+	 *            if it is being replaced
+	 */
+	public boolean tryPin()
+	{
+		return tryAdd(PIN);
+	}
+
+	/**
+	 * Removes a pin from this {@code Buffer}.
+	 */
+	public void unpin()
+	{
+		PINS.addAndGet(this, -PIN);
+	}
+
+	/**
+	 * Starts a short access to this {@code Buffer}, such as one read or write
+	 * of a record, unless the pool has claimed it. Until
+	 * {@link Buffer#endAccess() endAccess} is called the {@code Buffer} cannot
+	 * be evicted.
+	 * <p/>
+	 * @return {@code true} if the access started, {@code false} if the
+	 *            {@code Buffer} is being replaced
+	 */
+	public boolean tryAccess()
+	{
+		return tryAdd(1);
+	}
+
+	/**
+	 * Ends a short access started by {@link Buffer#tryAccess() tryAccess}.
+	 */
+	public void endAccess()
+	{
+		PINS.decrementAndGet(this);
+	}
+
+	/**
+	 * Adds {@code weight} to {@link Buffer#pins pins} unless the
+	 * {@code Buffer} is claimed.
+	 * <p/>
+	 * @param weight {@link Buffer#PIN PIN} or {@code 1}
+	 * <p/>
+	 * @return {@code true} if added, {@code false} if claimed
+	 */
+	private boolean tryAdd(int weight)
+	{
+		while (true)
+		{
+			int p = pins;
+			if (p == CLAIMED)
+			{
+				return false;
+			}
+			if (PINS.compareAndSet(this, p, p + weight))
+			{
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Claims this {@code Buffer} for replacement of its block. This only
+	 * succeeds while it has no pins and no accesses, and keeps new ones from
+	 * starting until {@link Buffer#release() release} is called.
+	 * <p/>
+	 * @return {@code true} if claimed, {@code false} if in use
+	 */
+	public boolean claim()
+	{
+		return PINS.compareAndSet(this, 0, CLAIMED);
+	}
+
+	/**
+	 * Releases a claim taken by {@link Buffer#claim() claim}, once the
+	 * {@code Buffer} holds its new block and number.
+	 */
+	public void release()
+	{
+		pins = 0;
+	}
+
+	/**
+	 * Determines if this {@code Buffer} has any outstanding pins. Short
+	 * accesses do not count.
+	 * <p/>
+	 * @return {@code true} if this {@code Buffer} is pinned, {@code false}
+	 *            otherwise
+	 */
+	public boolean isPinned()
+	{
+		return pins >= PIN;
+	}
 }
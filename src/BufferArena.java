@@ -0,0 +1,95 @@
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@code BufferArena} objects hand out block-sized slices of a few large
+ * direct {@link ByteBuffer ByteBuffers}. Direct memory lives outside the Java
+ * heap, so a pool whose {@link Buffer Buffers} are slices of an arena adds
+ * nothing for the garbage collector to trace or copy no matter how large it
+ * is, and the channel can read and write the slices without an intermediate
+ * copy.
+ * <p/>
+ * The backing memory is allocated in chunks of at most
+ * {@link BufferArena#MAX_CHUNK MAX_CHUNK} bytes, each one when the previous
+ * is used up, so an arena sized for a large pool costs nothing until its
+ * {@link Buffer Buffers} are actually created. Slices are never returned;
+ * they live as long as the arena.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class BufferArena
+{
+
+	/**
+	 * The largest chunk of direct memory allocated at once, in bytes. This is
+	 * a multiple of every sensible slice size.
+	 */
+	public static final int MAX_CHUNK = 64 * 1024 * 1024;
+	/**
+	 * The size of every slice, in bytes.
+	 */
+	private int sliceSize;
+	/**
+	 * The number of slices still to be handed out before the arena is
+	 * exhausted.
+	 */
+	private int remaining;
+	/**
+	 * The chunk slices are currently cut from, or {@code null} before the
+	 * first slice.
+	 */
+	private ByteBuffer chunk;
+
+	/**
+	 * Constructs a new {@code BufferArena} for {@code count} slices of
+	 * {@code sliceSize} bytes each. No memory is allocated yet.
+	 * <p/>
+	 * @param count     the number of slices that will be needed
+	 * @param sliceSize the size of each slice, in bytes
+	 */
+	public BufferArena(int count, int sliceSize)
+	{
+		this.sliceSize = sliceSize;
+		this.remaining = count;
+	}
+
+	/**
+	 * Sizes the arena for {@code count} more slices than it was sized for so
+	 * far, for storage that is needed beside the slices already planned. No
+	 * memory is allocated yet.
+	 * <p/>
+	 * @param count the number of additional slices
+	 */
+	public void reserve(int count)
+	{
+		remaining += count;
+	}
+
+	/**
+	 * Returns a new, zeroed slice of {@code sliceSize} bytes. Once the number
+	 * of slices the arena was sized for is used up, further slices are
+	 * allocated individually.
+	 * <p/>
+	 * @return a direct {@link ByteBuffer} of one slice
+	 */
+	public ByteBuffer slice()
+	{
+		if (remaining <= 0)
+		{
+			return ByteBuffer.allocateDirect(sliceSize);
+		}
+		if (chunk == null || chunk.remaining() < sliceSize)
+		{
+			long wanted = (long) remaining * sliceSize;
+			int length = (int) Math.min(wanted, MAX_CHUNK / sliceSize * sliceSize);
+			chunk = ByteBuffer.allocateDirect(length);
+		}
+		remaining--;
+		int end = chunk.position() + sliceSize;
+		ByteBuffer ret = chunk.duplicate();
+		ret.limit(end);
+		chunk.position(end);
+		return ret.slice();
+	}
+}
@@ -0,0 +1,283 @@
+
+import java.io.IOException;
+
+/**
+ * The {@code BufferCache} interface is the view of a block cache over a source
+ * file that record collections and the driver work against. It is
+ * implemented by {@link BufferPool}, which holds all of its
+ * {@link Buffer Buffers} behind one {@link ReplacementPolicy}, and by
+ * {@link ConcurrentBufferPool}, which spreads them over independently locked
+ * segments so that several threads can share one cache.
+ * <p/>
+ * Positions within the source are {@code long}; blocks are numbered with
+ * {@code int}. Multi-byte values are big-endian.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public interface BufferCache
+{
+
+	/**
+	 * Copies {@code count} bytes of the source, starting at position
+	 * {@code start}, into {@code dst} starting at {@code off}.
+	 * <p/>
+	 * @param dst   the array to fill
+	 * @param off   the first index of {@code dst} to fill
+	 * @param count the number of bytes to read
+	 * @param start the location within the source from which to start reading
+	 *                 bytes
+	 * <p/>
+	 * @throws IOException
+	 */
+	public void get(byte[] dst, int off, int count, long start)
+			throws IOException;
+
+	/**
+	 * Reads the four bytes of the source starting at {@code start} as one
+	 * big-endian {@code int}.
+	 * <p/>
+	 * @param start the location within the source from which to start reading
+	 * <p/>
+	 * @return the four bytes, most significant first
+	 * <p/>
+	 * @throws IOException
+	 */
+	public int getInt(long start) throws IOException;
+
+	/**
+	 * Writes {@code count} bytes of {@code bytes}, starting at {@code off},
+	 * into the source starting at position {@code start}.
+	 * <p/>
+	 * @param bytes the bytes to assign
+	 * @param off   the first index of {@code bytes} to write
+	 * @param count the number of bytes to write
+	 * @param start the starting index in the source at which to overwrite
+	 * <p/>
+	 * @throws IOException
+	 */
+	public void set(byte[] bytes, int off, int count, long start)
+			throws IOException;
+
+	/**
+	 * Writes {@code value} as four big-endian bytes into the source starting
+	 * at {@code start}.
+	 * <p/>
+	 * @param value the value to write, most significant byte first
+	 * @param start the starting index in the source at which to overwrite
+	 * <p/>
+	 * @throws IOException
+	 */
+	public void setInt(int value, long start) throws IOException;
+
+	/**
+	 * Reads {@code count} consecutive big-endian {@code int} values of the
+	 * source, starting at {@code start}, into {@code dst}.
+	 * <p/>
+	 * @param dst   the array to fill
+	 * @param off   the first index of {@code dst} to fill
+	 * @param count the number of values to read
+	 * @param start the location within the source of the first value
+	 * <p/>
+	 * @throws IOException
+	 */
+	public void getInts(int[] dst, int off, int count, long start)
+			throws IOException;
+
+	/**
+	 * Writes {@code count} values of {@code src} as consecutive big-endian
+	 * {@code int} values into the source starting at {@code start}.
+	 * <p/>
+	 * @param src   the values to write
+	 * @param off   the first index of {@code src} to write
+	 * @param count the number of values to write
+	 * @param start the location within the source of the first value
+	 * <p/>
+	 * @throws IOException
+	 */
+	public void setInts(int[] src, int off, int count, long start)
+			throws IOException;
+
+	/**
+	 * Pins the block containing source position {@code start} in the cache,
+	 * loading it if necessary, and returns the {@link Buffer} holding it. The
+	 * {@link Buffer} stays in place until the pin is released with
+	 * {@link BufferCache#unpin(Buffer) unpin}. Writing through the handle must
+	 * be followed by {@link Buffer#makeDirty() makeDirty}.
+	 * <p/>
+	 * @param start a location within the source
+	 * <p/>
+	 * @return the {@link Buffer} holding the block, pinned
+	 * <p/>
+	 * @throws IOException
+	 * @throws IllegalStateException if the block is not in the cache and every
+	 *                                  {@link Buffer} it could be loaded into
+	 *                                  is pinned
+	 */
+	public Buffer pin(long start) throws IOException;
+
+	/**
+	 * Releases one pin on {@code buff}, which must have been returned by
+	 * {@link BufferCache#pin(long) pin}.
+	 * <p/>
+	 * @param buff the pinned {@link Buffer}
+	 */
+	public void unpin(Buffer buff);
+
+	/**
+	 * Asks for the block containing source position {@code start} to be read
+	 * in the background. This is only a hint and never blocks on I/O.
+	 * <p/>
+	 * @param start a location within the source
+	 */
+	public void prefetch(long start);
+
+	/**
+	 * Writes every dirty {@link Buffer} back to the source.
+	 * <p/>
+	 * @throws IOException
+	 */
+	public void flush() throws IOException;
+
+	/**
+	 * Stops any background threads and closes the source file stream.
+	 * <p/>
+	 * @throws IOException
+	 */
+	public void closeSourceStream() throws IOException;
+
+	/**
+	 * Starts writing dirty {@link Buffer Buffers} back in the background once
+	 * more than {@code watermark} of them are dirty.
+	 * <p/>
+	 * @param watermark the number of dirty {@link Buffer Buffers} tolerated
+	 *                     before writing starts
+	 */
+	public void enableWriteBack(int watermark);
+
+	/**
+	 * Makes every eviction of a dirty {@link Buffer} also write the dirty
+	 * {@link Buffer Buffers} holding the blocks next to it.
+	 */
+	public void enableCoalescedEviction();
+
+	/**
+	 * Keeps the bytes of every {@link Buffer} in direct memory, outside the
+	 * Java heap. This must be called before the cache is used in any other
+	 * way.
+	 * <p/>
+	 * @throws IllegalStateException if the cache has already been used
+	 */
+	public void enableDirectStorage();
+
+	/**
+	 * Determines if the cache keeps its {@link Buffer Buffers} in direct
+	 * memory.
+	 * <p/>
+	 * @return {@code true} if direct storage is enabled, {@code false}
+	 *            otherwise
+	 */
+	public boolean isDirectStorage();
+
+	/**
+	 * Starts reading blocks in the background before they are needed.
+	 * <p/>
+	 * @param depth the number of blocks read ahead of a scan
+	 * <p/>
+	 * @throws IOException
+	 */
+	public void enablePrefetch(int depth) throws IOException;
+
+	/**
+	 * Stops reading blocks in the background and counts every prefetched
+	 * block not used so far as wasted, so that the statistics of a finished
+	 * run are final before they are reported.
+	 */
+	public void stopPrefetch();
+
+	/**
+	 * Returns the size of the blocks of the cache, in bytes.
+	 * <p/>
+	 * @return the block size
+	 */
+	public int getBlockSize();
+
+	/**
+	 * Retrieves the total number of {@link Buffer Buffers} the cache can hold
+	 * at once. A cache split into parts holds each block in one particular
+	 * part, so two blocks may not fit at once even when this is greater than
+	 * one; {@link BufferCache#pin(long) pin} then fails.
+	 * <p/>
+	 * @return the buffer count
+	 */
+	public int getBufferCount();
+
+	/**
+	 * Retrieves the number of cache hits.
+	 * <p/>
+	 * @return the cache hit count
+	 */
+	public long getCacheHits();
+
+	/**
+	 * Retrieves the number of cache misses.
+	 * <p/>
+	 * @return the cache miss count
+	 */
+	public long getCacheMisses();
+
+	/**
+	 * Retrieves the number of blocks read from the source, including those
+	 * read in the background.
+	 * <p/>
+	 * @return the disk read count
+	 */
+	public long getDiskReads();
+
+	/**
+	 * Retrieves the number of blocks written to the source, including those
+	 * written in the background.
+	 * <p/>
+	 * @return the disk write count
+	 */
+	public long getDiskWrites();
+
+	/**
+	 * Retrieves the number of write operations issued to the source, not
+	 * counting the background writer; a run of adjacent blocks written at once
+	 * counts as one.
+	 * <p/>
+	 * @return the write operation count
+	 */
+	public long getWriteRuns();
+
+	/**
+	 * Retrieves the number of blocks written by the background writer.
+	 * <p/>
+	 * @return the background write count, {@code 0} if write-back is disabled
+	 */
+	public long getBackgroundWrites();
+
+	/**
+	 * Retrieves the number of misses that were served from a prefetched copy
+	 * of the block.
+	 * <p/>
+	 * @return the prefetch hit count
+	 */
+	public long getPrefetchHits();
+
+	/**
+	 * Retrieves the number of prefetched blocks that were thrown away unused.
+	 * <p/>
+	 * @return the wasted prefetch count
+	 */
+	public long getPrefetchesWasted();
+
+	/**
+	 * Retrieves the {@link ReplacementPolicy} of the cache; for a cache split
+	 * into parts, that of its first part, all others being of the same kind.
+	 * <p/>
+	 * @return the replacement policy
+	 */
+	public ReplacementPolicy getPolicy();
+}
@@ -0,0 +1,178 @@
+
+/**
+ * {@code BufferList} objects are doubly-linked lists of {@link Buffer}
+ * objects, threaded through the {@link Buffer Buffers} themselves. Adding,
+ * removing and moving a {@link Buffer} all take constant time, and a
+ * {@link Buffer} always knows which {@code BufferList} it is on, so
+ * {@link ReplacementPolicy} implementations can keep several lists and test
+ * membership without searching.
+ * <p/>
+ * The front of a list is its most recently added end; the back is where
+ * replacement policies take their victims from.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class BufferList
+{
+
+	/**
+	 * The {@link Buffer} at the front of the list, or {@code null} if empty.
+	 */
+	private Buffer head;
+	/**
+	 * The {@link Buffer} at the back of the list, or {@code null} if empty.
+	 */
+	private Buffer tail;
+	/**
+	 * The number of {@link Buffer Buffers} on the list.
+	 */
+	private int size;
+
+	/**
+	 * Adds {@code buff} to the front of the list.
+	 * <p/>
+	 * @param buff the {@link Buffer} to add; it must not be on any list
+	 */
+	public void addFirst(Buffer buff)
+	{
+		buff.setPrev(null);
+		buff.setNext(head);
+		if (head != null)
+		{
+			head.setPrev(buff);
+		}
+		else
+		{
+			tail = buff;
+		}
+		head = buff;
+		buff.setOwner(this);
+		size++;
+	}
+
+	/**
+	 * Adds {@code buff} to the back of the list.
+	 * <p/>
+	 * @param buff the {@link Buffer} to add; it must not be on any list
+	 */
+	public void addLast(Buffer buff)
+	{
+		buff.setNext(null);
+		buff.setPrev(tail);
+		if (tail != null)
+		{
+			tail.setNext(buff);
+		}
+		else
+		{
+			head = buff;
+		}
+		tail = buff;
+		buff.setOwner(this);
+		size++;
+	}
+
+	/**
+	 * Removes {@code buff} from the list.
+	 * <p/>
+	 * @param buff the {@link Buffer} to remove; it must be on this list
+	 */
+	public void remove(Buffer buff)
+	{
+		Buffer prev = buff.getPrev();
+		Buffer next = buff.getNext();
+		if (prev != null)
+		{
+			prev.setNext(next);
+		}
+		else
+		{
+			head = next;
+		}
+		if (next != null)
+		{
+			next.setPrev(prev);
+		}
+		else
+		{
+			tail = prev;
+		}
+		buff.setPrev(null);
+		buff.setNext(null);
+		buff.setOwner(null);
+		size--;
+	}
+
+	/**
+	 * Removes and returns the {@link Buffer} at the back of the list.
+	 * <p/>
+	 * @return the removed {@link Buffer}, or {@code null} if the list is empty
+	 */
+	public Buffer removeLast()
+	{
+		Buffer buff = tail;
+		if (buff != null)
+		{
+			remove(buff);
+		}
+		return buff;
+	}
+
+	/**
+	 * Moves {@code buff}, which must already be on this list, to the front.
+	 * <p/>
+	 * @param buff the {@link Buffer} to move
+	 */
+	public void moveToFront(Buffer buff)
+	{
+		if (buff != head)
+		{
+			remove(buff);
+			addFirst(buff);
+		}
+	}
+
+	/**
+	 * Returns the {@link Buffer} at the front of the list.
+	 * <p/>
+	 * @return the first {@link Buffer}, or {@code null} if the list is empty
+	 */
+	public Buffer first()
+	{
+		return head;
+	}
+
+	/**
+	 * Returns the {@link Buffer} at the back of the list.
+	 * <p/>
+	 * @return the last {@link Buffer}, or {@code null} if the list is empty
+	 */
+	public Buffer last()
+	{
+		return tail;
+	}
+
+	/**
+	 * Returns the number of {@link Buffer Buffers} on the list.
+	 * <p/>
+	 * @return the list size
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Determines if {@code buff} is on this list.
+	 * <p/>
+	 * @param buff the {@link Buffer} to check
+	 * <p/>
+	 * @return {@code true} if {@code buff} is on this list, {@code false}
+	 *            otherwise
+	 */
+	public boolean contains(Buffer buff)
+	{
+		return buff.getOwner() == this;
+	}
+}
@@ -2,34 +2,80 @@
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * {@code BufferPool} objects utilize a {@link LinkedList} to manage a set
- * number of {@link Buffer} objects for the purposes of reading and writing data
- * from and to a given source file without having to make disk accesses. The
- * {@code BufferPool} allows portions of a source file to be kept in main memory
- * for faster I/O operations.
+ * {@code BufferPool} objects manage a set number of {@link Buffer} objects for
+ * the purposes of reading and writing data from and to a given source file
+ * without having to make disk accesses. The {@code BufferPool} allows portions
+ * of a source file to be kept in main memory for faster I/O operations.
  * <p/>
- * A standard {@link LinkedList} is used to manage in-memory {@link Buffer}
- * objects. The <b>Least Recently Used</b> scheme is used to manage the pool
- * list. Source file I/O requests go through the {@code BufferPool}, which
- * supports direct reading and writing of the source using a
- * {@link RandomAccessFile} through the implementation of {@link Buffer}
- * objects.
+ * In-memory {@link Buffer} objects are indexed by block number in a
+ * {@link BlockTable}, so finding a block takes constant time regardless of
+ * the pool size. Which {@link Buffer} is given up when the pool is full is
+ * decided by a {@link ReplacementPolicy}; by default the <b>Least Recently
+ * Used</b> scheme of {@link LRUPolicy} is used. Source file I/O requests go
+ * through the {@code BufferPool}, which supports direct
+ * reading and writing of the source using a {@link RandomAccessFile} through
+ * the implementation of {@link Buffer} objects.
+ * <p/>
+ * Optionally, a background thread can write dirty {@link Buffer Buffers} back
+ * to the source before they are evicted; see
+ * {@link BufferPool#enableWriteBack(int) enableWriteBack}, and another can
+ * read blocks ahead of their first use; see
+ * {@link BufferPool#enablePrefetch(int) enablePrefetch}. The {@link Buffer
+ * Buffers} themselves may be kept outside the Java heap; see
+ * {@link BufferPool#enableDirectStorage() enableDirectStorage}. Misses,
+ * flushes and those threads synchronize with each other, hits do not. A pool
+ * is otherwise meant to be used by one thread.
+ * <p/>
+ * Positions within the source are {@code long}, so files larger than 2 GB are
+ * addressed directly; blocks are numbered with {@code int}, which at the
+ * default {@link BufferPool#BLOCK_SIZE BLOCK_SIZE} bytes a block covers
+ * sources of up to 8 TB. Hits, misses, reads and writes are counted in
+ * {@code long}, since a sort of such a source accesses the pool billions of
+ * times.
+ * <p/>
+ * The block size is fixed per pool when it is constructed; any power of two
+ * from {@link BufferPool#MIN_BLOCK_SIZE MIN_BLOCK_SIZE} to
+ * {@link BufferPool#MAX_BLOCK_SIZE MAX_BLOCK_SIZE} bytes may be used, and
+ * {@link BufferPool#tuneBlockSize(long, long) tuneBlockSize} suggests one for
+ * a given source and memory budget. Hits, misses, reads and writes are
+ * counted in blocks of the pool's own size.
  * <p/>
  * @author orionf22
  * @author rinaldi1
  */
 public class BufferPool
+		implements BufferCache
 {
 
 	/**
-	 * This {@code BufferPool's} {@link LinkedList}.
+	 * Every {@link Buffer} this pool has created, in creation order. Only the
+	 * first {@link BufferPool#size size} entries are used.
+	 */
+	private Buffer[] frames;
+	/**
+	 * The policy choosing which {@link Buffer} to evict when the pool is full.
+	 */
+	private ReplacementPolicy policy;
+	/**
+	 * Index from block number to the {@link Buffer} holding that block.
 	 */
-	private LinkedList<Buffer> pool;
+	private BlockTable index;
 	/**
 	 * The current number of managed {@link Buffer} objects.
 	 */
@@ -46,29 +92,124 @@ public class BufferPool
 	/**
 	 * A running count of the number of cache hits.
 	 */
-	private int CACHE_HITS;
+	private long CACHE_HITS;
 	/**
 	 * A running count of the number of cache misses.
 	 */
-	private int CACHE_MISSES;
+	private long CACHE_MISSES;
 	/**
 	 * A running count of the number of disk reads.
 	 */
-	private int DISK_READS;
+	private long DISK_READS;
 	/**
 	 * A running count of the number of disk writes.
 	 */
-	private int DISK_WRITES;
+	private long DISK_WRITES;
+	/**
+	 * A running count of the write operations issued to the source; a run of
+	 * adjacent blocks written at once counts as one.
+	 */
+	private long WRITE_RUNS;
+	/**
+	 * Whether an evicted dirty {@link Buffer} is written together with the
+	 * dirty {@link Buffer Buffers} holding its neighbouring blocks.
+	 */
+	private boolean coalescedEviction;
+	/**
+	 * Guards the pool against its background writer. Every miss, every flush
+	 * and every step of the writer holds this lock.
+	 */
+	private final Object ioLock = new Object();
+	/**
+	 * The background writer, or {@code null} if write-back is not enabled.
+	 */
+	private WriteBack writeBack;
+	/**
+	 * The background reader, or {@code null} if prefetching is not enabled.
+	 */
+	private ReadAhead readAhead;
+	/**
+	 * The number of the block that missed last, used to detect scans.
+	 */
+	private int lastMiss = -2;
+	/**
+	 * How long a miss that finds every {@link Buffer} pinned waits for another
+	 * thread to unpin one, in milliseconds.
+	 */
+	private int pinWait;
+	/**
+	 * A running count of misses served from a prefetched copy of the block.
+	 */
+	private long PREFETCH_HITS;
+	/**
+	 * The logical clock used to stamp accesses to {@link Buffer Buffers}.
+	 */
+	private long clock;
+	/**
+	 * The most blocks written by a single gathering write.
+	 */
+	private static final int MAX_RUN = 64;
+	/**
+	 * Orders {@link Buffer Buffers} by block number.
+	 */
+	private static final Comparator<Buffer> BY_BLOCK = new Comparator<Buffer>()
+	{
+		@Override
+		public int compare(Buffer a, Buffer b)
+		{
+			return Integer.compare(a.getNumber(), b.getNumber());
+		}
+	};
+	/**
+	 * The direct memory new {@link Buffer Buffers} are cut from, or
+	 * {@code null} if they are ordinary heap arrays.
+	 */
+	private BufferArena arena;
+	/**
+	 * The size of blocks within the source, in bytes.
+	 */
+	private final int blockSize;
 	/**
-	 * The static size of blocks within the source, in bytes. For Project 3,
+	 * The length of the source when the pool was created. The block that
+	 * straddles it is written only up to it, so a source that is not a whole
+	 * number of blocks keeps its length; blocks starting at or past it are
+	 * written whole and extend the source.
+	 */
+	private final long sourceLength;
+	/**
+	 * The default size of blocks within the source, in bytes. For Project 3,
 	 * this is 4096.
 	 */
 	public static final int BLOCK_SIZE = 4096;
+	/**
+	 * The smallest block size a pool accepts, in bytes.
+	 */
+	public static final int MIN_BLOCK_SIZE = 512;
+	/**
+	 * The largest block size a pool accepts, in bytes.
+	 */
+	public static final int MAX_BLOCK_SIZE = 4 * 1024 * 1024;
+	/**
+	 * The largest block size {@link BufferPool#tuneBlockSize(long, long)
+	 * tuneBlockSize} chooses, in bytes.
+	 */
+	public static final int MAX_TUNED_BLOCK_SIZE = 1024 * 1024;
+	/**
+	 * The fewest {@link Buffer Buffers} a tuned pool is left with when the
+	 * source fits in it.
+	 */
+	private static final int MIN_TUNED_BUFFERS = 16;
+	/**
+	 * The fewest {@link Buffer Buffers} a tuned pool is left with when the
+	 * source does not fit in it.
+	 */
+	private static final int MIN_TUNED_BUFFERS_OUT = 1024;
 
 	/**
 	 * Constructs a new {@code BufferPool} with space for {@code numBuffers}
 	 * using {@code file}. By default, {@code file} is used to create a new
-	 * {@link RandomAccessFile} set to {@code rw} mode.
+	 * {@link RandomAccessFile} set to {@code rw} mode. Buffers are replaced
+	 * using the <b>Least Recently Used</b> scheme.
 	 * <p/>
 	 * @param numBuffers the number of {@link Buffer Buffers} this pool will
 	 *                      manage
@@ -78,10 +219,59 @@ public class BufferPool
 	 */
 	public BufferPool(int numBuffers, File file) throws FileNotFoundException
 	{
-		//heapsort.output.println("new BufferPool");
-		pool = new LinkedList<>();
+		this(numBuffers, file, new LRUPolicy());
+	}
+
+	/**
+	 * Constructs a new {@code BufferPool} with space for {@code numBuffers}
+	 * using {@code file}, replacing buffers as decided by {@code policy}.
+	 * <p/>
+	 * @param numBuffers the number of {@link Buffer Buffers} this pool will
+	 *                      manage
+	 * @param file       the {@link File} from which to read and write
+	 * @param policy     the {@link ReplacementPolicy} to use; it must not be
+	 *                      shared with another pool
+	 * <p/>
+	 * @throws FileNotFoundException
+	 */
+	public BufferPool(int numBuffers, File file, ReplacementPolicy policy)
+			throws FileNotFoundException
+	{
+		this(numBuffers, file, policy, BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructs a new {@code BufferPool} with space for {@code numBuffers}
+	 * blocks of {@code blockSize} bytes using {@code file}, replacing buffers
+	 * as decided by {@code policy}.
+	 * <p/>
+	 * @param numBuffers the number of {@link Buffer Buffers} this pool will
+	 *                      manage
+	 * @param file       the {@link File} from which to read and write
+	 * @param policy     the {@link ReplacementPolicy} to use; it must not be
+	 *                      shared with another pool
+	 * @param blockSize  the size of every block, in bytes; a power of two
+	 *                      from {@link BufferPool#MIN_BLOCK_SIZE
+	 *                      MIN_BLOCK_SIZE} to {@link BufferPool#MAX_BLOCK_SIZE
+	 *                      MAX_BLOCK_SIZE}
+	 * <p/>
+	 * @throws FileNotFoundException
+	 */
+	public BufferPool(int numBuffers, File file, ReplacementPolicy policy,
+			int blockSize) throws FileNotFoundException
+	{
+		if (!isValidBlockSize(blockSize))
+		{
+			throw new IllegalArgumentException("Invalid block size: "
+					+ blockSize);
+		}
+		this.blockSize = blockSize;
+		index = new BlockTable(numBuffers);
+		frames = new Buffer[numBuffers];
+		this.policy = policy;
 		POOL_COUNT = numBuffers;
 		this.file = new RandomAccessFile(file, "rw");
+		sourceLength = file.length();
 		CACHE_HITS = 0;
 		CACHE_MISSES = 0;
 		DISK_READS = 0;
@@ -91,8 +281,11 @@ public class BufferPool
 	/**
 	 * Retrieves a byte array from the pool's source file, starting at position
 	 * {@code start}. The returned array is always the size of
-	 * {@link IntegerCollection#RECORD_SIZE}. Bytes from the source are acquired
-	 * byte-by-byte from the right {@link Buffer}.
+	 * {@link IntegerCollection#RECORD_SIZE}.
+	 * <p/>
+	 * This allocates a new array on every call; callers on a hot path should
+	 * prefer {@link BufferPool#get(byte[], long) get(byte[], long)} or
+	 * {@link BufferPool#getInt(long) getInt(long)}.
 	 * <p/>
 	 * @param start the location within the source from which to start reading
 	 *                 bytes
@@ -101,17 +294,88 @@ public class BufferPool
 	 * <p/>
 	 * @throws IOException
 	 */
-	public byte[] get(int start) throws IOException
+	public byte[] get(long start) throws IOException
 	{
 		byte[] ret = new byte[IntegerCollection.RECORD_SIZE];
-		int retIndex = 0;
-		for (int i = start; i < start + IntegerCollection.RECORD_SIZE; i++)
+		get(ret, start);
+		return ret;
+	}
+
+	/**
+	 * Fills {@code dst} with bytes from the pool's source file, starting at
+	 * position {@code start}. Each {@link Buffer} involved is retrieved from
+	 * the pool once, no matter how many of its bytes are copied; a record
+	 * only ever touches more than one {@link Buffer} if it straddles a block
+	 * boundary.
+	 * <p/>
+	 * @param dst   the array to fill; its length is the number of bytes read
+	 * @param start the location within the source from which to start reading
+	 *                 bytes
+	 * <p/>
+	 * @throws IOException
+	 */
+	public void get(byte[] dst, long start) throws IOException
+	{
+		get(dst, 0, dst.length, start);
+	}
+
+	/**
+	 * Copies {@code count} bytes from the pool's source file, starting at
+	 * position {@code start}, into {@code dst} starting at {@code off}. Each
+	 * {@link Buffer} involved is retrieved from the pool once.
+	 * <p/>
+	 * @param dst   the array to fill
+	 * @param off   the first index of {@code dst} to fill
+	 * @param count the number of bytes to read
+	 * @param start the location within the source from which to start reading
+	 *                 bytes
+	 * <p/>
+	 * @throws IOException
+	 */
+	@Override
+	public void get(byte[] dst, int off, int count, long start)
+			throws IOException
+	{
+		int done = 0;
+		while (done < count)
 		{
-			//determine which Buffer to look at
-			int blockNum = i / BLOCK_SIZE;
-			Buffer buff = retrieve(blockNum, blockNum * BLOCK_SIZE);
-			ret[retIndex] = buff.get(i - (blockNum * BLOCK_SIZE));
-			retIndex++;
+			long pos = start + done;
+			int blockNum = (int) (pos / blockSize);
+			int offset = (int) (pos % blockSize);
+			int len = Math.min(count - done, blockSize - offset);
+			Buffer buff = retrieve(blockNum, (long) blockNum * blockSize);
+			buff.getBytes(dst, off + done, offset, len);
+			done += len;
+		}
+	}
+
+	/**
+	 * Reads the four bytes of the source starting at {@code start} as one
+	 * big-endian {@code int}, without allocating. This is the packed form of
+	 * one {@link IntegerCollection} record.
+	 * <p/>
+	 * @param start the location within the source from which to start reading
+	 * <p/>
+	 * @return the four bytes, most significant first
+	 * <p/>
+	 * @throws IOException
+	 */
+	@Override
+	public int getInt(long start) throws IOException
+	{
+		int blockNum = (int) (start / blockSize);
+		int offset = (int) (start % blockSize);
+		if (offset + 4 <= blockSize)
+		{
+			return retrieve(blockNum, (long) blockNum * blockSize).getInt(offset);
+		}
+		//straddles two blocks; only possible for misaligned positions
+		int ret = 0;
+		for (long i = start; i < start + 4; i++)
+		{
+			blockNum = (int) (i / blockSize);
+			Buffer buff = retrieve(blockNum, (long) blockNum * blockSize);
+			ret = (ret << 8) | (buff.get((int) (i % blockSize)) & 0xff);
 		}
 		return ret;
 	}
@@ -126,238 +390,1607 @@ public class BufferPool
 	 * {@code start} denotes the location within the source at which bytes will
 	 * be overwritten by the information contained within {@code bytes}.
 	 * {@code start} is also used to retrieve the proper {@link Buffer} from the
-	 * pool.
+	 * pool; if {@code bytes} runs past the end of that block, the following
+	 * {@link Buffer} is used for the remainder.
 	 * <p/>
 	 * @param bytes the bytes to assign to a {@link Buffer}
 	 * @param start the starting index in the source at which to overwrite
 	 * <p/>
 	 * @throws IOException
 	 */
-	public void set(byte[] bytes, int start) throws IOException
+	public void set(byte[] bytes, long start) throws IOException
+	{
+		set(bytes, 0, bytes.length, start);
+	}
+
+	/**
+	 * Writes {@code count} bytes of {@code bytes}, starting at {@code off},
+	 * into the source starting at position {@code start}. Every
+	 * {@link Buffer} involved is marked as {@code dirty}.
+	 * <p/>
+	 * @param bytes the bytes to assign
+	 * @param off   the first index of {@code bytes} to write
+	 * @param count the number of bytes to write
+	 * @param start the starting index in the source at which to overwrite
+	 * <p/>
+	 * @throws IOException
+	 */
+	@Override
+	public void set(byte[] bytes, int off, int count, long start)
+			throws IOException
 	{
-		//Determine which Buffer to get
-		int blockNum = start / BLOCK_SIZE;
-		Buffer buff = retrieve(blockNum, blockNum * BLOCK_SIZE);
-		int newStart = start;
-		//this check ensures the request index is always relative to the 
-		//Buffer's byte array, NOT the source's array. Without this check, a
-		//request to position 5000 (in Buffer 01) would result in a request in
-		//Buffer 01's byte array at 5000, generating an out of bounds exception
-		if (blockNum != 0)
+		int done = 0;
+		while (done < count)
 		{
-			newStart = start % BLOCK_SIZE;
+			long pos = start + done;
+			//Determine which Buffer to get
+			int blockNum = (int) (pos / blockSize);
+			//the request index must always be relative to the Buffer's byte
+			//array, NOT the source's array
+			int offset = (int) (pos % blockSize);
+			int len = Math.min(count - done, blockSize - offset);
+			Buffer buff = retrieve(blockNum, (long) blockNum * blockSize);
+			buff.setBytes(bytes, off + done, offset, len);
+			buff.makeDirty();
+			done += len;
 		}
-		buff.setBytes(bytes, newStart);
-		buff.makeDirty();
 	}
 
 	/**
-	 * Flushes all {@link Buffers} in the pool.
+	 * Reads {@code count} consecutive big-endian {@code int} values of the
+	 * source, starting at {@code start}, into {@code dst}. Each block is
+	 * looked up once for all the values it holds, and nothing is allocated.
+	 * <p/>
+	 * @param dst   the array to fill
+	 * @param off   the first index of {@code dst} to fill
+	 * @param count the number of values to read
+	 * @param start the location within the source of the first value
 	 * <p/>
 	 * @throws IOException
 	 */
-	public void flush() throws IOException
+	@Override
+	public void getInts(int[] dst, int off, int count, long start)
+			throws IOException
 	{
-		for (Buffer buff : pool)
+		if (start % 4 != 0)
 		{
-			if (buff.isDirty())
+			//values may straddle blocks; only possible for misaligned positions
+			for (int i = 0; i < count; i++)
 			{
-				setBytesInFile(buff.bytes(), buff.getNumber() * BLOCK_SIZE);
-				buff.clean();
+				dst[off + i] = getInt(start + 4 * i);
 			}
+			return;
+		}
+		int done = 0;
+		while (done < count)
+		{
+			long pos = start + 4 * done;
+			int blockNum = (int) (pos / blockSize);
+			int offset = (int) (pos % blockSize);
+			int len = Math.min(count - done, (blockSize - offset) / 4);
+			Buffer buff = retrieve(blockNum, (long) blockNum * blockSize);
+			buff.getInts(offset, dst, off + done, len);
+			done += len;
 		}
 	}
 
 	/**
-	 * Closes the source file stream.
+	 * Writes {@code count} values of {@code src} as consecutive big-endian
+	 * {@code int} values into the source starting at {@code start}. Each
+	 * block is looked up once for all the values it receives, and every
+	 * {@link Buffer} involved is marked as {@code dirty}.
+	 * <p/>
+	 * @param src   the values to write
+	 * @param off   the first index of {@code src} to write
+	 * @param count the number of values to write
+	 * @param start the location within the source of the first value
 	 * <p/>
 	 * @throws IOException
 	 */
-	public void closeSourceStream() throws IOException
+	@Override
+	public void setInts(int[] src, int off, int count, long start)
+			throws IOException
 	{
-		file.close();
+		if (start % 4 != 0)
+		{
+			//values may straddle blocks; only possible for misaligned positions
+			for (int i = 0; i < count; i++)
+			{
+				setInt(src[off + i], start + 4 * i);
+			}
+			return;
+		}
+		int done = 0;
+		while (done < count)
+		{
+			long pos = start + 4 * done;
+			int blockNum = (int) (pos / blockSize);
+			int offset = (int) (pos % blockSize);
+			int len = Math.min(count - done, (blockSize - offset) / 4);
+			Buffer buff = retrieve(blockNum, (long) blockNum * blockSize);
+			buff.setInts(offset, src, off + done, len);
+			buff.makeDirty();
+			done += len;
+		}
 	}
 
 	/**
-	 * Get the right {@link Buffer} from the pool given {@code blockNum}. If the
-	 * desired {@link Buffer} is not already in the pool, it must be fetched. If
-	 * the pool is already holding the maximum number of {@link Buffer Buffers},
-	 * as defined by {@link BufferPool#POOL_COUNT POOL_COUNT}, then the
-	 * {@link Buffer} at the end of the list is removed and the new
-	 * {@link Buffer} added to the front. If the removed {@link Buffer} is
-	 * marked as {@code dirty}, bytes in the source are modified.
-	 * <p/>
-	 * If the desired {@link Buffer} is already in the pool, a {@code cache hit}
-	 * occurs. {@link BufferPool#CACHE_HITS CACHE_HITS} is incremented.
+	 * Writes {@code value} as four big-endian bytes into the source starting
+	 * at {@code start}, without allocating. The affected {@link Buffer} is
+	 * marked as {@code dirty}.
 	 * <p/>
-	 * @param blockNum if the desired {@link Buffer} is already in the pool, the
-	 *                    {@link Buffer} with this number will be returned
-	 * @param start    the starting index in the source at which to read data
+	 * @param value the value to write, most significant byte first
+	 * @param start the starting index in the source at which to overwrite
 	 * <p/>
-	 * @return the desired {@link Buffer}
+	 * @throws IOException
+	 */
+	@Override
+	public void setInt(int value, long start) throws IOException
+	{
+		int blockNum = (int) (start / blockSize);
+		int offset = (int) (start % blockSize);
+		if (offset + 4 <= blockSize)
+		{
+			Buffer buff = retrieve(blockNum, (long) blockNum * blockSize);
+			buff.setInt(offset, value);
+			buff.makeDirty();
+			return;
+		}
+		//straddles two blocks; only possible for misaligned positions
+		for (long i = start; i < start + 4; i++)
+		{
+			blockNum = (int) (i / blockSize);
+			Buffer buff = retrieve(blockNum, (long) blockNum * blockSize);
+			buff.set((int) (i % blockSize),
+					(byte) (value >> (8 * (int) (start + 3 - i))));
+			buff.makeDirty();
+		}
+	}
+
+	/**
+	 * Flushes all {@link Buffers} in the pool. Dirty {@link Buffer Buffers}
+	 * are written in block order, and each run of adjacent blocks is written
+	 * with a single gathering write, so flushing a large pool is mostly
+	 * sequential I/O.
 	 * <p/>
 	 * @throws IOException
-	 * @see BufferPool#setBytesInFile(byte[], int)
 	 */
-	private Buffer retrieve(int blockNum, int start) throws IOException
+	@Override
+	public void flush() throws IOException
 	{
-		//Iterate through the pool for speed gains (as opposed to using a 
-		//for-each loop
-		ListIterator<Buffer> iter = pool.listIterator();
-		//first search the pool for the right Buffer
-		while (iter.hasNext())
+		synchronized (ioLock)
 		{
-			Buffer buff = iter.next();
-			//Match!
-			if (buff.getNumber() == blockNum)
+			awaitWriteBack(-1);
+			Buffer[] dirty = new Buffer[size];
+			int count = 0;
+			for (int i = 0; i < size; i++)
 			{
-				iter.remove();
-				pool.addFirst(buff);
-				CACHE_HITS++;
-				return buff;
+				if (frames[i].isDirty())
+				{
+					dirty[count++] = frames[i];
+				}
+			}
+			Arrays.sort(dirty, 0, count, BY_BLOCK);
+			int from = 0;
+			while (from < count)
+			{
+				int to = from + 1;
+				while (to < count && to - from < MAX_RUN
+						&& dirty[to].getNumber() == dirty[to - 1].getNumber() + 1)
+				{
+					to++;
+				}
+				writeRun(dirty, from, to - from);
+				from = to;
 			}
 		}
-		//not in the pool, so add it
-		Buffer buff = addBuffer(blockNum, start);
-		return buff;
 	}
 
 	/**
-	 * Adds a {@link Buffer} not already managed to the pool using the <b>Least
-	 * Recently Used scheme</b>. If the pool is not full, then the desired
-	 * {@link Buffer} is simply added to the front of the list. Otherwise the
-	 * last {@link Buffer} is removed from the list and recycled as the "new"
-	 * one and added to the front. If the removed {@link Buffer} is marked as
-	 * {@code dirty}, then bytes in the source are modified.
+	 * Lets a miss that finds every {@link Buffer} pinned wait up to
+	 * {@code millis} milliseconds for one to be unpinned before it fails. Only
+	 * useful when other threads pin {@link Buffer Buffers} of this pool and
+	 * unpin them without its lock, as through a {@link ConcurrentBufferPool};
+	 * by default a pool used by one thread fails at once, since nothing could
+	 * unpin a {@link Buffer} in the meantime.
 	 * <p/>
-	 * As this method is only invoked when a desired {@link Buffer} is not in
-	 * the pool, a {@code cache miss} occurs.
-	 * {@link BufferPool#CACHE_MISSES CACHE_MISSES} is incremented.
+	 * @param millis the longest wait, in milliseconds
+	 */
+	public void setPinWait(int millis)
+	{
+		pinWait = Math.max(0, millis);
+	}
+
+	/**
+	 * Makes every eviction of a dirty {@link Buffer} also write the dirty
+	 * {@link Buffer Buffers} holding the blocks next to it, up to a run of
+	 * {@link BufferPool#MAX_RUN MAX_RUN} adjacent blocks, with one gathering
+	 * write. The neighbours stay in the pool, clean. This trades some early
+	 * writes of blocks that may be dirtied again for fewer, longer writes.
+	 */
+	@Override
+	public void enableCoalescedEviction()
+	{
+		coalescedEviction = true;
+	}
+
+	/**
+	 * Returns the size of the blocks of this pool, in bytes.
 	 * <p/>
-	 * @param blockNum the number of the desired {@link Buffer}
-	 * @param start    the starting index (within the source) of the new
-	 *                    {@link Buffer Buffer's} bytes
+	 * @return the block size
+	 */
+	@Override
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+
+	/**
+	 * Determines if {@code blockSize} may be used as the block size of a
+	 * pool: a power of two from {@link BufferPool#MIN_BLOCK_SIZE
+	 * MIN_BLOCK_SIZE} to {@link BufferPool#MAX_BLOCK_SIZE MAX_BLOCK_SIZE}.
 	 * <p/>
-	 * @return the new {@link Buffer} added to the pool
+	 * @param blockSize the block size to check, in bytes
 	 * <p/>
-	 * @throws IOException
-	 * @see BufferPool#setBytesInFile(byte[], int)
+	 * @return {@code true} if the block size is valid, {@code false} otherwise
 	 */
-	private Buffer addBuffer(int blockNum, int start) throws IOException
+	public static boolean isValidBlockSize(int blockSize)
 	{
-		Buffer buff;
-		//if the pool is full, remove the last Buffer, setting bytes if the
-		//Buffer is dirty
-		if (size == POOL_COUNT)
+		return blockSize >= MIN_BLOCK_SIZE && blockSize <= MAX_BLOCK_SIZE
+				&& Integer.bitCount(blockSize) == 1;
+	}
+
+	/**
+	 * Chooses a block size for a source of {@code sourceBytes} bytes and a
+	 * pool of {@code budgetBytes} bytes of memory. Larger blocks mean fewer,
+	 * longer I/O operations but fewer {@link Buffer Buffers} for the same
+	 * memory, so the largest power of two from
+	 * {@link BufferPool#BLOCK_SIZE BLOCK_SIZE} to
+	 * {@link BufferPool#MAX_TUNED_BLOCK_SIZE MAX_TUNED_BLOCK_SIZE} is chosen
+	 * that still leaves enough of them. If the whole source fits in the
+	 * budget, the pool must still hold all of it and at least
+	 * {@link BufferPool#MIN_TUNED_BUFFERS MIN_TUNED_BUFFERS} blocks; every
+	 * block is then read once and written once whatever its size. Otherwise
+	 * accesses are scattered and the pool must keep at least
+	 * {@link BufferPool#MIN_TUNED_BUFFERS_OUT MIN_TUNED_BUFFERS_OUT} blocks.
+	 * <p/>
+	 * @param sourceBytes the length of the source
+	 * @param budgetBytes the memory available for {@link Buffer Buffers}
+	 * <p/>
+	 * @return the chosen block size, at least
+	 *            {@link BufferPool#BLOCK_SIZE BLOCK_SIZE}
+	 */
+	public static int tuneBlockSize(long sourceBytes, long budgetBytes)
+	{
+		boolean fits = sourceBytes <= budgetBytes;
+		for (int size = MAX_TUNED_BLOCK_SIZE; size > BLOCK_SIZE; size /= 2)
 		{
-			buff = pool.removeLast();
-			if (buff.isDirty())
+			long buffers = budgetBytes / size;
+			long needed = (sourceBytes + size - 1) / size;
+			if (fits ? buffers >= Math.max(needed, MIN_TUNED_BUFFERS)
+					: buffers >= MIN_TUNED_BUFFERS_OUT)
 			{
-				setBytesInFile(buff.bytes(), buff.getNumber() * BLOCK_SIZE);
-				buff.clean();
+				return size;
 			}
-			//decrement size, knowing it will be incremented next anyway. This
-			//is done so the size is always incremented properly; if the pool is
-			//not full then size still needs to be incremented when a new Buffer
-			//is added
-			size--;
-			//reuse this Buffer and its byte array rather than allocating a new 
-			//array
-			getBytesFromFile(buff.bytes(), start);
-			buff.setNumber(blockNum);
-		}
-		//the pool is not full so a new Buffer is needed
-		else
-		{
-			buff = new Buffer(blockNum,
-					getBytesFromFile(new byte[BLOCK_SIZE], start));
 		}
-		size++;
-		pool.addFirst(buff);
-		CACHE_MISSES++;
-		return buff;
+		return BLOCK_SIZE;
 	}
 
 	/**
-	 * Retrieves a bytes from the source starting at {@code start} and placed
-	 * into {@code ret}. Data is read from disk in this method as bytes are
-	 * accessed directly from the source file (stored on disk).
-	 * {@link BufferPool#DISK_READS DISK_READS} is incremented.
-	 * <p/>
-	 * A byte array is used from elsewhere (as {@code ret}) rather than
-	 * allocating a new array of size {@link BufferPool#BLOCK_SIZE BLOCK_SIZE}.
+	 * Pins the block containing source position {@code start} in the pool,
+	 * loading it if necessary, and returns the {@link Buffer} holding it. The
+	 * {@link Buffer} is not evicted until every pin on it has been released
+	 * with {@link BufferPool#unpin(Buffer) unpin}, so it can be read and
+	 * written directly, at offset {@code start % getBlockSize()}, without looking
+	 * the block up again. Writing through the handle must be followed by
+	 * {@link Buffer#makeDirty() makeDirty}. Pinning counts as one access.
 	 * <p/>
-	 * @param start the starting index at which to acquire bytes from the source
+	 * @param start a location within the source
 	 * <p/>
-	 * @return the acquired bytes from the source
+	 * @return the {@link Buffer} holding the block, pinned
 	 * <p/>
 	 * @throws IOException
+	 * @throws IllegalStateException if every {@link Buffer} is already pinned
+	 *                                  and the block is not in the pool
 	 */
-	private byte[] getBytesFromFile(byte[] ret, int start) throws IOException
+	@Override
+	public Buffer pin(long start) throws IOException
 	{
-		//navigate to the right position in the source
-		file.seek(start);
-		file.read(ret, 0, BLOCK_SIZE);
-		DISK_READS++;
-		return ret;
+		int blockNum = (int) (start / blockSize);
+		Buffer buff = retrieve(blockNum, (long) blockNum * blockSize);
+		buff.pin();
+		return buff;
 	}
 
 	/**
-	 * Modifies the contents of the source starting at {@code start}. The
-	 * contents of {@code bytes} are used to overwrite existing information.
-	 * Data is written to the source file (stored on disk).
-	 * {@link BufferPool#DISK_WRITES DISK_WRITES} is incremented.
-	 * <p/>
-	 * @param bytes the bytes to write
-	 * @param start the starting index at which to write
+	 * Releases one pin on {@code buff}, which must have been returned by
+	 * {@link BufferPool#pin(long) pin}. Once no pins remain it may be evicted
+	 * again, and must not be used as a handle any more.
 	 * <p/>
-	 * @throws IOException
+	 * @param buff the pinned {@link Buffer}
 	 */
-	private void setBytesInFile(byte[] bytes, int start) throws IOException
+	@Override
+	public void unpin(Buffer buff)
 	{
-		//navigate to proper position
-		file.seek(start);
-		file.write(bytes);
-		DISK_WRITES++;
+		buff.unpin();
 	}
 
 	/**
-	 * Retrieves the number of cache hits this {@code BufferPool} generated.
+	 * Looks up the {@link Buffer} holding block {@code blockNum} without
+	 * taking any lock, for threads sharing this pool through a
+	 * {@link ConcurrentBufferPool} while another thread may be loading blocks.
+	 * The answer may be out of date: before using the {@link Buffer} the
+	 * caller must pin it or start a short access on it, which fails if the
+	 * pool is replacing its block, and then check that its number is still
+	 * {@code blockNum}. Neither the policy nor the hit count is told.
 	 * <p/>
-	 * @return the cache hit count
+	 * @param blockNum the block to look up
+	 * <p/>
+	 * @return the {@link Buffer} that held the block, or {@code null}
 	 */
-	public int getCacheHits()
+	public Buffer lookup(int blockNum)
 	{
-		return this.CACHE_HITS;
+		return index.probe(blockNum);
 	}
 
 	/**
-	 * Retrieves the number of cache misses this {@code BufferPool} generated.
+	 * Closes the source file stream.
 	 * <p/>
-	 * @return the cache miss count
+	 * @throws IOException
 	 */
-	public int getCacheMisses()
+	@Override
+	public void closeSourceStream() throws IOException
 	{
-		return this.CACHE_MISSES;
+		if (writeBack != null)
+		{
+			writeBack.finish();
+		}
+		if (readAhead != null)
+		{
+			readAhead.finish();
+		}
+		file.close();
 	}
 
 	/**
-	 * Retrieves the number of disk reads this {@code BufferPool} made.
+	 * Starts a background thread that writes dirty {@link Buffer Buffers}
+	 * back to the source whenever more than {@code watermark} of them are
+	 * dirty, least recently used first. A miss that evicts a {@link Buffer}
+	 * already cleaned this way only has to read, and
+	 * {@link BufferPool#flush() flush} has less left to write. Calling this
+	 * more than once has no further effect.
 	 * <p/>
-	 * @return the disk read count
+	 * @param watermark the number of dirty {@link Buffer Buffers} tolerated
+	 *                     before the thread starts writing
 	 */
-	public int getDiskReads()
+	@Override
+	public void enableWriteBack(int watermark)
 	{
-		return this.DISK_READS;
+		if (writeBack == null)
+		{
+			if (arena != null)
+			{
+				//the writer's staging block
+				arena.reserve(1);
+			}
+			writeBack = new WriteBack(Math.max(0, watermark));
+			writeBack.start();
+		}
 	}
 
 	/**
-	 * Retrieves the number of disk writes this {@code BufferPool} made.
+	 * Keeps the bytes of every {@link Buffer} this pool creates in direct
+	 * memory, outside the Java heap, instead of in heap arrays. The
+	 * {@link Buffer Buffers} are slices of a few large direct allocations (see
+	 * {@link BufferArena}), so a pool of any size adds nothing for the garbage
+	 * collector to scan, and blocks are read and written by the channel
+	 * without an intermediate copy. Record access is unchanged.
 	 * <p/>
-	 * @return the disk write count
+	 * The arena is sized for {@link BufferPool#POOL_COUNT POOL_COUNT} blocks;
+	 * {@link BufferPool#enableWriteBack(int) enableWriteBack} adds the
+	 * writer's staging block to it, and
+	 * {@link BufferPool#enablePrefetch(int) enablePrefetch} the up to twice
+	 * {@code depth} blocks the reader holds.
+	 * <p/>
+	 * This must be called before the pool is used in any other way.
+	 * <p/>
+	 * @throws IllegalStateException if the pool has already been used
 	 */
-	public int getDiskWrites()
+	@Override
+	public void enableDirectStorage()
 	{
-		return this.DISK_WRITES;
+		if (size > 0 || writeBack != null || readAhead != null)
+		{
+			throw new IllegalStateException("pool already in use");
+		}
+		if (arena == null)
+		{
+			arena = new BufferArena(POOL_COUNT, blockSize);
+		}
+	}
+
+	/**
+	 * Determines if this pool keeps its {@link Buffer Buffers} in direct
+	 * memory.
+	 * <p/>
+	 * @return {@code true} if direct storage is enabled, {@code false}
+	 *            otherwise
+	 */
+	@Override
+	public boolean isDirectStorage()
+	{
+		return arena != null;
+	}
+
+	/**
+	 * Allocates the storage for one block: a slice of the arena if direct
+	 * storage is enabled, a heap array otherwise.
+	 * <p/>
+	 * @return a new, zeroed, block-sized {@link ByteBuffer}
+	 */
+	private ByteBuffer allocateBlock()
+	{
+		return arena != null ? arena.slice() : ByteBuffer.allocate(blockSize);
+	}
+
+	/**
+	 * Starts a background thread that reads blocks into spare storage before
+	 * they are needed. Blocks are requested explicitly through
+	 * {@link BufferPool#prefetch(long) prefetch}, and whenever two consecutive
+	 * blocks miss in a row, the next {@code depth} blocks are requested too.
+	 * A later miss on a prefetched block takes the prefetched bytes instead of
+	 * reading the source. Calling this more than once has no further effect.
+	 * <p/>
+	 * @param depth the number of blocks read ahead of a scan; up to twice
+	 *                 this many blocks are held or queued at once
+	 * <p/>
+	 * @throws IOException
+	 */
+	@Override
+	public void enablePrefetch(int depth) throws IOException
+	{
+		if (readAhead == null)
+		{
+			long blocks = (file.length() + blockSize - 1) / blockSize;
+			readAhead = new ReadAhead(Math.max(1, depth), blocks);
+			if (arena != null)
+			{
+				//queued and staged blocks are capped at twice the depth
+				arena.reserve(2 * readAhead.depth);
+			}
+			readAhead.start();
+		}
+	}
+
+	/**
+	 * Stops reading blocks in the background and counts every prefetched
+	 * block not used so far as wasted, so that
+	 * {@link BufferPool#getPrefetchesWasted() getPrefetchesWasted} is final.
+	 * Misses are read directly from then on. This does nothing unless
+	 * prefetching is enabled.
+	 */
+	@Override
+	public void stopPrefetch()
+	{
+		if (readAhead != null)
+		{
+			readAhead.finish();
+		}
+	}
+
+	/**
+	 * Asks for the block containing source position {@code start} to be read
+	 * in the background, if it is not already in the pool. This is only a
+	 * hint: it does nothing unless prefetching is enabled, and requests are
+	 * dropped when too many are outstanding. It never blocks on I/O.
+	 * <p/>
+	 * @param start a location within the source
+	 */
+	@Override
+	public void prefetch(long start)
+	{
+		if (readAhead != null)
+		{
+			int blockNum = (int) (start / blockSize);
+			if (index.get(blockNum) == null)
+			{
+				readAhead.request(blockNum);
+			}
+		}
+	}
+
+	/**
+	 * Waits until the background writer is not writing block {@code blockNum},
+	 * or is not writing anything if {@code blockNum} is negative. The caller
+	 * must hold {@link BufferPool#ioLock ioLock}.
+	 * <p/>
+	 * @param blockNum the block that must not be in flight, or {@code -1}
+	 * <p/>
+	 * @throws IOException if interrupted while waiting
+	 */
+	private void awaitWriteBack(int blockNum) throws IOException
+	{
+		while (writeBack != null && writeBack.inFlight >= 0
+				&& (blockNum < 0 || writeBack.inFlight == blockNum))
+		{
+			try
+			{
+				ioLock.wait();
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for "
+						+ "write-back of block " + writeBack.inFlight);
+			}
+		}
+	}
+
+	/**
+	 * Get the right {@link Buffer} from the pool given {@code blockNum}. If the
+	 * desired {@link Buffer} is not already in the pool, it must be fetched. If
+	 * the pool is already holding the maximum number of {@link Buffer Buffers},
+	 * as defined by {@link BufferPool#POOL_COUNT POOL_COUNT}, then the
+	 * {@link Buffer} chosen by the {@link ReplacementPolicy} is removed and
+	 * recycled for the new block. If the removed {@link Buffer} is marked as
+	 * {@code dirty}, bytes in the source are modified.
+	 * <p/>
+	 * If the desired {@link Buffer} is already in the pool, a {@code cache hit}
+	 * occurs. {@link BufferPool#CACHE_HITS CACHE_HITS} is incremented.
+	 * <p/>
+	 * @param blockNum if the desired {@link Buffer} is already in the pool, the
+	 *                    {@link Buffer} with this number will be returned
+	 * @param start    the starting index in the source at which to read data
+	 * <p/>
+	 * @return the desired {@link Buffer}
+	 * <p/>
+	 * @throws IOException
+	 * @see BufferPool#setBytesInFile(ByteBuffer, long)
+	 */
+	private Buffer retrieve(int blockNum, long start) throws IOException
+	{
+		//first search the pool for the right Buffer
+		Buffer buff = index.get(blockNum);
+		//Match!
+		if (buff != null)
+		{
+			policy.accessed(buff);
+			buff.setLastUsed(++clock);
+			CACHE_HITS++;
+			return buff;
+		}
+		//not in the pool, so add it
+		synchronized (ioLock)
+		{
+			buff = addBuffer(blockNum, start);
+		}
+		buff.setLastUsed(++clock);
+		return buff;
+	}
+
+	/**
+	 * Adds a {@link Buffer} not already managed to the pool. If the pool is
+	 * not full, then a new {@link Buffer} is created for the desired block.
+	 * Otherwise the {@link Buffer} chosen by the {@link ReplacementPolicy} is
+	 * removed and recycled as the "new" one. If the removed {@link Buffer} is
+	 * marked as {@code dirty}, then bytes in the source are modified.
+	 * <p/>
+	 * As this method is only invoked when a desired {@link Buffer} is not in
+	 * the pool, a {@code cache miss} occurs.
+	 * {@link BufferPool#CACHE_MISSES CACHE_MISSES} is incremented.
+	 * <p/>
+	 * @param blockNum the number of the desired {@link Buffer}
+	 * @param start    the starting index (within the source) of the new
+	 *                    {@link Buffer Buffer's} bytes
+	 * <p/>
+	 * @return the new {@link Buffer} added to the pool
+	 * <p/>
+	 * @throws IOException
+	 * @see BufferPool#setBytesInFile(ByteBuffer, long)
+	 */
+	private Buffer addBuffer(int blockNum, long start) throws IOException
+	{
+		Buffer buff;
+		//if the pool is full, remove the policy's victim, setting bytes if the
+		//Buffer is dirty
+		if (size == POOL_COUNT)
+		{
+			buff = policy.evict(blockNum);
+			//from here until it holds its new block no thread may touch it
+			if (!buff.claim())
+			{
+				buff = evictUnpinned(blockNum, buff);
+			}
+			index.remove(buff.getNumber());
+			if (buff.isDirty())
+			{
+				//an older copy still being written must not land after this one
+				awaitWriteBack(buff.getNumber());
+				if (coalescedEviction)
+				{
+					writeNeighbourhood(buff);
+				}
+				else
+				{
+					buff.clean();
+					setBytesInFile(buff.bytes(), (long) buff.getNumber() * blockSize);
+				}
+			}
+			//decrement size, knowing it will be incremented next anyway. This
+			//is done so the size is always incremented properly; if the pool is
+			//not full then size still needs to be incremented when a new Buffer
+			//is added
+			size--;
+			//reuse this Buffer and its byte array rather than allocating a new 
+			//array
+			loadBlock(buff, blockNum, start);
+			buff.setNumber(blockNum);
+		}
+		//the pool is not full so a new Buffer is needed
+		else
+		{
+			buff = new Buffer(blockNum, allocateBlock());
+			buff.claim();
+			loadBlock(buff, blockNum, start);
+			frames[size] = buff;
+		}
+		size++;
+		buff.release();
+		policy.admitted(buff);
+		index.put(blockNum, buff);
+		CACHE_MISSES++;
+		if (writeBack != null)
+		{
+			//the miss may have pushed the pool over the dirty watermark
+			ioLock.notifyAll();
+		}
+		return buff;
+	}
+
+	/**
+	 * Keeps asking the policy for victims until it offers one that can be
+	 * claimed, then hands the ones in use it offered first back to the policy
+	 * unchanged, latest first. If every {@link Buffer} is in use but some only
+	 * for a short access by another thread, which ends without the lock, the
+	 * search starts over once that thread has had a chance to run; if all are
+	 * pinned, it starts over until the
+	 * {@link BufferPool#setPinWait(int) pin wait} runs out. The caller must
+	 * hold {@link BufferPool#ioLock ioLock}.
+	 * <p/>
+	 * @param blockNum the number of the block about to be loaded
+	 * @param inUse    the victim the policy offered first, which could not be
+	 *                    claimed
+	 * <p/>
+	 * @return a claimed victim, no longer tracked by the policy
+	 * <p/>
+	 * @throws IllegalStateException if every {@link Buffer} stays pinned
+	 */
+	private Buffer evictUnpinned(int blockNum, Buffer inUse)
+	{
+		Buffer buff = inUse;
+		long deadline = System.nanoTime() + pinWait * 1000000L;
+		while (true)
+		{
+			ArrayList<Buffer> skipped = new ArrayList<>();
+			boolean accessed = false;
+			while (!buff.claim())
+			{
+				accessed |= !buff.isPinned();
+				skipped.add(buff);
+				if (skipped.size() == size)
+				{
+					buff = null;
+					break;
+				}
+				buff = policy.evict(blockNum);
+			}
+			for (int i = skipped.size() - 1; i >= 0; i--)
+			{
+				policy.reinstate(skipped.get(i));
+			}
+			if (buff != null)
+			{
+				return buff;
+			}
+			if (!accessed && System.nanoTime() - deadline >= 0)
+			{
+				throw new IllegalStateException("All " + size
+						+ " buffers are pinned; cannot load block " + blockNum);
+			}
+			Thread.yield();
+			buff = policy.evict(blockNum);
+		}
+	}
+
+	/**
+	 * Fills {@code buff} with block {@code blockNum}, taking a prefetched copy
+	 * if one is ready and reading the source otherwise. A miss directly
+	 * following a miss on the previous block starts sequential read-ahead.
+	 * The caller must hold {@link BufferPool#ioLock ioLock}.
+	 * <p/>
+	 * @param buff     the {@link Buffer} to fill
+	 * @param blockNum the number of the block to load
+	 * @param start    the starting index (within the source) of the block
+	 * <p/>
+	 * @throws IOException
+	 */
+	private void loadBlock(Buffer buff, int blockNum, long start)
+			throws IOException
+	{
+		//a stale copy of the block must not be read while the background
+		//writer is still writing the current one
+		awaitWriteBack(blockNum);
+		ByteBuffer staged = readAhead == null ? null : readAhead.take(blockNum);
+		if (staged != null)
+		{
+			readAhead.recycle(buff.replaceBytes(staged));
+			PREFETCH_HITS++;
+		}
+		else
+		{
+			getBytesFromFile(buff.bytes(), start);
+		}
+		if (readAhead != null)
+		{
+			readAhead.missed();
+		}
+		if (readAhead != null && blockNum == lastMiss + 1)
+		{
+			for (int i = 1; i <= readAhead.depth; i++)
+			{
+				if (index.get(blockNum + i) == null)
+				{
+					readAhead.request(blockNum + i);
+				}
+			}
+		}
+		lastMiss = blockNum;
+	}
+
+	/**
+	 * Retrieves a bytes from the source starting at {@code start} and placed
+	 * into {@code ret}. Data is read from disk in this method as bytes are
+	 * accessed directly from the source file (stored on disk).
+	 * {@link BufferPool#DISK_READS DISK_READS} is incremented.
+	 * <p/>
+	 * Storage is used from elsewhere (as {@code ret}) rather than allocating
+	 * a new block of size {@link BufferPool#getBlockSize() getBlockSize}.
+	 * <p/>
+	 * @param start the starting index at which to acquire bytes from the source
+	 * <p/>
+	 * @return the acquired bytes from the source
+	 * <p/>
+	 * @throws IOException
+	 */
+	private ByteBuffer getBytesFromFile(ByteBuffer ret, long start)
+			throws IOException
+	{
+		readBlock(ret, start);
+		DISK_READS++;
+		return ret;
+	}
+
+	/**
+	 * Modifies the contents of the source starting at {@code start}. The
+	 * contents of {@code bytes} are used to overwrite existing information.
+	 * Data is written to the source file (stored on disk).
+	 * {@link BufferPool#DISK_WRITES DISK_WRITES} is incremented.
+	 * <p/>
+	 * @param bytes the bytes to write
+	 * @param start the starting index at which to write
+	 * <p/>
+	 * @throws IOException
+	 */
+	private void setBytesInFile(ByteBuffer bytes, long start) throws IOException
+	{
+		writeBlock(bytes, start);
+		DISK_WRITES++;
+		WRITE_RUNS++;
+		if (readAhead != null)
+		{
+			readAhead.invalidate((int) (start / blockSize));
+		}
+	}
+
+	/**
+	 * Writes evicted {@link Buffer} {@code victim} together with the dirty
+	 * {@link Buffer Buffers} holding the blocks directly before and after it.
+	 * The caller must hold {@link BufferPool#ioLock ioLock}.
+	 * <p/>
+	 * @param victim the dirty {@link Buffer} being evicted
+	 * <p/>
+	 * @throws IOException
+	 */
+	private void writeNeighbourhood(Buffer victim) throws IOException
+	{
+		int first = victim.getNumber();
+		int last = first;
+		while (last - first + 1 < MAX_RUN && isDirtyBlock(first - 1))
+		{
+			first--;
+		}
+		while (last - first + 1 < MAX_RUN && isDirtyBlock(last + 1))
+		{
+			last++;
+		}
+		if (first < last)
+		{
+			//nothing in the run may be overtaken by an older background write
+			awaitWriteBack(-1);
+		}
+		Buffer[] run = new Buffer[last - first + 1];
+		for (int i = 0; i < run.length; i++)
+		{
+			//the victim is no longer in the index
+			run[i] = first + i == victim.getNumber() ? victim
+					: index.get(first + i);
+		}
+		writeRun(run, 0, run.length);
+	}
+
+	/**
+	 * Determines if block {@code blockNum} is held by a dirty {@link Buffer}.
+	 * <p/>
+	 * @param blockNum the block number to check
+	 * <p/>
+	 * @return {@code true} if the block is resident and dirty
+	 */
+	private boolean isDirtyBlock(int blockNum)
+	{
+		Buffer buff = blockNum < 0 ? null : index.get(blockNum);
+		return buff != null && buff.isDirty();
+	}
+
+	/**
+	 * Cleans and writes {@code count} {@link Buffer Buffers} of {@code run},
+	 * starting at {@code from}, which hold consecutive blocks in ascending
+	 * order, as one write. {@link BufferPool#DISK_WRITES DISK_WRITES} is
+	 * incremented once per block. The caller must hold
+	 * {@link BufferPool#ioLock ioLock}.
+	 * <p/>
+	 * @param run   the {@link Buffer Buffers} to write
+	 * @param from  the index of the first one in {@code run}
+	 * @param count the number to write
+	 * <p/>
+	 * @throws IOException
+	 */
+	private void writeRun(Buffer[] run, int from, int count) throws IOException
+	{
+		long start = (long) run[from].getNumber() * blockSize;
+		if (count == 1)
+		{
+			run[from].clean();
+			setBytesInFile(run[from].bytes(), start);
+			return;
+		}
+		ByteBuffer[] srcs = new ByteBuffer[count];
+		for (int i = 0; i < count; i++)
+		{
+			run[from + i].clean();
+			srcs[i] = run[from + i].bytes();
+		}
+		writeBlocks(srcs, start);
+		DISK_WRITES += count;
+		WRITE_RUNS++;
+		if (readAhead != null)
+		{
+			for (int i = 0; i < count; i++)
+			{
+				readAhead.invalidate(run[from + i].getNumber());
+			}
+		}
+	}
+
+	/**
+	 * Performs the actual read behind
+	 * {@link BufferPool#getBytesFromFile(ByteBuffer, long) getBytesFromFile}. By
+	 * default the channel of the source's {@link RandomAccessFile} is read at
+	 * {@code start}; subclasses may supply the bytes some other way. This may
+	 * be called by the background writer's owner while the writer is inside
+	 * {@link BufferPool#writeBlock(ByteBuffer, long) writeBlock}, so overrides
+	 * must tolerate that.
+	 * <p/>
+	 * Only the contents of {@code ret} may be changed, not its position or
+	 * limit.
+	 * <p/>
+	 * @param ret   the storage to fill with one block of bytes
+	 * @param start the starting index at which to acquire bytes from the source
+	 * <p/>
+	 * @throws IOException
+	 */
+	protected void readBlock(ByteBuffer ret, long start) throws IOException
+	{
+		//positional reads leave the file pointer alone, so they are safe
+		//alongside the background writer
+		ByteBuffer dst = ret.duplicate();
+		dst.clear();
+		FileChannel channel = file.getChannel();
+		long pos = start;
+		while (dst.hasRemaining())
+		{
+			int read = channel.read(dst, pos);
+			if (read < 0)
+			{
+				break;
+			}
+			pos += read;
+		}
+	}
+
+	/**
+	 * Returns how many of the {@code length} bytes of a block starting at
+	 * {@code start} are to be written. Only the block straddling the original
+	 * end of the source, {@link BufferPool#sourceLength sourceLength}, is
+	 * clipped to it; every other block is written whole, including blocks
+	 * past that end.
+	 * <p/>
+	 * @param start  the starting index of the block
+	 * @param length the size of the block, in bytes
+	 * <p/>
+	 * @return the number of bytes to write, from {@code 1} to {@code length}
+	 */
+	private int writableBytes(long start, int length)
+	{
+		if (start >= sourceLength)
+		{
+			return length;
+		}
+		return (int) Math.min(length, sourceLength - start);
+	}
+
+	/**
+	 * Performs the actual write behind
+	 * {@link BufferPool#setBytesInFile(ByteBuffer, long) setBytesInFile}. By
+	 * default the channel of the source's {@link RandomAccessFile} is written
+	 * at {@code start}; subclasses may store the bytes some other way. The
+	 * background writer calls this without holding any lock.
+	 * <p/>
+	 * Only the contents of {@code bytes} may be read, not its position or
+	 * limit changed. If the block straddles the length the source had when
+	 * the pool was created, the bytes past that length are dropped; a block
+	 * wholly past it is written in full.
+	 * <p/>
+	 * @param bytes the block of bytes to write
+	 * @param start the starting index at which to write
+	 * <p/>
+	 * @throws IOException
+	 */
+	protected void writeBlock(ByteBuffer bytes, long start) throws IOException
+	{
+		ByteBuffer src = bytes.duplicate();
+		src.clear();
+		src.limit(writableBytes(start, src.capacity()));
+		FileChannel channel = file.getChannel();
+		long pos = start;
+		while (src.hasRemaining())
+		{
+			pos += channel.write(src, pos);
+		}
+	}
+
+	/**
+	 * Writes consecutive blocks {@code srcs}, the first of which starts at
+	 * {@code start}. By default the channel of the source's
+	 * {@link RandomAccessFile} is positioned at {@code start} and written with
+	 * one gathering write. Only the pool's owner calls this, while holding
+	 * {@link BufferPool#ioLock ioLock}; the background threads use positional
+	 * I/O, which does not depend on the channel's position. As in
+	 * {@link BufferPool#writeBlock(ByteBuffer, long) writeBlock}, only the
+	 * block straddling the original length of the source is clipped; the
+	 * blocks after it in the run are written separately, at their own
+	 * positions.
+	 * <p/>
+	 * @param srcs  the blocks of bytes to write, in order
+	 * @param start the starting index at which to write the first block
+	 * <p/>
+	 * @throws IOException
+	 */
+	protected void writeBlocks(ByteBuffer[] srcs, long start) throws IOException
+	{
+		ByteBuffer[] dups = new ByteBuffer[srcs.length];
+		int split = srcs.length;
+		for (int i = 0; i < srcs.length; i++)
+		{
+			dups[i] = srcs[i].duplicate();
+			dups[i].clear();
+			dups[i].limit(writableBytes(start + (long) i * blockSize,
+					dups[i].capacity()));
+			if (dups[i].limit() < dups[i].capacity())
+			{
+				//the clipped block; what follows it is not contiguous
+				split = i + 1;
+			}
+		}
+		gather(dups, 0, split, start);
+		gather(dups, split, srcs.length - split,
+				start + (long) split * blockSize);
+	}
+
+	/**
+	 * Writes the remaining bytes of {@code count} buffers of {@code srcs},
+	 * from index {@code off}, one after another into the source starting at
+	 * {@code start}, with gathering writes.
+	 * <p/>
+	 * @param srcs  the buffers to write
+	 * @param off   the index of the first buffer
+	 * @param count the number of buffers
+	 * @param start the starting index at which to write
+	 * <p/>
+	 * @throws IOException
+	 */
+	private void gather(ByteBuffer[] srcs, int off, int count, long start)
+			throws IOException
+	{
+		long wanted = 0;
+		for (int i = off; i < off + count; i++)
+		{
+			wanted += srcs[i].remaining();
+		}
+		FileChannel channel = file.getChannel();
+		channel.position(start);
+		long written = 0;
+		while (written < wanted)
+		{
+			written += channel.write(srcs, off, count);
+		}
+	}
+
+	/**
+	 * Retrieves the {@link FileChannel} of this {@code BufferPool's} source.
+	 * <p/>
+	 * @return the source's channel
+	 */
+	protected FileChannel getChannel()
+	{
+		return file.getChannel();
+	}
+
+	/**
+	 * Retrieves the number of cache hits this {@code BufferPool} generated.
+	 * <p/>
+	 * @return the cache hit count
+	 */
+	@Override
+	public long getCacheHits()
+	{
+		return this.CACHE_HITS;
+	}
+
+	/**
+	 * Retrieves the number of cache misses this {@code BufferPool} generated.
+	 * <p/>
+	 * @return the cache miss count
+	 */
+	@Override
+	public long getCacheMisses()
+	{
+		return this.CACHE_MISSES;
+	}
+
+	/**
+	 * Retrieves the number of disk reads this {@code BufferPool} made,
+	 * including those made in the background by prefetching.
+	 * <p/>
+	 * @return the disk read count
+	 */
+	@Override
+	public long getDiskReads()
+	{
+		synchronized (ioLock)
+		{
+			return this.DISK_READS + (readAhead == null ? 0 : readAhead.reads);
+		}
+	}
+
+	/**
+	 * Retrieves the number of misses that were served from a prefetched copy
+	 * of the block rather than by reading the source.
+	 * <p/>
+	 * @return the prefetch hit count
+	 */
+	@Override
+	public long getPrefetchHits()
+	{
+		return this.PREFETCH_HITS;
+	}
+
+	/**
+	 * Retrieves the number of prefetched blocks that were thrown away unused,
+	 * because the block was written, was read directly before the prefetch
+	 * completed, or was never needed at all.
+	 * <p/>
+	 * @return the wasted prefetch count
+	 */
+	@Override
+	public long getPrefetchesWasted()
+	{
+		synchronized (ioLock)
+		{
+			return readAhead == null ? 0 : readAhead.wasted;
+		}
+	}
+
+	/**
+	 * Retrieves the number of disk writes this {@code BufferPool} made.
+	 * <p/>
+	 * @return the disk write count
+	 */
+	@Override
+	public long getDiskWrites()
+	{
+		return this.DISK_WRITES + getBackgroundWrites();
+	}
+
+	/**
+	 * Retrieves the number of write operations this {@code BufferPool} issued,
+	 * not counting the background writer; a run of adjacent blocks written at
+	 * once counts as one.
+	 * <p/>
+	 * @return the write operation count
+	 */
+	@Override
+	public long getWriteRuns()
+	{
+		return this.WRITE_RUNS;
+	}
+
+	/**
+	 * Retrieves the number of disk writes made by the background writer. These
+	 * are included in {@link BufferPool#getDiskWrites() getDiskWrites}.
+	 * <p/>
+	 * @return the background write count, {@code 0} if write-back is disabled
+	 */
+	@Override
+	public long getBackgroundWrites()
+	{
+		synchronized (ioLock)
+		{
+			return writeBack == null ? 0 : writeBack.writes;
+		}
+	}
+
+	/**
+	 * Retrieves the maximum number of {@link Buffer Buffers} this
+	 * {@code BufferPool} can hold at once.
+	 * <p/>
+	 * @return the buffer count
+	 */
+	@Override
+	public int getBufferCount()
+	{
+		return this.POOL_COUNT;
+	}
+
+	/**
+	 * Retrieves the {@link ReplacementPolicy} this {@code BufferPool} uses.
+	 * <p/>
+	 * @return the replacement policy
+	 */
+	@Override
+	public ReplacementPolicy getPolicy()
+	{
+		return this.policy;
+	}
+
+	/**
+	 * The background writer started by
+	 * {@link BufferPool#enableWriteBack(int) enableWriteBack}. Whenever more
+	 * than {@code watermark} {@link Buffer Buffers} are dirty, it cleans the
+	 * least recently used dirty one, copies its bytes while holding
+	 * {@link BufferPool#ioLock ioLock}, and writes the copy without the lock,
+	 * so the owner of the pool keeps working while the write is in progress.
+	 */
+	private class WriteBack
+			extends Thread
+	{
+
+		/**
+		 * The number of dirty {@link Buffer Buffers} tolerated.
+		 */
+		private final int watermark;
+		/**
+		 * The copy of the block being written.
+		 */
+		private final ByteBuffer staging = allocateBlock();
+		/**
+		 * The number of the block being written, or {@code -1}. Guarded by
+		 * {@link BufferPool#ioLock ioLock}.
+		 */
+		private int inFlight = -1;
+		/**
+		 * A running count of the writes made. Guarded by
+		 * {@link BufferPool#ioLock ioLock}.
+		 */
+		private long writes = 0;
+		/**
+		 * Cleared to stop the thread.
+		 */
+		private volatile boolean running = true;
+
+		/**
+		 * Constructs a new daemon {@code WriteBack} thread.
+		 * <p/>
+		 * @param watermark the number of dirty {@link Buffer Buffers} tolerated
+		 */
+		WriteBack(int watermark)
+		{
+			super("BufferPool write-back");
+			this.watermark = watermark;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while (true)
+				{
+					Buffer buff;
+					int blockNum;
+					synchronized (ioLock)
+					{
+						buff = nextToClean();
+						while (running && buff == null)
+						{
+							ioLock.wait();
+							buff = nextToClean();
+						}
+						if (!running)
+						{
+							return;
+						}
+						//clean before copying so that a concurrent change is
+						//either in the copy or re-dirties the Buffer
+						buff.clean();
+						buff.copyTo(staging);
+						blockNum = buff.getNumber();
+						inFlight = blockNum;
+					}
+					boolean written = false;
+					try
+					{
+						writeBlock(staging, (long) blockNum * blockSize);
+						written = true;
+					}
+					finally
+					{
+						synchronized (ioLock)
+						{
+							if (written)
+							{
+								writes++;
+								if (readAhead != null)
+								{
+									readAhead.invalidate(blockNum);
+								}
+							}
+							else if (buff.getNumber() == blockNum)
+							{
+								buff.makeDirty();
+							}
+							inFlight = -1;
+							ioLock.notifyAll();
+						}
+					}
+				}
+			}
+			catch (InterruptedException | IOException ex)
+			{
+				Logger.getLogger(BufferPool.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+
+		/**
+		 * Finds the least recently used dirty {@link Buffer}, if more than
+		 * {@code watermark} are dirty. The caller must hold
+		 * {@link BufferPool#ioLock ioLock}.
+		 * <p/>
+		 * @return the {@link Buffer} to clean next, or {@code null} if none
+		 */
+		private Buffer nextToClean()
+		{
+			Buffer oldest = null;
+			int dirty = 0;
+			for (int i = 0; i < size; i++)
+			{
+				Buffer buff = frames[i];
+				if (buff.isDirty())
+				{
+					dirty++;
+					if (oldest == null || buff.getLastUsed() < oldest.getLastUsed())
+					{
+						oldest = buff;
+					}
+				}
+			}
+			return dirty > watermark ? oldest : null;
+		}
+
+		/**
+		 * Stops the thread once its current write, if any, is done, and waits
+		 * for it to exit.
+		 */
+		void finish()
+		{
+			running = false;
+			synchronized (ioLock)
+			{
+				ioLock.notifyAll();
+			}
+			try
+			{
+				join();
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * The background reader started by
+	 * {@link BufferPool#enablePrefetch(int) enablePrefetch}. Requested blocks
+	 * are queued; the thread marks a block as loading while holding
+	 * {@link BufferPool#ioLock ioLock}, reads it without the lock, and then
+	 * keeps the bytes only if the mark is still there. Any write of the block
+	 * in the meantime removes the mark, so a prefetched copy is never older
+	 * than the source.
+	 */
+	private class ReadAhead
+			extends Thread
+	{
+
+		/**
+		 * Marks a block whose read is in progress.
+		 */
+		private final ByteBuffer loading = ByteBuffer.allocate(0);
+		/**
+		 * The number of blocks read ahead of a scan.
+		 */
+		private final int depth;
+		/**
+		 * The number of blocks in the source; nothing past it is read.
+		 */
+		private final long blocks;
+		/**
+		 * Requested blocks not yet read. Guarded by
+		 * {@link BufferPool#ioLock ioLock}, as is everything below.
+		 */
+		private final ArrayDeque<Integer> queue = new ArrayDeque<>();
+		/**
+		 * Prefetched blocks, or {@code loading} for reads in progress.
+		 */
+		private final HashMap<Integer, ByteBuffer> staged = new HashMap<>();
+		/**
+		 * Spare block-sized storage handed back by the pool.
+		 */
+		private final ArrayDeque<ByteBuffer> spare = new ArrayDeque<>();
+		/**
+		 * A running count of the reads made.
+		 */
+		private long reads = 0;
+		/**
+		 * A running count of prefetched blocks thrown away unused.
+		 */
+		private long wasted = 0;
+		/**
+		 * The number of misses the pool has reported.
+		 */
+		private long misses = 0;
+		/**
+		 * The miss count at which every queued or staged block was
+		 * requested, oldest request first.
+		 */
+		private final LinkedHashMap<Integer, Long> requested =
+				new LinkedHashMap<>();
+		/**
+		 * Cleared to stop the thread.
+		 */
+		private volatile boolean running = true;
+
+		/**
+		 * Constructs a new daemon {@code ReadAhead} thread.
+		 * <p/>
+		 * @param depth  the number of blocks read ahead of a scan
+		 * @param blocks the number of blocks in the source
+		 */
+		ReadAhead(int depth, long blocks)
+		{
+			super("BufferPool read-ahead");
+			this.depth = depth;
+			this.blocks = blocks;
+			setDaemon(true);
+		}
+
+		/**
+		 * Queues block {@code blockNum} to be read, unless it is past the end
+		 * of the source, already queued or held, or too many blocks are, or
+		 * the thread has been stopped.
+		 * <p/>
+		 * @param blockNum the block to read
+		 */
+		void request(int blockNum)
+		{
+			synchronized (ioLock)
+			{
+				if (!running || blockNum >= blocks
+						|| queue.size() + staged.size() >= 2 * depth
+						|| staged.containsKey(blockNum) || queue.contains(blockNum))
+				{
+					return;
+				}
+				queue.add(blockNum);
+				requested.remove(blockNum);
+				requested.put(blockNum, misses);
+				ioLock.notifyAll();
+			}
+		}
+
+		/**
+		 * Notes a miss of the pool and drops every block requested more than
+		 * twice {@code depth} misses ago that has not been taken. By then the
+		 * scan or sift that asked for it has moved past it, and keeping it
+		 * would only hold a place that fresher requests need. Dropped blocks
+		 * already read count as wasted; a read in progress is counted when it
+		 * completes. The caller must hold {@link BufferPool#ioLock ioLock}.
+		 */
+		void missed()
+		{
+			misses++;
+			Iterator<Map.Entry<Integer, Long>> it = requested.entrySet()
+					.iterator();
+			while (it.hasNext())
+			{
+				Map.Entry<Integer, Long> entry = it.next();
+				if (misses - entry.getValue() <= 2 * depth)
+				{
+					break;
+				}
+				it.remove();
+				queue.remove(entry.getKey());
+				ByteBuffer bytes = staged.remove(entry.getKey());
+				if (bytes != null && bytes != loading)
+				{
+					wasted++;
+					spare.add(bytes);
+				}
+			}
+		}
+
+		/**
+		 * Removes and returns the prefetched bytes of block {@code blockNum}.
+		 * A read still in progress is abandoned. The caller must hold
+		 * {@link BufferPool#ioLock ioLock}.
+		 * <p/>
+		 * @param blockNum the block wanted
+		 * <p/>
+		 * @return the block's bytes, or {@code null} if none are ready
+		 */
+		ByteBuffer take(int blockNum)
+		{
+			requested.remove(blockNum);
+			queue.remove(blockNum);
+			ByteBuffer bytes = staged.remove(blockNum);
+			if (bytes == loading)
+			{
+				return null;
+			}
+			return bytes;
+		}
+
+		/**
+		 * Throws away any prefetched copy of block {@code blockNum}, which has
+		 * just been written. The caller must hold
+		 * {@link BufferPool#ioLock ioLock}.
+		 * <p/>
+		 * @param blockNum the block written
+		 */
+		void invalidate(int blockNum)
+		{
+			ByteBuffer bytes = staged.remove(blockNum);
+			if (bytes != null && bytes != loading)
+			{
+				wasted++;
+				spare.add(bytes);
+			}
+		}
+
+		/**
+		 * Hands block-sized storage back for reuse. The caller must hold
+		 * {@link BufferPool#ioLock ioLock}.
+		 * <p/>
+		 * @param bytes the spare storage
+		 */
+		void recycle(ByteBuffer bytes)
+		{
+			spare.add(bytes);
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while (true)
+				{
+					int blockNum;
+					ByteBuffer bytes;
+					synchronized (ioLock)
+					{
+						while (running && queue.isEmpty())
+						{
+							ioLock.wait();
+						}
+						if (!running)
+						{
+							return;
+						}
+						blockNum = queue.remove();
+						//a block being written back would be read stale
+						if (writeBack != null && writeBack.inFlight == blockNum)
+						{
+							continue;
+						}
+						staged.put(blockNum, loading);
+						bytes = spare.isEmpty() ? allocateBlock() : spare.remove();
+					}
+					readBlock(bytes, (long) blockNum * blockSize);
+					synchronized (ioLock)
+					{
+						reads++;
+						if (staged.get(blockNum) == loading)
+						{
+							staged.put(blockNum, bytes);
+						}
+						else
+						{
+							wasted++;
+							spare.add(bytes);
+						}
+					}
+				}
+			}
+			catch (InterruptedException | IOException ex)
+			{
+				Logger.getLogger(BufferPool.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+
+		/**
+		 * Stops the thread once its current read, if any, is done, waits for
+		 * it to exit, and counts every block still held as wasted. Later
+		 * requests are ignored. Calling this again does nothing more.
+		 */
+		void finish()
+		{
+			running = false;
+			synchronized (ioLock)
+			{
+				ioLock.notifyAll();
+			}
+			try
+			{
+				join();
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+			synchronized (ioLock)
+			{
+				for (ByteBuffer bytes : staged.values())
+				{
+					if (bytes != loading)
+					{
+						wasted++;
+					}
+				}
+				staged.clear();
+				queue.clear();
+				requested.clear();
+			}
+		}
 	}
 }
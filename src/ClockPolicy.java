@@ -0,0 +1,88 @@
+
+/**
+ * {@code ClockPolicy} implements the <b>CLOCK</b> (second chance) scheme. Each
+ * {@link Buffer} carries a reference flag that is set on every hit. The clock
+ * hand sweeps from the oldest {@link Buffer} onward: a referenced
+ * {@link Buffer} has its flag cleared and is passed over, the first
+ * unreferenced one is the victim.
+ * <p/>
+ * The ring is kept as a {@link BufferList} in arrival order; passing over a
+ * {@link Buffer} moves it to the front, which is equivalent to advancing the
+ * hand past it. Hits therefore cost only a flag write, which is what makes
+ * CLOCK cheaper than LRU on hit-heavy workloads.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class ClockPolicy
+		implements ReplacementPolicy
+{
+
+	/**
+	 * The managed {@link Buffer Buffers}; the back of the list is under the
+	 * clock hand.
+	 */
+	private BufferList ring = new BufferList();
+	/**
+	 * The number of hits reported to this policy.
+	 */
+	private long hits;
+	/**
+	 * The number of misses reported to this policy.
+	 */
+	private long misses;
+
+	@Override
+	public void accessed(Buffer buff)
+	{
+		hits++;
+		buff.setReferenced(true);
+	}
+
+	@Override
+	public void admitted(Buffer buff)
+	{
+		misses++;
+		buff.setReferenced(false);
+		ring.addFirst(buff);
+	}
+
+	@Override
+	public Buffer evict(int blockNum)
+	{
+		Buffer hand = ring.last();
+		while (hand.isReferenced())
+		{
+			hand.setReferenced(false);
+			ring.moveToFront(hand);
+			hand = ring.last();
+		}
+		ring.remove(hand);
+		return hand;
+	}
+
+	@Override
+	public void reinstate(Buffer buff)
+	{
+		//the hand stops at it again, with its reference flag still clear
+		ring.addLast(buff);
+	}
+
+	@Override
+	public long getHits()
+	{
+		return hits;
+	}
+
+	@Override
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "CLOCK";
+	}
+}
@@ -0,0 +1,867 @@
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@code ConcurrentBufferPool} objects are {@link BufferCache BufferCaches}
+ * that may be shared by any number of threads. Blocks are partitioned across a
+ * fixed number of segments by block number; each segment is an ordinary
+ * {@link BufferPool} with its own share of the {@link Buffer Buffers}, its own
+ * {@link ReplacementPolicy} and its own handle on the source, and is locked on
+ * its own. There is no lock over the pool as a whole.
+ * <p/>
+ * Hits take no lock at all. The block is looked up in its segment with
+ * {@link BufferPool#lookup(int) lookup}, the {@link Buffer} found is pinned or
+ * given a short access, which fails if the segment is replacing its block,
+ * and its number is checked; only then are its bytes used. A segment's lock is
+ * taken only when that fails, that is on a miss, which may evict, and for
+ * flushing and configuration. Threads therefore only wait for each other
+ * when one of them misses in the segment another is missing in. Pins are
+ * released without the lock too, so a miss that finds every {@link Buffer}
+ * of its segment pinned by other threads waits briefly for one of them
+ * rather than failing at once. A thread that holds pins of its own fails at
+ * once instead: the pins it would wait for may be its own, or those of a
+ * thread waiting for it in turn.
+ * <p/>
+ * Lock-free hits are counted in one {@link AtomicLong} per segment, and are
+ * reported to the segment's policy in batches: each hit records its
+ * {@link Buffer} in a small ring, which is drained into
+ * {@link ReplacementPolicy#accessed(Buffer) accessed} by whichever thread next
+ * holds the segment's lock, or by the hitting thread when the ring has filled
+ * and the lock is free. When several threads hit one segment at once the ring
+ * may drop some of them, so the policy can see slightly fewer hits than the
+ * pool counts. Misses, reads and writes are counted by each segment under its
+ * own lock. The totals reported by this pool are sums over the segments;
+ * while other threads are still working they are a snapshot, once they are
+ * done they are exact.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class ConcurrentBufferPool
+		implements BufferCache
+{
+
+	/**
+	 * The number of hits each segment records for its policy between drains.
+	 * This must be a power of two.
+	 */
+	private static final int RECENT = 128;
+	/**
+	 * How long a miss waits for other threads to unpin a {@link Buffer} of a
+	 * fully pinned segment, in milliseconds.
+	 */
+	private static final int PIN_WAIT = 100;
+	/**
+	 * The number of pins the current thread holds on this pool.
+	 */
+	private final ThreadLocal<int[]> held = new ThreadLocal<int[]>()
+	{
+		@Override
+		protected int[] initialValue()
+		{
+			return new int[1];
+		}
+	};
+	/**
+	 * The segments; block {@code b} belongs to segment
+	 * {@code b % segments.length}.
+	 */
+	private Segment[] segments;
+	/**
+	 * The size of every block, in bytes.
+	 */
+	private int blockSize;
+
+	/**
+	 * Constructs a new {@code ConcurrentBufferPool} over {@code file} with
+	 * {@code numBuffers} {@link Buffer Buffers} in total, split across
+	 * {@code numSegments} segments that each use the <b>Least Recently
+	 * Used</b> scheme.
+	 * <p/>
+	 * @param numBuffers  the total number of {@link Buffer Buffers}
+	 * @param file        the {@link File} from which to read and write
+	 * @param numSegments the number of independently locked segments
+	 * <p/>
+	 * @throws FileNotFoundException
+	 */
+	public ConcurrentBufferPool(int numBuffers, File file, int numSegments)
+			throws FileNotFoundException
+	{
+		this(numBuffers, file, lruPolicies(numSegments));
+	}
+
+	/**
+	 * Constructs a new {@code ConcurrentBufferPool} over {@code file} with
+	 * {@code numBuffers} {@link Buffer Buffers} in total, split across one
+	 * segment per entry of {@code policies}. Every segment gets at least one
+	 * {@link Buffer}.
+	 * <p/>
+	 * @param numBuffers the total number of {@link Buffer Buffers}
+	 * @param file       the {@link File} from which to read and write
+	 * @param policies   the {@link ReplacementPolicy} of each segment; each
+	 *                      must be a distinct object
+	 * <p/>
+	 * @throws FileNotFoundException
+	 */
+	public ConcurrentBufferPool(int numBuffers, File file,
+			ReplacementPolicy[] policies) throws FileNotFoundException
+	{
+		this(numBuffers, file, policies, BufferPool.BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructs a new {@code ConcurrentBufferPool} over {@code file} with
+	 * {@code numBuffers} {@link Buffer Buffers} of {@code blockSize} bytes in
+	 * total, split across one segment per entry of {@code policies}. Every
+	 * segment gets at least one {@link Buffer}.
+	 * <p/>
+	 * @param numBuffers the total number of {@link Buffer Buffers}
+	 * @param file       the {@link File} from which to read and write
+	 * @param policies   the {@link ReplacementPolicy} of each segment; each
+	 *                      must be a distinct object
+	 * @param blockSize  the size of every block, in bytes
+	 * <p/>
+	 * @throws FileNotFoundException
+	 */
+	public ConcurrentBufferPool(int numBuffers, File file,
+			ReplacementPolicy[] policies, int blockSize)
+			throws FileNotFoundException
+	{
+		this.blockSize = blockSize;
+		segments = new Segment[policies.length];
+		for (int i = 0; i < policies.length; i++)
+		{
+			//spread the remainder over the first segments
+			int share = numBuffers / policies.length
+					+ (i < numBuffers % policies.length ? 1 : 0);
+			segments[i] = new Segment(new BufferPool(Math.max(1, share), file,
+					policies[i], blockSize));
+		}
+	}
+
+	/**
+	 * Creates {@code count} independent {@link LRUPolicy} objects.
+	 * <p/>
+	 * @param count the number of policies
+	 * <p/>
+	 * @return the new policies
+	 */
+	private static ReplacementPolicy[] lruPolicies(int count)
+	{
+		ReplacementPolicy[] ret = new ReplacementPolicy[Math.max(1, count)];
+		for (int i = 0; i < ret.length; i++)
+		{
+			ret[i] = new LRUPolicy();
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the segment responsible for source position {@code start}.
+	 * <p/>
+	 * @param start a location within the source
+	 * <p/>
+	 * @return the owning segment
+	 */
+	private Segment segmentFor(long start)
+	{
+		return segments[(int) ((start / blockSize) % segments.length)];
+	}
+
+	/**
+	 * Tries to serve a hit on the block containing {@code start} without
+	 * locking. On success the hit is counted and recorded for the policy, and
+	 * the {@link Buffer} is returned with a short access, or a pin if
+	 * {@code pin} is set, that the caller must give back.
+	 * <p/>
+	 * @param seg   the segment owning the block
+	 * @param start a location within the source
+	 * @param pin   whether to pin the {@link Buffer} rather than start a short
+	 *                 access
+	 * <p/>
+	 * @return the {@link Buffer} holding the block, or {@code null} if the
+	 *            block is not in the segment or is being replaced
+	 */
+	private Buffer hit(Segment seg, long start, boolean pin)
+	{
+		int blockNum = (int) (start / blockSize);
+		Buffer buff = seg.pool.lookup(blockNum);
+		if (buff == null || !(pin ? buff.tryPin() : buff.tryAccess()))
+		{
+			return null;
+		}
+		//the Buffer may have been given another block since it was found
+		if (buff.getNumber() != blockNum)
+		{
+			if (pin)
+			{
+				buff.unpin();
+			}
+			else
+			{
+				buff.endAccess();
+			}
+			return null;
+		}
+		//the count of hits doubles as the position in the ring
+		int slot = (int) seg.hits.getAndIncrement() & (RECENT - 1);
+		seg.recent.lazySet(slot, buff);
+		if (slot == RECENT - 1 && seg.lock.tryLock())
+		{
+			try
+			{
+				drain(seg);
+			}
+			finally
+			{
+				seg.lock.unlock();
+			}
+		}
+		return buff;
+	}
+
+	/**
+	 * Takes the lock of {@code seg}, lets a miss in it wait for pins only if
+	 * the current thread holds none, and reports the hits recorded since the
+	 * last drain to its policy. The caller must unlock it again.
+	 * <p/>
+	 * @param seg the segment to lock
+	 */
+	private void lock(Segment seg)
+	{
+		seg.lock.lock();
+		seg.pool.setPinWait(held.get()[0] > 0 ? 0 : PIN_WAIT);
+		drain(seg);
+	}
+
+	/**
+	 * Reports the hits recorded in {@code seg} to its policy. The caller must
+	 * hold the segment's lock, so no {@link Buffer} is being replaced and
+	 * every recorded one is tracked by the policy.
+	 * <p/>
+	 * @param seg the segment to drain
+	 */
+	private void drain(Segment seg)
+	{
+		ReplacementPolicy policy = seg.pool.getPolicy();
+		for (int i = 0; i < RECENT; i++)
+		{
+			Buffer buff = seg.recent.getAndSet(i, null);
+			if (buff != null)
+			{
+				policy.accessed(buff);
+			}
+		}
+	}
+
+	@Override
+	public void get(byte[] dst, int off, int count, long start)
+			throws IOException
+	{
+		int done = 0;
+		while (done < count)
+		{
+			long pos = start + done;
+			int offset = (int) (pos % blockSize);
+			int len = Math.min(count - done, blockSize - offset);
+			Segment seg = segmentFor(pos);
+			Buffer buff = hit(seg, pos, false);
+			if (buff != null)
+			{
+				try
+				{
+					buff.getBytes(dst, off + done, offset, len);
+				}
+				finally
+				{
+					buff.endAccess();
+				}
+			}
+			else
+			{
+				lock(seg);
+				try
+				{
+					seg.pool.get(dst, off + done, len, pos);
+				}
+				finally
+				{
+					seg.lock.unlock();
+				}
+			}
+			done += len;
+		}
+	}
+
+	@Override
+	public int getInt(long start) throws IOException
+	{
+		if (start % blockSize + 4 <= blockSize)
+		{
+			Segment seg = segmentFor(start);
+			Buffer buff = hit(seg, start, false);
+			if (buff != null)
+			{
+				try
+				{
+					return buff.getInt((int) (start % blockSize));
+				}
+				finally
+				{
+					buff.endAccess();
+				}
+			}
+			lock(seg);
+			try
+			{
+				return seg.pool.getInt(start);
+			}
+			finally
+			{
+				seg.lock.unlock();
+			}
+		}
+		//straddles two segments; only possible for misaligned positions
+		byte[] bytes = new byte[4];
+		get(bytes, 0, 4, start);
+		return (bytes[0] << 24) | ((bytes[1] & 0xff) << 16)
+				| ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+	}
+
+	@Override
+	public void set(byte[] bytes, int off, int count, long start)
+			throws IOException
+	{
+		int done = 0;
+		while (done < count)
+		{
+			long pos = start + done;
+			int offset = (int) (pos % blockSize);
+			int len = Math.min(count - done, blockSize - offset);
+			Segment seg = segmentFor(pos);
+			Buffer buff = hit(seg, pos, false);
+			if (buff != null)
+			{
+				try
+				{
+					buff.setBytes(bytes, off + done, offset, len);
+					buff.makeDirty();
+				}
+				finally
+				{
+					buff.endAccess();
+				}
+			}
+			else
+			{
+				lock(seg);
+				try
+				{
+					seg.pool.set(bytes, off + done, len, pos);
+				}
+				finally
+				{
+					seg.lock.unlock();
+				}
+			}
+			done += len;
+		}
+	}
+
+	@Override
+	public void setInt(int value, long start) throws IOException
+	{
+		if (start % blockSize + 4 <= blockSize)
+		{
+			Segment seg = segmentFor(start);
+			Buffer buff = hit(seg, start, false);
+			if (buff != null)
+			{
+				try
+				{
+					buff.setInt((int) (start % blockSize), value);
+					buff.makeDirty();
+				}
+				finally
+				{
+					buff.endAccess();
+				}
+				return;
+			}
+			lock(seg);
+			try
+			{
+				seg.pool.setInt(value, start);
+			}
+			finally
+			{
+				seg.lock.unlock();
+			}
+			return;
+		}
+		//straddles two segments; only possible for misaligned positions
+		byte[] bytes =
+		{
+			(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8),
+			(byte) value
+		};
+		set(bytes, 0, 4, start);
+	}
+
+	@Override
+	public void getInts(int[] dst, int off, int count, long start)
+			throws IOException
+	{
+		if (start % 4 != 0)
+		{
+			//values may straddle segments; only possible for misaligned positions
+			for (int i = 0; i < count; i++)
+			{
+				dst[off + i] = getInt(start + 4 * i);
+			}
+			return;
+		}
+		int done = 0;
+		while (done < count)
+		{
+			long pos = start + 4 * done;
+			int offset = (int) (pos % blockSize);
+			int len = Math.min(count - done, (blockSize - offset) / 4);
+			Segment seg = segmentFor(pos);
+			Buffer buff = hit(seg, pos, false);
+			if (buff != null)
+			{
+				try
+				{
+					buff.getInts(offset, dst, off + done, len);
+				}
+				finally
+				{
+					buff.endAccess();
+				}
+			}
+			else
+			{
+				lock(seg);
+				try
+				{
+					seg.pool.getInts(dst, off + done, len, pos);
+				}
+				finally
+				{
+					seg.lock.unlock();
+				}
+			}
+			done += len;
+		}
+	}
+
+	@Override
+	public void setInts(int[] src, int off, int count, long start)
+			throws IOException
+	{
+		if (start % 4 != 0)
+		{
+			//values may straddle segments; only possible for misaligned positions
+			for (int i = 0; i < count; i++)
+			{
+				setInt(src[off + i], start + 4 * i);
+			}
+			return;
+		}
+		int done = 0;
+		while (done < count)
+		{
+			long pos = start + 4 * done;
+			int offset = (int) (pos % blockSize);
+			int len = Math.min(count - done, (blockSize - offset) / 4);
+			Segment seg = segmentFor(pos);
+			Buffer buff = hit(seg, pos, false);
+			if (buff != null)
+			{
+				try
+				{
+					buff.setInts(offset, src, off + done, len);
+					buff.makeDirty();
+				}
+				finally
+				{
+					buff.endAccess();
+				}
+			}
+			else
+			{
+				lock(seg);
+				try
+				{
+					seg.pool.setInts(src, off + done, len, pos);
+				}
+				finally
+				{
+					seg.lock.unlock();
+				}
+			}
+			done += len;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p/>
+	 * Reads and writes through the returned handle are not locked; they are
+	 * only safe while no other thread uses the same block.
+	 */
+	@Override
+	public Buffer pin(long start) throws IOException
+	{
+		Segment seg = segmentFor(start);
+		Buffer buff = hit(seg, start, true);
+		if (buff == null)
+		{
+			lock(seg);
+			try
+			{
+				buff = seg.pool.pin(start);
+			}
+			finally
+			{
+				seg.lock.unlock();
+			}
+		}
+		held.get()[0]++;
+		return buff;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p/>
+	 * This takes no lock.
+	 */
+	@Override
+	public void unpin(Buffer buff)
+	{
+		held.get()[0]--;
+		buff.unpin();
+	}
+
+	@Override
+	public void prefetch(long start)
+	{
+		Segment seg = segmentFor(start);
+		if (seg.pool.lookup((int) (start / blockSize)) != null)
+		{
+			//most likely resident already; the hint is not worth the lock
+			return;
+		}
+		lock(seg);
+		try
+		{
+			seg.pool.prefetch(start);
+		}
+		finally
+		{
+			seg.lock.unlock();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		for (Segment seg : segments)
+		{
+			lock(seg);
+			try
+			{
+				seg.pool.flush();
+			}
+			finally
+			{
+				seg.lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public void closeSourceStream() throws IOException
+	{
+		for (Segment seg : segments)
+		{
+			lock(seg);
+			try
+			{
+				seg.pool.closeSourceStream();
+			}
+			finally
+			{
+				seg.lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public void enableWriteBack(int watermark)
+	{
+		for (Segment seg : segments)
+		{
+			lock(seg);
+			try
+			{
+				seg.pool.enableWriteBack(watermark / segments.length);
+			}
+			finally
+			{
+				seg.lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public void enableCoalescedEviction()
+	{
+		for (Segment seg : segments)
+		{
+			lock(seg);
+			try
+			{
+				seg.pool.enableCoalescedEviction();
+			}
+			finally
+			{
+				seg.lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public void enableDirectStorage()
+	{
+		for (Segment seg : segments)
+		{
+			lock(seg);
+			try
+			{
+				seg.pool.enableDirectStorage();
+			}
+			finally
+			{
+				seg.lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public boolean isDirectStorage()
+	{
+		return segments[0].pool.isDirectStorage();
+	}
+
+	@Override
+	public void enablePrefetch(int depth) throws IOException
+	{
+		for (Segment seg : segments)
+		{
+			lock(seg);
+			try
+			{
+				seg.pool.enablePrefetch(depth);
+			}
+			finally
+			{
+				seg.lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public void stopPrefetch()
+	{
+		for (Segment seg : segments)
+		{
+			lock(seg);
+			try
+			{
+				seg.pool.stopPrefetch();
+			}
+			finally
+			{
+				seg.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of independently locked segments.
+	 * <p/>
+	 * @return the segment count
+	 */
+	public int getSegmentCount()
+	{
+		return segments.length;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p/>
+	 * This is the sum over all segments. Any two blocks may still belong to
+	 * the same segment, so a segment holding only one {@link Buffer} cannot
+	 * have both pinned at once.
+	 */
+	@Override
+	public int getBufferCount()
+	{
+		int ret = 0;
+		for (Segment seg : segments)
+		{
+			ret += seg.pool.getBufferCount();
+		}
+		return ret;
+	}
+
+	@Override
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p/>
+	 * This includes the hits served without locking.
+	 */
+	@Override
+	public long getCacheHits()
+	{
+		long ret = 0;
+		for (Segment seg : segments)
+		{
+			ret += seg.pool.getCacheHits() + seg.hits.get();
+		}
+		return ret;
+	}
+
+	@Override
+	public long getCacheMisses()
+	{
+		long ret = 0;
+		for (Segment seg : segments)
+		{
+			ret += seg.pool.getCacheMisses();
+		}
+		return ret;
+	}
+
+	@Override
+	public long getDiskReads()
+	{
+		long ret = 0;
+		for (Segment seg : segments)
+		{
+			ret += seg.pool.getDiskReads();
+		}
+		return ret;
+	}
+
+	@Override
+	public long getDiskWrites()
+	{
+		long ret = 0;
+		for (Segment seg : segments)
+		{
+			ret += seg.pool.getDiskWrites();
+		}
+		return ret;
+	}
+
+	@Override
+	public long getWriteRuns()
+	{
+		long ret = 0;
+		for (Segment seg : segments)
+		{
+			ret += seg.pool.getWriteRuns();
+		}
+		return ret;
+	}
+
+	@Override
+	public long getBackgroundWrites()
+	{
+		long ret = 0;
+		for (Segment seg : segments)
+		{
+			ret += seg.pool.getBackgroundWrites();
+		}
+		return ret;
+	}
+
+	@Override
+	public long getPrefetchHits()
+	{
+		long ret = 0;
+		for (Segment seg : segments)
+		{
+			ret += seg.pool.getPrefetchHits();
+		}
+		return ret;
+	}
+
+	@Override
+	public long getPrefetchesWasted()
+	{
+		long ret = 0;
+		for (Segment seg : segments)
+		{
+			ret += seg.pool.getPrefetchesWasted();
+		}
+		return ret;
+	}
+
+	@Override
+	public ReplacementPolicy getPolicy()
+	{
+		return segments[0].pool.getPolicy();
+	}
+
+	/**
+	 * One segment: a {@link BufferPool}, the lock taken on its misses, and the
+	 * state of its lock-free hits.
+	 */
+	private static class Segment
+	{
+
+		/**
+		 * The pool holding the blocks of this segment.
+		 */
+		private final BufferPool pool;
+		/**
+		 * Held by any thread working inside {@link Segment#pool pool}.
+		 */
+		private final ReentrantLock lock = new ReentrantLock();
+		/**
+		 * The number of hits served without the lock; masked, the slot of
+		 * {@link Segment#recent recent} the next one goes to.
+		 */
+		private final AtomicLong hits = new AtomicLong();
+		/**
+		 * {@link Buffer Buffers} hit without the lock and not yet reported to
+		 * the policy.
+		 */
+		private final AtomicReferenceArray<Buffer> recent =
+				new AtomicReferenceArray<>(RECENT);
+
+		/**
+		 * Constructs a new {@code Segment} around {@code pool}.
+		 * <p/>
+		 * @param pool the pool holding the blocks of this segment
+		 */
+		private Segment(BufferPool pool)
+		{
+			this.pool = pool;
+		}
+	}
+}
@@ -0,0 +1,251 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * {@code DoubleBufferedWriter} objects append packed records sequentially to
+ * a {@link FileChannel} through two buffers of
+ * {@link DoubleBufferedWriter#CHUNK_BLOCKS CHUNK_BLOCKS} blocks each, of
+ * {@link BufferPool#BLOCK_SIZE BLOCK_SIZE} bytes unless another size is
+ * given. While
+ * the caller fills one buffer, a background thread writes the other, so
+ * producing records and writing them overlap and the channel only ever sees
+ * large writes in ascending position order.
+ * <p/>
+ * Unlike {@link RunWriter}, whose writes happen on the calling thread, this
+ * is meant for the one long output stream of a sort.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class DoubleBufferedWriter
+{
+
+	/**
+	 * The size of each of the two buffers, in blocks.
+	 */
+	public static final int CHUNK_BLOCKS = 16;
+	/**
+	 * The channel written to.
+	 */
+	private final FileChannel channel;
+	/**
+	 * The buffer currently being filled.
+	 */
+	private ByteBuffer filling;
+	/**
+	 * The buffer being written, or free to be filled next.
+	 */
+	private ByteBuffer spare;
+	/**
+	 * The write of {@code spare} in progress, or {@code null}.
+	 */
+	private Future<Void> pending;
+	/**
+	 * The thread writing full buffers.
+	 */
+	private final ExecutorService writer;
+	/**
+	 * The channel position of the next buffer.
+	 */
+	private long position;
+	/**
+	 * The number of records written so far.
+	 */
+	private long count;
+	/**
+	 * The number of blocks written so far.
+	 */
+	private long blocksWritten;
+	/**
+	 * The size of a block, in bytes.
+	 */
+	private final int blockSize;
+
+	/**
+	 * Constructs a new {@code DoubleBufferedWriter} that writes from the start
+	 * of {@code channel}.
+	 * <p/>
+	 * @param channel the channel to write to
+	 */
+	public DoubleBufferedWriter(FileChannel channel)
+	{
+		this(channel, BufferPool.BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructs a new {@code DoubleBufferedWriter} that writes from the start
+	 * of {@code channel} in blocks of {@code blockSize} bytes.
+	 * <p/>
+	 * @param channel   the channel to write to
+	 * @param blockSize the size of a block, in bytes
+	 */
+	public DoubleBufferedWriter(FileChannel channel, int blockSize)
+	{
+		this.channel = channel;
+		this.blockSize = blockSize;
+		filling = ByteBuffer.allocateDirect(CHUNK_BLOCKS * blockSize);
+		spare = ByteBuffer.allocateDirect(CHUNK_BLOCKS * blockSize);
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread ret = new Thread(r, "DoubleBufferedWriter");
+				ret.setDaemon(true);
+				return ret;
+			}
+		});
+	}
+
+	/**
+	 * Appends one packed record.
+	 * <p/>
+	 * @param packed the packed record
+	 * <p/>
+	 * @throws IOException
+	 */
+	public void write(int packed) throws IOException
+	{
+		if (!filling.hasRemaining())
+		{
+			swap();
+		}
+		filling.putInt(packed);
+		count++;
+	}
+
+	/**
+	 * Appends one record of {@code length} bytes, taken from {@code src}
+	 * starting at {@code offset}.
+	 * <p/>
+	 * @param src    the array holding the record
+	 * @param offset the position of the record in {@code src}
+	 * @param length the size of the record, in bytes
+	 * <p/>
+	 * @throws IOException
+	 */
+	public void write(byte[] src, int offset, int length) throws IOException
+	{
+		while (length > 0)
+		{
+			if (!filling.hasRemaining())
+			{
+				swap();
+			}
+			int chunk = Math.min(length, filling.remaining());
+			filling.put(src, offset, chunk);
+			offset += chunk;
+			length -= chunk;
+		}
+		count++;
+	}
+
+	/**
+	 * Writes out the records not yet written, waits for every write to finish
+	 * and stops the background thread. The writer cannot be used afterwards.
+	 * <p/>
+	 * @throws IOException
+	 */
+	public void close() throws IOException
+	{
+		try
+		{
+			swap();
+			await();
+		}
+		finally
+		{
+			writer.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the number of records written so far.
+	 * <p/>
+	 * @return the record count
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Returns the number of blocks written so far.
+	 * <p/>
+	 * @return the block write count
+	 */
+	public long getBlocksWritten()
+	{
+		return blocksWritten;
+	}
+
+	/**
+	 * Hands the buffer being filled to the background thread, once the
+	 * previous write has finished, and continues with the other buffer.
+	 * <p/>
+	 * @throws IOException
+	 */
+	private void swap() throws IOException
+	{
+		await();
+		filling.flip();
+		final ByteBuffer full = filling;
+		final long at = position;
+		position += full.remaining();
+		blocksWritten += (full.remaining() + blockSize - 1) / blockSize;
+		pending = writer.submit(new Callable<Void>()
+		{
+			@Override
+			public Void call() throws IOException
+			{
+				long pos = at;
+				while (full.hasRemaining())
+				{
+					pos += channel.write(full, pos);
+				}
+				return null;
+			}
+		});
+		filling = spare;
+		filling.clear();
+		spare = full;
+	}
+
+	/**
+	 * Waits for the write in progress, if any, and rethrows its failure.
+	 * <p/>
+	 * @throws IOException
+	 */
+	private void await() throws IOException
+	{
+		if (pending == null)
+		{
+			return;
+		}
+		try
+		{
+			pending.get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing", ex);
+		}
+		catch (ExecutionException ex)
+		{
+			throw new IOException("Write failed", ex.getCause());
+		}
+		finally
+		{
+			pending = null;
+		}
+	}
+}
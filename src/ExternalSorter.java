@@ -0,0 +1,799 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sorts an {@link IntegerCollection} by external merge sort instead of
+ * heapsort. The collection is read once, front to back, through an in-memory
+ * heap of a fixed number of records using replacement selection, which
+ * writes sorted runs about twice the size of the heap to a temporary file.
+ * The runs are then merged, up to as many at a time as fit in the same
+ * memory budget, and the final merge streams the records back into the
+ * collection. Every access to the collection is sequential, so a file much
+ * larger than its {@link BufferPool} sorts with a few passes of sequential
+ * I/O rather than random I/O on every sift.
+ * <p/>
+ * Runs are produced largest record first, since the heap is a max-heap, and
+ * the final merge fills the collection from its last record backwards; the
+ * result is the same ascending order {@link HeapSorter} produces. Records are
+ * ordered by key alone.
+ * <p/>
+ * The replacement selection heap is a plain {@code long} array holding each
+ * record together with the run it is destined for, so it takes
+ * {@link ExternalSorter#HEAP_ENTRY_SIZE HEAP_ENTRY_SIZE} bytes per record and
+ * holds as many records as fit in the memory budget at that size, not at the
+ * size of a record; runs then come out about as long as the budget.
+ * <p/>
+ * A sorter may also work out of place, from an input file to an output file.
+ * The input is then opened read-only and streamed into replacement selection
+ * without a {@link BufferPool}, runs are produced smallest record first, and
+ * the final merge streams the records front to back into the output file
+ * through a {@link DoubleBufferedWriter}. The input is never modified, so an
+ * interrupted sort leaves it intact. Bytes past the last whole record of the
+ * input are copied to the end of the output unchanged, so the output has the
+ * input's length.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class ExternalSorter
+		implements RecordSorter
+{
+
+	/**
+	 * The number of bytes a record takes in the replacement selection heap:
+	 * the packed record and the run it is destined for, in one {@code long}.
+	 */
+	private static final int HEAP_ENTRY_SIZE = 8;
+	/**
+	 * The time it took for the last sort in milliseconds.
+	 */
+	private long time = -1;
+	/**
+	 * The records to sort.
+	 */
+	private IntegerCollection collection;
+	/**
+	 * The file to read records from when sorting out of place, or
+	 * {@code null}.
+	 */
+	private File input;
+	/**
+	 * The file to write the sorted records to when sorting out of place, or
+	 * {@code null}.
+	 */
+	private File output;
+	/**
+	 * The input stream of an out-of-place sort while runs are made.
+	 */
+	private RunReader source;
+	/**
+	 * The output stream of an out-of-place sort during the final merge.
+	 */
+	private DoubleBufferedWriter result;
+	/**
+	 * The number of blocks an out-of-place sort read from its input file.
+	 */
+	private long inputBlocksRead;
+	/**
+	 * The size of the blocks the collection, the run files and the input and
+	 * output files are read and written in, in bytes.
+	 */
+	private final int blockSize;
+	/**
+	 * One block of records of the collection, read or waiting to be written
+	 * as a range.
+	 */
+	private final int[] staged;
+	/**
+	 * The index of the record in {@code staged[0]}, or {@code -1} if nothing
+	 * is staged.
+	 */
+	private long stagedFrom = -1;
+	/**
+	 * Whether runs and merges produce the smallest record first.
+	 */
+	private boolean ascending;
+	/**
+	 * The number of records held in memory at once.
+	 */
+	private int memoryRecords;
+	/**
+	 * The directory temporary run files are created in, or {@code null} for
+	 * the system default.
+	 */
+	private File directory;
+	/**
+	 * The number of runs the last sort produced.
+	 */
+	private int runs;
+	/**
+	 * The number of merge passes the last sort made.
+	 */
+	private int passes;
+	/**
+	 * The number of records the last sort read, from the collection and from
+	 * run files.
+	 */
+	private long recordReads = -1;
+	/**
+	 * The number of blocks read from run files by the last sort.
+	 */
+	private long runBlocksRead;
+	/**
+	 * The number of blocks written to run files by the last sort.
+	 */
+	private long runBlocksWritten;
+
+	/**
+	 * Constructs a new {@code ExternalSorter} for {@code collection}. Run
+	 * files are read and written in blocks the size of the collection's.
+	 * <p/>
+	 * @param collection    the records to sort
+	 * @param memoryRecords the number of records to hold in memory at once;
+	 *                         also decides how many runs are merged at a time
+	 * @param directory     the directory to create run files in, or
+	 *                         {@code null} for the system default
+	 */
+	public ExternalSorter(IntegerCollection collection, int memoryRecords,
+			File directory)
+	{
+		this.collection = collection;
+		this.memoryRecords = Math.max(2, memoryRecords);
+		this.directory = directory;
+		this.blockSize = collection.getBlockSize();
+		this.staged = new int[blockSize / IntegerCollection.RECORD_SIZE];
+	}
+
+	/**
+	 * Constructs a new {@code ExternalSorter} that sorts the records of
+	 * {@code input} into {@code output}, leaving {@code input} untouched.
+	 * <p/>
+	 * @param input         the file of records to sort; only read
+	 * @param output        the file to write the sorted records to; it is
+	 *                         created or overwritten
+	 * @param memoryRecords the number of records to hold in memory at once;
+	 *                         also decides how many runs are merged at a time
+	 * @param directory     the directory to create run files in, or
+	 *                         {@code null} for the system default
+	 */
+	public ExternalSorter(File input, File output, int memoryRecords,
+			File directory)
+	{
+		this(input, output, memoryRecords, directory, BufferPool.BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructs a new {@code ExternalSorter} that sorts the records of
+	 * {@code input} into {@code output}, leaving {@code input} untouched, and
+	 * reads and writes files in blocks of {@code blockSize} bytes.
+	 * <p/>
+	 * @param input         the file of records to sort; only read
+	 * @param output        the file to write the sorted records to; it is
+	 *                         created or overwritten
+	 * @param memoryRecords the number of records to hold in memory at once;
+	 *                         also decides how many runs are merged at a time
+	 * @param directory     the directory to create run files in, or
+	 *                         {@code null} for the system default
+	 * @param blockSize     the size of every read and write, in bytes; a
+	 *                         multiple of
+	 *                         {@link IntegerCollection#RECORD_SIZE
+	 *                         RECORD_SIZE}
+	 */
+	public ExternalSorter(File input, File output, int memoryRecords,
+			File directory, int blockSize)
+	{
+		this.input = input;
+		this.output = output;
+		this.ascending = true;
+		this.memoryRecords = Math.max(2, memoryRecords);
+		this.directory = directory;
+		this.blockSize = blockSize;
+		this.staged = new int[blockSize / IntegerCollection.RECORD_SIZE];
+	}
+
+	@Override
+	public long getSortTime()
+	{
+		return time;
+	}
+
+	/**
+	 * Comparisons are made by the heaps and are not counted.
+	 * <p/>
+	 * @return {@code -1}
+	 */
+	@Override
+	public long getComparisons()
+	{
+		return -1;
+	}
+
+	@Override
+	public long getRecordReads()
+	{
+		return recordReads;
+	}
+
+	/**
+	 * Returns the number of sorted runs the last sort produced.
+	 * <p/>
+	 * @return the run count
+	 */
+	public int getRunCount()
+	{
+		return runs;
+	}
+
+	/**
+	 * Returns the number of merge passes the last sort made, including the
+	 * final one into the collection.
+	 * <p/>
+	 * @return the merge pass count
+	 */
+	public int getMergePasses()
+	{
+		return passes;
+	}
+
+	/**
+	 * Returns the number of blocks the last sort read from run files.
+	 * <p/>
+	 * @return the run file block read count
+	 */
+	public long getRunBlocksRead()
+	{
+		return runBlocksRead;
+	}
+
+	/**
+	 * Returns the number of blocks the last sort wrote to run files.
+	 * <p/>
+	 * @return the run file block write count
+	 */
+	public long getRunBlocksWritten()
+	{
+		return runBlocksWritten;
+	}
+
+	/**
+	 * Returns the number of blocks an out-of-place sort read from its input
+	 * file.
+	 * <p/>
+	 * @return the input block read count, or {@code 0} for an in-place sort
+	 */
+	public long getInputBlocksRead()
+	{
+		return inputBlocksRead;
+	}
+
+	/**
+	 * Returns the number of blocks an out-of-place sort wrote to its output
+	 * file.
+	 * <p/>
+	 * @return the output block write count, or {@code 0} for an in-place sort
+	 */
+	public long getOutputBlocksWritten()
+	{
+		return result == null ? 0 : result.getBlocksWritten();
+	}
+
+	/**
+	 * Sorts the collection, or the input file into the output file.
+	 * <p/>
+	 * @throws HeapException
+	 * @throws IOException
+	 */
+	@Override
+	public void sort() throws HeapException, IOException
+	{
+		long startTime = System.currentTimeMillis();
+		runs = 0;
+		passes = 0;
+		recordReads = 0;
+		runBlocksRead = 0;
+		runBlocksWritten = 0;
+		if (output == null)
+		{
+			sortRuns(collection.getLength());
+		}
+		else
+		{
+			try (RandomAccessFile in = new RandomAccessFile(input, "r");
+					RandomAccessFile out = new RandomAccessFile(output, "rw"))
+			{
+				long n = in.length() / IntegerCollection.RECORD_SIZE;
+				out.setLength(0);
+				source = new RunReader(in.getChannel(), 0, n, blockSize);
+				result = new DoubleBufferedWriter(out.getChannel(), blockSize);
+				try
+				{
+					sortRuns(n);
+				}
+				finally
+				{
+					result.close();
+					inputBlocksRead = source.getBlocksRead();
+					source = null;
+				}
+				RunWriter.copyTail(in.getChannel(), out.getChannel(),
+						n * IntegerCollection.RECORD_SIZE, in.length());
+			}
+		}
+		time = System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * Makes and merges the runs of {@code n} records.
+	 * <p/>
+	 * @param n the number of records to sort
+	 * <p/>
+	 * @throws HeapException
+	 * @throws IOException
+	 */
+	private void sortRuns(long n) throws HeapException, IOException
+	{
+		stagedFrom = -1;
+		if (n > 1 || (output != null && n > 0))
+		{
+			File first = File.createTempFile("heapsort", ".runs", directory);
+			File second = File.createTempFile("heapsort", ".runs", directory);
+			try (RandomAccessFile src = new RandomAccessFile(first, "rw");
+					RandomAccessFile dst = new RandomAccessFile(second, "rw"))
+			{
+				FileChannel from = src.getChannel();
+				FileChannel to = dst.getChannel();
+				List<long[]> bounds = makeRuns(from, n);
+				runs = bounds.size();
+				int fanIn = (int) Math.max(2, (long) memoryRecords
+						* IntegerCollection.RECORD_SIZE / blockSize);
+				while (bounds.size() > fanIn)
+				{
+					to.truncate(0);
+					bounds = mergePass(from, bounds, fanIn, to);
+					FileChannel swap = from;
+					from = to;
+					to = swap;
+				}
+				merge(from, bounds, null);
+				passes++;
+			}
+			finally
+			{
+				first.delete();
+				second.delete();
+			}
+		}
+	}
+
+	/**
+	 * Reads record {@code recordNum} of the records to sort, which are read in
+	 * order.
+	 * <p/>
+	 * @param recordNum the index of the record
+	 * <p/>
+	 * @return the packed record
+	 * <p/>
+	 * @throws IOException
+	 */
+	private int read(long recordNum) throws IOException
+	{
+		if (source != null)
+		{
+			return source.next();
+		}
+		//the collection is read a block of records at a time
+		if (stagedFrom < 0 || recordNum < stagedFrom
+				|| recordNum >= stagedFrom + staged.length)
+		{
+			stagedFrom = recordNum;
+			collection.getPackedRange(recordNum, (int) Math.min(staged.length,
+					collection.getLength() - recordNum), staged);
+		}
+		return staged[(int) (recordNum - stagedFrom)];
+	}
+
+	/**
+	 * Reads the whole collection through replacement selection and writes
+	 * the resulting runs, in sort order, to {@code out}.
+	 * <p/>
+	 * @param out the channel to write runs to, from position {@code 0}
+	 * @param n   the number of records in the collection
+	 * <p/>
+	 * @return the offset and length, in records, of every run, in order
+	 * <p/>
+	 * @throws HeapException
+	 * @throws IOException
+	 */
+	private List<long[]> makeRuns(FileChannel out, long n)
+			throws HeapException, IOException
+	{
+		//the budget is in records, but the heap holds longs
+		int m = (int) Math.min(Math.max(1, (long) memoryRecords
+				* IntegerCollection.RECORD_SIZE / HEAP_ENTRY_SIZE), n);
+		RunHeap heap = new RunHeap(m);
+		for (int i = 0; i < m; i++)
+		{
+			heap.add(entry(0, read(i)));
+		}
+		recordReads += m;
+		heap.buildHeap();
+		RunWriter writer = new RunWriter(out, 0, blockSize);
+		List<long[]> bounds = new ArrayList<>();
+		int run = 0;
+		long runStart = 0;
+		long next = m;
+		while (heap.length() > 0)
+		{
+			long top = heap.max();
+			int topPacked = packed(top);
+			if (run(top) != run)
+			{
+				bounds.add(new long[]
+				{
+					runStart, writer.getCount() - runStart
+				});
+				runStart = writer.getCount();
+				run = run(top);
+			}
+			writer.write(topPacked);
+			if (next < n)
+			{
+				//a record no larger than the one just written continues the
+				//current run; anything else has to wait for the next one. It
+				//takes the place of the record just written
+				int packed = read(next++);
+				recordReads++;
+				heap.replaceMax(entry(rank(packed) <= rank(topPacked) ? run
+						: run + 1, packed));
+			}
+			else
+			{
+				heap.removeMax();
+			}
+		}
+		writer.flush();
+		runBlocksWritten += writer.getBlocksWritten();
+		bounds.add(new long[]
+		{
+			runStart, writer.getCount() - runStart
+		});
+		return bounds;
+	}
+
+	/**
+	 * Merges the runs of {@code bounds} in groups of {@code fanIn} into
+	 * {@code out}.
+	 * <p/>
+	 * @param in     the channel holding the runs
+	 * @param bounds the offset and length, in records, of every run
+	 * @param fanIn  the number of runs merged at once
+	 * @param out    the channel to write the merged runs to, from position
+	 *                  {@code 0}
+	 * <p/>
+	 * @return the offset and length, in records, of every merged run
+	 * <p/>
+	 * @throws HeapException
+	 * @throws IOException
+	 */
+	private List<long[]> mergePass(FileChannel in, List<long[]> bounds,
+			int fanIn, FileChannel out) throws HeapException, IOException
+	{
+		List<long[]> ret = new ArrayList<>();
+		RunWriter writer = new RunWriter(out, 0, blockSize);
+		for (int i = 0; i < bounds.size(); i += fanIn)
+		{
+			long start = writer.getCount();
+			merge(in, bounds.subList(i, Math.min(i + fanIn, bounds.size())),
+					writer);
+			ret.add(new long[]
+			{
+				start, writer.getCount() - start
+			});
+		}
+		writer.flush();
+		runBlocksWritten += writer.getBlocksWritten();
+		passes++;
+		return ret;
+	}
+
+	/**
+	 * Merges the runs of {@code bounds}, all in sort order, into
+	 * {@code writer}. If {@code writer} is {@code null}, this is the final
+	 * merge: into the output file, or into the collection from its last
+	 * record backwards.
+	 * <p/>
+	 * @param in     the channel holding the runs
+	 * @param bounds the offset and length, in records, of every run to merge
+	 * @param writer where to write the merged run, or {@code null}
+	 * <p/>
+	 * @throws HeapException
+	 * @throws IOException
+	 */
+	private void merge(FileChannel in, List<long[]> bounds, RunWriter writer)
+			throws HeapException, IOException
+	{
+		int k = bounds.size();
+		RunReader[] readers = new RunReader[k];
+		ArrayCollection<Entry> memory = new ArrayCollection<>(k);
+		int live = 0;
+		for (int i = 0; i < k; i++)
+		{
+			readers[i] = new RunReader(in, bounds.get(i)[0], bounds.get(i)[1],
+					blockSize);
+			if (readers[i].hasNext())
+			{
+				memory.set(new Entry(i, readers[i].next()), live++);
+			}
+		}
+		MaxHeap<Entry> heap = new MaxHeap<>(memory, live, k);
+		long pos = collection == null ? 0 : collection.getLength();
+		//records for the collection are gathered from the back of staged and
+		//written a block at a time
+		int fill = staged.length;
+		stagedFrom = -1;
+		while (heap.length() > 0)
+		{
+			Entry top = heap.removeMax();
+			if (writer != null)
+			{
+				writer.write(top.packed);
+			}
+			else if (result != null)
+			{
+				result.write(top.packed);
+			}
+			else
+			{
+				staged[--fill] = top.packed;
+				pos--;
+				if (fill == 0)
+				{
+					collection.setPackedRange(pos, staged.length, staged);
+					fill = staged.length;
+				}
+			}
+			RunReader reader = readers[top.source];
+			if (reader.hasNext())
+			{
+				top.packed = reader.next();
+				heap.insert(top);
+			}
+		}
+		if (writer == null && result == null && fill < staged.length)
+		{
+			System.arraycopy(staged, fill, staged, 0, staged.length - fill);
+			collection.setPackedRange(pos, staged.length - fill, staged);
+		}
+		for (RunReader reader : readers)
+		{
+			runBlocksRead += reader.getBlocksRead();
+		}
+		//every record of every run was read once
+		for (long[] run : bounds)
+		{
+			recordReads += run[1];
+		}
+	}
+
+	/**
+	 * Returns the rank of a packed record in the heaps: its key, or the
+	 * negated key when the smallest record must come out first.
+	 * <p/>
+	 * @param packed a packed record
+	 * <p/>
+	 * @return the rank; higher ranks leave the heaps first
+	 */
+	private int rank(int packed)
+	{
+		int key = IntegerCollection.key(packed);
+		return ascending ? -key : key;
+	}
+
+	/**
+	 * Encodes a packed record and the run it is destined for as one entry of
+	 * the replacement selection heap. Entries compare as plain {@code long}
+	 * values: those of an earlier run rank above those of a later one, and
+	 * within a run, entries rank by the {@link ExternalSorter#rank(int) rank}
+	 * of their record.
+	 * <p/>
+	 * @param run    the run the record is destined for
+	 * @param packed the packed record
+	 * <p/>
+	 * @return the heap entry
+	 */
+	private long entry(int run, int packed)
+	{
+		//the key, complemented when the smallest leaves first and offset to
+		//16 bits unsigned, orders the entries of a run as rank does
+		int key = IntegerCollection.key(packed);
+		long keyBits = (ascending ? ~key : key) + 0x8000;
+		return ((long) -run << 32) | (keyBits << 16) | (packed & 0xFFFF);
+	}
+
+	/**
+	 * Returns the run a heap entry is destined for.
+	 * <p/>
+	 * @param entry an entry made by {@link ExternalSorter#entry(int, int)
+	 *                 entry}
+	 * <p/>
+	 * @return the run
+	 */
+	private static int run(long entry)
+	{
+		return (int) -(entry >> 32);
+	}
+
+	/**
+	 * Returns the packed record of a heap entry.
+	 * <p/>
+	 * @param entry an entry made by {@link ExternalSorter#entry(int, int)
+	 *                 entry}
+	 * <p/>
+	 * @return the packed record
+	 */
+	private int packed(long entry)
+	{
+		int key = ((int) (entry >>> 16) & 0xFFFF) - 0x8000;
+		return ((ascending ? ~key : key) << 16) | (int) (entry & 0xFFFF);
+	}
+
+	/**
+	 * A packed record in the merge heap, tagged with the run it came from.
+	 * Records rank by {@link ExternalSorter#rank(int) rank}.
+	 */
+	private class Entry
+			implements Comparable<Entry>
+	{
+
+		/**
+		 * The index of the run this record was read from.
+		 */
+		private int source;
+		/**
+		 * The packed record.
+		 */
+		private int packed;
+
+		/**
+		 * Constructs a new {@code Entry}.
+		 * <p/>
+		 * @param source the index of the run this record was read from
+		 * @param packed the packed record
+		 */
+		Entry(int source, int packed)
+		{
+			this.source = source;
+			this.packed = packed;
+		}
+
+		@Override
+		public int compareTo(Entry o)
+		{
+			return Integer.compare(rank(packed), rank(o.packed));
+		}
+	}
+
+	/**
+	 * The binary max-heap of replacement selection, over a {@code long} array
+	 * of entries made by {@link ExternalSorter#entry(int, int) entry}. No
+	 * object is created per record, and every comparison is a plain
+	 * {@code long} comparison.
+	 */
+	private static class RunHeap
+	{
+
+		/**
+		 * The entries making up the heap.
+		 */
+		private final long[] heap;
+		/**
+		 * The number of entries currently in the heap.
+		 */
+		private int n;
+
+		/**
+		 * Constructs a new, empty {@code RunHeap}.
+		 * <p/>
+		 * @param capacity the largest number of entries it will hold
+		 */
+		RunHeap(int capacity)
+		{
+			heap = new long[capacity];
+		}
+
+		/**
+		 * Appends {@code entry} without restoring the heap order; once all
+		 * entries are added, {@link RunHeap#buildHeap() buildHeap} must be
+		 * called.
+		 * <p/>
+		 * @param entry the entry to add
+		 */
+		void add(long entry)
+		{
+			heap[n++] = entry;
+		}
+
+		/**
+		 * Puts the entries added so far in heap order.
+		 */
+		void buildHeap()
+		{
+			for (int i = n / 2 - 1; i >= 0; i--)
+			{
+				siftDown(i, heap[i]);
+			}
+		}
+
+		/**
+		 * Returns the number of entries in the heap.
+		 * <p/>
+		 * @return the heap size
+		 */
+		int length()
+		{
+			return n;
+		}
+
+		/**
+		 * Returns the largest entry, leaving it in the heap.
+		 * <p/>
+		 * @return the largest entry
+		 */
+		long max()
+		{
+			return heap[0];
+		}
+
+		/**
+		 * Replaces the largest entry with {@code entry}, with a single sift.
+		 * <p/>
+		 * @param entry the entry to add
+		 */
+		void replaceMax(long entry)
+		{
+			siftDown(0, entry);
+		}
+
+		/**
+		 * Removes the largest entry.
+		 */
+		void removeMax()
+		{
+			if (--n > 0)
+			{
+				siftDown(0, heap[n]);
+			}
+		}
+
+		/**
+		 * Places {@code entry} at position {@code pos}, or below it, moving
+		 * larger children up until it is no smaller than either child.
+		 * <p/>
+		 * @param pos   the position to start at
+		 * @param entry the entry to place
+		 */
+		private void siftDown(int pos, long entry)
+		{
+			int child;
+			while ((child = 2 * pos + 1) < n)
+			{
+				if (child + 1 < n && heap[child + 1] > heap[child])
+				{
+					child++;
+				}
+				if (heap[child] <= entry)
+				{
+					break;
+				}
+				heap[pos] = heap[child];
+				pos = child;
+			}
+			heap[pos] = entry;
+		}
+	}
+}
@@ -3,10 +3,17 @@
  * Manages heap sorting according to the max-heap standards. Sorting time is
  * recorded in {@code time}.
  * <p/>
+ * A sorter may be limited to the largest {@code k} records: the heap is built
+ * as usual, but only {@code k} records are removed, which leaves the
+ * {@code k} largest in ascending order at the end of the collection and the
+ * rest, unsorted, before them. For small {@code k} this costs little more than
+ * building the heap.
+ * <p/>
  * @author orionf22
  * @author rinaldi1
  */
 public class HeapSorter
+		implements RecordSorter
 {
 
 	/**
@@ -19,9 +26,39 @@ public class HeapSorter
 	 * buffer pool.
 	 */
 	private RecordCollection<HeapRecord> collection;
+	/**
+	 * The number of children per heap position used for an
+	 * {@link IntegerCollection}.
+	 */
+	private int arity;
+	/**
+	 * Whether an {@link IntegerCollection} is sifted bottom-up.
+	 */
+	private boolean bottomUp;
+	/**
+	 * The number of records to remove from the heap, or {@code 0} to sort the
+	 * whole collection.
+	 */
+	private long topK;
+	/**
+	 * Whether an {@link IntegerCollection} is ordered by key, then value.
+	 */
+	private boolean composite;
+	/**
+	 * The number of key comparisons the last sort made, or {@code -1} if not
+	 * counted.
+	 */
+	private long comparisons = -1;
+	/**
+	 * The number of records the last sort read, or {@code -1} if not counted.
+	 */
+	private long recordReads = -1;
 
 	/**
-	 * Constructs a new {@code HeapSorter} using {@code collection}.
+	 * Constructs a new {@code HeapSorter} using {@code collection}. By
+	 * default the whole collection is sorted with a binary, top-down heap
+	 * ordered by key; the setters change this for an {@link IntegerCollection}
+	 * before {@link HeapSorter#sort() sort} is called.
 	 * <p/>
 	 * @param collection the interface between this sorter and the storage
 	 *                      medium
@@ -29,6 +66,52 @@ public class HeapSorter
 	public HeapSorter(RecordCollection<HeapRecord> collection)
 	{
 		this.collection = collection;
+		this.arity = 2;
+	}
+
+	/**
+	 * Sets the number of children per heap position used for an
+	 * {@link IntegerCollection}; other collections always use a binary heap.
+	 * <p/>
+	 * @param arity the number of children per heap position, at least 2
+	 */
+	public void setArity(int arity)
+	{
+		this.arity = arity;
+	}
+
+	/**
+	 * Sets whether an {@link IntegerCollection} is sifted bottom-up (Floyd's
+	 * variant); other collections are always sifted top-down.
+	 * <p/>
+	 * @param bottomUp whether to use bottom-up sifting
+	 */
+	public void setBottomUp(boolean bottomUp)
+	{
+		this.bottomUp = bottomUp;
+	}
+
+	/**
+	 * Limits the sorter to placing the {@code topK} largest records, in
+	 * ascending order, at the end of the collection.
+	 * <p/>
+	 * @param topK the number of largest records to place, or {@code 0} to
+	 *                sort the whole collection
+	 */
+	public void setTopK(long topK)
+	{
+		this.topK = topK;
+	}
+
+	/**
+	 * Sets whether an {@link IntegerCollection} is ordered by key, then
+	 * value; other collections are always ordered by key.
+	 * <p/>
+	 * @param composite whether to order by key, then value
+	 */
+	public void setComposite(boolean composite)
+	{
+		this.composite = composite;
 	}
 
 	/**
@@ -37,27 +120,85 @@ public class HeapSorter
 	 * <p/>
 	 * @return the sort time
 	 */
+	@Override
 	public long getSortTime()
 	{
 		return time;
 	}
 
 	/**
-	 * Sorts the heap.
+	 * Returns the number of key comparisons the last sort made. Only sorts of
+	 * an {@link IntegerCollection} are counted.
+	 * <p/>
+	 * @return the comparison count, or {@code -1} if not counted
+	 */
+	@Override
+	public long getComparisons()
+	{
+		return comparisons;
+	}
+
+	/**
+	 * Returns the number of records the last sort read. Only sorts of an
+	 * {@link IntegerCollection} are counted.
+	 * <p/>
+	 * @return the record read count, or {@code -1} if not counted
+	 */
+	@Override
+	public long getRecordReads()
+	{
+		return recordReads;
+	}
+
+	/**
+	 * Returns the number of records the sorter removes from the heap: the
+	 * whole collection, or the {@code k} largest if the sorter is limited to
+	 * them.
+	 * <p/>
+	 * @return the number of records placed in sorted order
+	 */
+	public long getSortedCount()
+	{
+		long n = collection.getLength();
+		return topK > 0 ? Math.min(topK, n) : n;
+	}
+
+	/**
+	 * Sorts the heap. An {@link IntegerCollection} is sorted with an
+	 * {@link IntMaxHeap}, which works on packed records and creates no
+	 * objects; any other collection with a {@link MaxHeap}.
 	 * <p/>
 	 * @throws HeapException
 	 */
+	@Override
 	public void sort() throws HeapException
 	{
 		// Get the initial time
 		long startTime = System.currentTimeMillis();
+		long count = getSortedCount();
 
-		MaxHeap<HeapRecord> H = new MaxHeap<>(collection, 
-				collection.getLength(), collection.getLength());
-		for (int i = 0; i < collection.getLength(); i++)
+		if (collection instanceof IntegerCollection)
+		{
+			IntMaxHeap H = new IntMaxHeap((IntegerCollection) collection,
+					collection.getLength(), collection.getLength(), arity,
+					bottomUp, composite);
+			for (long i = 0; i < count; i++)
+			{
+				//places max at end of heap without reading it back
+				H.moveMaxToEnd();
+			}
+			comparisons = H.getComparisons();
+			recordReads = H.getRecordReads();
+		}
+		else
 		{
-			//removeMax places max at end of heap
-			H.removeMax();
+			MaxHeap<HeapRecord> H = new MaxHeap<>(collection, 
+					collection.getLength(), collection.getLength());
+			for (long i = 0; i < count; i++)
+			{
+				//places max at end of heap without reading it back
+				H.moveMaxToEnd();
+			}
 		}
 
 		// Get the end time
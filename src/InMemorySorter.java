@@ -0,0 +1,237 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Sorts a data file small enough to fit in memory without going through a
+ * {@link BufferPool} at all. The whole file is read into a primitive array,
+ * sorted there, and written back, so every record is touched at memory speed
+ * and the file sees exactly one sequential read and one sequential write.
+ * The bytes pass through a staging buffer of
+ * {@link InMemorySorter#STAGE_SIZE STAGE_SIZE} bytes on the way in and out,
+ * so the array is the only full copy of the file held at any time.
+ * <p/>
+ * The sorted records may instead be written to a separate output file, in
+ * which case the data file is only opened for reading. Bytes past its last
+ * whole record are copied to the end of the output unchanged.
+ * <p/>
+ * Records are compared by their composite
+ * {@link IntegerCollection#sortKey(int) sortKey}, whose signed order is key
+ * order; records with equal keys end up ordered by value.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class InMemorySorter
+		implements RecordSorter
+{
+
+	/**
+	 * The size of the buffer the file is read and written through, in bytes.
+	 * This is a multiple of the record size.
+	 */
+	private static final int STAGE_SIZE = 64 * 1024;
+	/**
+	 * The time it took for the last sort in milliseconds.
+	 */
+	private long time = -1;
+	/**
+	 * The data file to sort.
+	 */
+	private File dataFile;
+	/**
+	 * The file to write the sorted records to, or {@code null} to write them
+	 * back over the data file.
+	 */
+	private File output;
+	/**
+	 * The number of records the last sort read.
+	 */
+	private long recordReads = -1;
+
+	/**
+	 * Constructs a new {@code InMemorySorter} for {@code dataFile}, which
+	 * must be no larger than 2 GB.
+	 * <p/>
+	 * @param dataFile the file of records to sort
+	 */
+	public InMemorySorter(File dataFile)
+	{
+		this(dataFile, null);
+	}
+
+	/**
+	 * Constructs a new {@code InMemorySorter} that sorts the records of
+	 * {@code dataFile}, which must be no larger than 2 GB, into
+	 * {@code output}.
+	 * <p/>
+	 * @param dataFile the file of records to sort
+	 * @param output   the file to write the sorted records to, or
+	 *                    {@code null} to write them back over
+	 *                    {@code dataFile}
+	 */
+	public InMemorySorter(File dataFile, File output)
+	{
+		this.dataFile = dataFile;
+		this.output = output;
+	}
+
+	/**
+	 * Determines if a file of {@code bytes} bytes fits in a budget of
+	 * {@code buffers} blocks of {@code blockSize} bytes, and so can be sorted
+	 * in memory. The sort holds one copy of the file; its staging buffer of
+	 * at most {@link InMemorySorter#STAGE_SIZE STAGE_SIZE} bytes is not
+	 * counted.
+	 * <p/>
+	 * @param bytes     the length of the file
+	 * @param buffers   the number of blocks of memory available
+	 * @param blockSize the size of a block, in bytes
+	 * <p/>
+	 * @return {@code true} if the file fits
+	 */
+	public static boolean fits(long bytes, int buffers, int blockSize)
+	{
+		return bytes <= (long) buffers * blockSize
+				&& bytes <= Integer.MAX_VALUE;
+	}
+
+	@Override
+	public long getSortTime()
+	{
+		return time;
+	}
+
+	/**
+	 * Comparisons are made by {@link Arrays#sort(int[])} and are not counted.
+	 * <p/>
+	 * @return {@code -1}
+	 */
+	@Override
+	public long getComparisons()
+	{
+		return -1;
+	}
+
+	@Override
+	public long getRecordReads()
+	{
+		return recordReads;
+	}
+
+	/**
+	 * Sorts the data file.
+	 * <p/>
+	 * @throws IOException
+	 */
+	@Override
+	public void sort() throws IOException
+	{
+		long startTime = System.currentTimeMillis();
+		try (RandomAccessFile file = new RandomAccessFile(dataFile,
+				output == null ? "rw" : "r"))
+		{
+			FileChannel channel = file.getChannel();
+			int bytes = (int) channel.size();
+			int n = bytes / IntegerCollection.RECORD_SIZE;
+			int[] records = new int[n];
+			ByteBuffer stage = ByteBuffer.allocate(Math.max(
+					IntegerCollection.RECORD_SIZE, Math.min(STAGE_SIZE,
+							n * IntegerCollection.RECORD_SIZE)));
+			read(channel, records, stage);
+			Arrays.sort(records);
+			if (output == null)
+			{
+				write(channel, records, stage);
+			}
+			else
+			{
+				try (RandomAccessFile out = new RandomAccessFile(output, "rw"))
+				{
+					out.setLength(0);
+					write(out.getChannel(), records, stage);
+					RunWriter.copyTail(channel, out.getChannel(),
+							(long) n * IntegerCollection.RECORD_SIZE, bytes);
+				}
+			}
+			recordReads = n;
+		}
+		time = System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * Fills {@code records} from {@code channel}, from position {@code 0},
+	 * through {@code stage}, turning every record into its
+	 * {@link IntegerCollection#sortKey(int) sortKey}.
+	 * <p/>
+	 * @param channel the channel to read from
+	 * @param records the array to fill
+	 * @param stage   the buffer to read through
+	 * <p/>
+	 * @throws IOException
+	 */
+	private static void read(FileChannel channel, int[] records,
+			ByteBuffer stage) throws IOException
+	{
+		int done = 0;
+		while (done < records.length)
+		{
+			int count = Math.min(records.length - done,
+					stage.capacity() / IntegerCollection.RECORD_SIZE);
+			long pos = (long) done * IntegerCollection.RECORD_SIZE;
+			stage.clear();
+			stage.limit(count * IntegerCollection.RECORD_SIZE);
+			while (stage.hasRemaining())
+			{
+				if (channel.read(stage, pos + stage.position()) < 0)
+				{
+					throw new IOException("Data file ended early");
+				}
+			}
+			stage.flip();
+			stage.asIntBuffer().get(records, done, count);
+			for (int i = done; i < done + count; i++)
+			{
+				records[i] = IntegerCollection.sortKey(records[i]);
+			}
+			done += count;
+		}
+	}
+
+	/**
+	 * Writes {@code records}, which hold
+	 * {@link IntegerCollection#sortKey(int) sortKeys}, as packed records to
+	 * {@code channel} from position {@code 0}, through {@code stage}.
+	 * <p/>
+	 * @param channel the channel to write to
+	 * @param records the records to write
+	 * @param stage   the buffer to write through
+	 * <p/>
+	 * @throws IOException
+	 */
+	private static void write(FileChannel channel, int[] records,
+			ByteBuffer stage) throws IOException
+	{
+		int done = 0;
+		while (done < records.length)
+		{
+			int count = Math.min(records.length - done,
+					stage.capacity() / IntegerCollection.RECORD_SIZE);
+			long pos = (long) done * IntegerCollection.RECORD_SIZE;
+			stage.clear();
+			for (int i = done; i < done + count; i++)
+			{
+				stage.putInt(IntegerCollection.sortKey(records[i]));
+			}
+			stage.flip();
+			while (stage.hasRemaining())
+			{
+				channel.write(stage, pos + stage.position());
+			}
+			done += count;
+		}
+	}
+}
@@ -0,0 +1,503 @@
+
+/**
+ * {@code IntMaxHeap} objects are max-heaps over the packed records of an
+ * {@link IntegerCollection}. By default they follow the same layout and
+ * algorithms as {@link MaxHeap}, but records are read, compared and written as
+ * primitive {@code int} values in their packed form, so no
+ * {@link HeapRecord} is ever created and every comparison is a plain integer
+ * comparison of keys that the JIT can inline.
+ * <p/>
+ * Like {@link HeapRecord#compareTo(HeapRecord) HeapRecord}, records are
+ * ordered by key alone. {@link MaxHeap} remains the heap for any other record
+ * type.
+ * <p/>
+ * The heap may also be d-ary rather than binary: the children of position
+ * {@code i} are {@code d*i+1} through {@code d*i+d}. Every sibling group is
+ * contiguous, so it spans at most two blocks of the source, and the
+ * {@code d*d} grandchildren of a position are contiguous too. With {@code d}
+ * chosen from the number of records per block (see
+ * {@link IntMaxHeap#blockArity(int) blockArity}), a sift crosses
+ * {@code log n / log d} levels instead of {@code log2 n}, so the number of
+ * blocks touched by each {@link IntMaxHeap#moveMaxToEnd() moveMaxToEnd}
+ * falls from {@code O(log n)} to {@code O(log n / log B)}, at the cost of
+ * {@code d - 1} comparisons per level.
+ * <p/>
+ * Sifting can be done bottom-up (Floyd's variant): the path of larger
+ * children is followed all the way to a leaf without comparing against the
+ * sifted record, then climbed back until the record's place is found, and
+ * the path is shifted up by one. A record removed from the top almost always
+ * belongs near the bottom, so this saves most of the comparisons against the
+ * sifted record and most of its moves. Comparisons and record reads are
+ * counted either way so that the two can be compared.
+ * <p/>
+ * Instead of by key alone, records may be ordered by their composite
+ * {@link IntegerCollection#sortKey(int) sortKey}: key, then value. Records
+ * with equal keys then come out in a fixed order, and every comparison is
+ * still a single {@code int} comparison.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class IntMaxHeap
+{
+
+	/**
+	 * Number of records currently in the heap.
+	 */
+	private long n;
+	/**
+	 * Maximum allowable size of the heap, in terms of number of records.
+	 */
+	private long size;
+	/**
+	 * The packed records making up the heap.
+	 */
+	private IntegerCollection heap;
+	/**
+	 * The number of children of every position.
+	 */
+	private int d;
+	/**
+	 * Whether sifts go down to a leaf first and then back up.
+	 */
+	private boolean bottomUp;
+	/**
+	 * Whether records are ordered by key, then value, rather than by key
+	 * alone.
+	 */
+	private boolean composite;
+	/**
+	 * A running count of key comparisons.
+	 */
+	private long comparisons;
+	/**
+	 * A running count of records read from the collection.
+	 */
+	private long reads;
+	/**
+	 * Holds one sibling group while its largest member is looked for.
+	 */
+	private int[] group;
+
+	/**
+	 * Creates a new binary {@code IntMaxHeap} over {@code c}, holding
+	 * {@code num} records initially and at most {@code max}, and heapifies
+	 * the initial records.
+	 * <p/>
+	 * @param c   the {@link IntegerCollection} that manages record storage
+	 * @param num the initial number of records in the heap
+	 * @param max the maximum amount of records this heap can manage
+	 * <p/>
+	 * @throws HeapException
+	 */
+	public IntMaxHeap(IntegerCollection c, long num, long max)
+			throws HeapException
+	{
+		this(c, num, max, 2);
+	}
+
+	/**
+	 * Creates a new {@code d}-ary {@code IntMaxHeap} over {@code c}, holding
+	 * {@code num} records initially and at most {@code max}, and heapifies
+	 * the initial records.
+	 * <p/>
+	 * @param c   the {@link IntegerCollection} that manages record storage
+	 * @param num the initial number of records in the heap
+	 * @param max the maximum amount of records this heap can manage
+	 * @param d   the number of children of every position, at least 2
+	 * <p/>
+	 * @throws HeapException
+	 */
+	public IntMaxHeap(IntegerCollection c, long num, long max, int d)
+			throws HeapException
+	{
+		this(c, num, max, d, false);
+	}
+
+	/**
+	 * Creates a new {@code d}-ary {@code IntMaxHeap} over {@code c}, holding
+	 * {@code num} records initially and at most {@code max}, sifting
+	 * bottom-up if {@code bottomUp} is set, and heapifies the initial records.
+	 * <p/>
+	 * @param c        the {@link IntegerCollection} that manages record
+	 *                    storage
+	 * @param num      the initial number of records in the heap
+	 * @param max      the maximum amount of records this heap can manage
+	 * @param d        the number of children of every position, at least 2
+	 * @param bottomUp whether to sift down to a leaf first and then back up
+	 * <p/>
+	 * @throws HeapException
+	 */
+	public IntMaxHeap(IntegerCollection c, long num, long max, int d,
+			boolean bottomUp) throws HeapException
+	{
+		this(c, num, max, d, bottomUp, false);
+	}
+
+	/**
+	 * Creates a new {@code d}-ary {@code IntMaxHeap} over {@code c}, holding
+	 * {@code num} records initially and at most {@code max}, sifting
+	 * bottom-up if {@code bottomUp} is set and ordering records by key, then
+	 * value if {@code composite} is set, and heapifies the initial records.
+	 * <p/>
+	 * @param c         the {@link IntegerCollection} that manages record
+	 *                     storage
+	 * @param num       the initial number of records in the heap
+	 * @param max       the maximum amount of records this heap can manage
+	 * @param d         the number of children of every position, at least 2
+	 * @param bottomUp  whether to sift down to a leaf first and then back up
+	 * @param composite whether to order by key, then value
+	 * <p/>
+	 * @throws HeapException
+	 */
+	public IntMaxHeap(IntegerCollection c, long num, long max, int d,
+			boolean bottomUp, boolean composite) throws HeapException
+	{
+		if (d < 2)
+		{
+			throw new IllegalArgumentException("Heap arity must be at least 2: "
+					+ d);
+		}
+		this.heap = c;
+		this.n = num;
+		this.size = max;
+		this.d = d;
+		this.bottomUp = bottomUp;
+		this.composite = composite;
+		this.group = new int[d];
+		buildHeap();
+	}
+
+	/**
+	 * Chooses a heap arity for blocks of {@code recordsPerBlock} records: the
+	 * largest power of two whose square, the size of a grandchild group, still
+	 * fits in one block.
+	 * <p/>
+	 * @param recordsPerBlock the number of records in one block
+	 * <p/>
+	 * @return the arity, at least 2
+	 */
+	public static int blockArity(int recordsPerBlock)
+	{
+		int ret = 2;
+		while (4 * ret * ret <= recordsPerBlock)
+		{
+			ret *= 2;
+		}
+		return ret;
+	}
+
+	/**
+	 * Attempts to build the heap according to max-heap standards.
+	 */
+	private void buildHeap() throws HeapException
+	{
+		if (n < 2)
+		{
+			return;
+		}
+		for (long i = (n - 2) / d; i >= 0; i--)
+		{
+			sift(i);
+		}
+	}
+
+	/**
+	 * Returns what a packed record is ordered by: its key, or its composite
+	 * {@link IntegerCollection#sortKey(int) sortKey}.
+	 * <p/>
+	 * @param packed a packed record
+	 * <p/>
+	 * @return the value to compare
+	 */
+	private int rank(int packed)
+	{
+		return composite ? IntegerCollection.sortKey(packed)
+				: IntegerCollection.key(packed);
+	}
+
+	/**
+	 * Returns what the record at position {@code pos} is ordered by.
+	 * <p/>
+	 * @param pos the position of the record
+	 * <p/>
+	 * @return its key or composite sort key
+	 */
+	private int keyAt(long pos)
+	{
+		reads++;
+		return rank(heap.getPacked(pos));
+	}
+
+	/**
+	 * Reads the sibling group at positions {@code first} through
+	 * {@code last} into {@link IntMaxHeap#group group} with one range read,
+	 * so that the block holding it is looked up once rather than once per
+	 * sibling, and finds the largest member.
+	 * <p/>
+	 * @param first the position of the first sibling
+	 * @param last  the position of the last sibling
+	 * <p/>
+	 * @return the position of the largest sibling
+	 */
+	private long largestChild(long first, long last)
+	{
+		int count = (int) (last - first + 1);
+		heap.getPackedRange(first, count, group);
+		reads += count;
+		int best = 0;
+		int bestKey = rank(group[0]);
+		for (int c = 1; c < count; c++)
+		{
+			int siblingKey = rank(group[c]);
+			comparisons++;
+			if (bestKey < siblingKey)
+			{
+				best = c;
+				bestKey = siblingKey;
+			}
+		}
+		return first + best;
+	}
+
+	/**
+	 * Swaps the records at positions {@code first} and {@code second},
+	 * counting both as read.
+	 * <p/>
+	 * @param first  the first position at which to swap
+	 * @param second the second position at which to swap
+	 */
+	private void swap(long first, long second)
+	{
+		reads += 2;
+		heap.swap(first, second);
+	}
+
+	/**
+	 * Sifts the record in position {@code pos} down, top-down or bottom-up
+	 * as this heap is configured.
+	 * <p/>
+	 * @param pos the position to sift down
+	 * <p/>
+	 * @throws IllegalHeapPositionException if {@code pos} is out of bounds
+	 */
+	private void sift(long pos) throws IllegalHeapPositionException
+	{
+		if (bottomUp)
+		{
+			siftDownBottomUp(pos);
+		}
+		else
+		{
+			siftDown(pos);
+		}
+	}
+
+	/**
+	 * Swaps the maximum record in the heap with the end record, returning that
+	 * maximum record in packed form.
+	 * <p/>
+	 * @return the largest record in the heap, packed
+	 * <p/>
+	 * @throws HeapException
+	 */
+	public int removeMax() throws HeapException
+	{
+		moveMaxToEnd();
+		reads++;
+		return heap.getPacked(n);
+	}
+
+	/**
+	 * Removes the maximum record from the heap by swapping it with the end
+	 * record, as {@link IntMaxHeap#removeMax() removeMax} does, but without
+	 * reading it back, so no record read is counted for it.
+	 * <p/>
+	 * @throws HeapException
+	 */
+	public void moveMaxToEnd() throws HeapException
+	{
+		if (n <= 0)
+		{
+			throw new IllegalHeapStateException("Attempting to operate on an empty heap");
+		}
+		swap(0, --n);
+		if (n != 0)
+		{
+			sift(0);
+		}
+	}
+
+	/**
+	 * Returns the number of key comparisons made so far, including those made
+	 * while building the heap.
+	 * <p/>
+	 * @return the comparison count
+	 */
+	public long getComparisons()
+	{
+		return comparisons;
+	}
+
+	/**
+	 * Returns the number of records read from the collection so far; a swap
+	 * counts as two reads.
+	 * <p/>
+	 * @return the record read count
+	 */
+	public long getRecordReads()
+	{
+		return reads;
+	}
+
+	/**
+	 * Return the length, or current number of stored records, of the heap.
+	 * <p/>
+	 * @return the length of the heap
+	 */
+	public long length()
+	{
+		return n;
+	}
+
+	/**
+	 * Sifts the record in position {@code pos} down the heap as per max-heap
+	 * standards. The sifted record's key is read once and kept while it moves.
+	 * Child positions are computed in {@code long} so that a wide heap over a
+	 * large file cannot overflow.
+	 * <p/>
+	 * @param pos the position to sift down
+	 * <p/>
+	 * @throws IllegalHeapPositionException if {@code pos} is out of bounds
+	 */
+	private void siftDown(long pos) throws IllegalHeapPositionException
+	{
+		if ((pos >= n) || (pos < 0))
+		{
+			throw new IllegalHeapPositionException("Illegal Heap position: " + pos);
+		}
+		int key = keyAt(pos);
+		long first = d * pos + 1;
+		while (first < n)
+		{
+			long j = first;
+			long last = Math.min(first + d - 1, n - 1);
+			//the grandchildren are one contiguous run; ask for both ends of it
+			//while this level is compared
+			long grandchild = d * j + 1;
+			if (grandchild < n)
+			{
+				heap.prefetch(grandchild);
+				heap.prefetch(Math.min(grandchild + (long) d * d - 1, n - 1));
+			}
+			j = largestChild(j, last); // index of child w/ greater value
+			int childKey = rank(group[(int) (j - first)]);
+			comparisons++;
+			if (key >= childKey)
+			{
+				return;
+			}
+			swap(pos, j);
+			pos = j;  // Move down
+			first = d * pos + 1;
+		}
+	}
+
+	/**
+	 * Sifts the record in position {@code pos} down the heap bottom-up:
+	 * follows the larger children to a leaf, climbs back up to the first
+	 * position whose key is at least the sifted record's, then moves every
+	 * record on the path below {@code pos} up by one level and stores the
+	 * sifted record in the freed position.
+	 * <p/>
+	 * @param pos the position to sift down
+	 * <p/>
+	 * @throws IllegalHeapPositionException if {@code pos} is out of bounds
+	 */
+	private void siftDownBottomUp(long pos) throws IllegalHeapPositionException
+	{
+		if ((pos >= n) || (pos < 0))
+		{
+			throw new IllegalHeapPositionException("Illegal Heap position: " + pos);
+		}
+		//walk down to a leaf along the larger children
+		long leaf = pos;
+		long first = d * leaf + 1;
+		while (first < n)
+		{
+			long j = first;
+			long last = Math.min(first + d - 1, n - 1);
+			long grandchild = d * j + 1;
+			if (grandchild < n)
+			{
+				heap.prefetch(grandchild);
+				heap.prefetch(Math.min(grandchild + (long) d * d - 1, n - 1));
+			}
+			leaf = largestChild(j, last);
+			first = d * leaf + 1;
+		}
+		if (leaf == pos)
+		{
+			return;
+		}
+		//climb back to where the sifted record belongs
+		reads++;
+		int packed = heap.getPacked(pos);
+		int key = rank(packed);
+		long target = leaf;
+		while (target != pos)
+		{
+			comparisons++;
+			if (keyAt(target) >= key)
+			{
+				break;
+			}
+			target = (target - 1) / d;
+		}
+		if (target == pos)
+		{
+			return;
+		}
+		//shift the path between pos and target up by one level
+		int carry = packed;
+		while (target != pos)
+		{
+			reads++;
+			int displaced = heap.getPacked(target);
+			heap.setPacked(carry, target);
+			carry = displaced;
+			target = (target - 1) / d;
+		}
+		heap.setPacked(carry, pos);
+	}
+
+	/**
+	 * Inserts the packed record {@code packed} into the heap.
+	 * <p/>
+	 * @param packed the packed record to insert
+	 * <p/>
+	 * @throws IllegalHeapStateException if the heap is full
+	 */
+	public void insert(int packed) throws IllegalHeapStateException
+	{
+		if (n >= size)
+		{
+			throw new IllegalHeapStateException("Attempted to insert into a full heap: "
+					+ packed);
+		}
+		long curr = n++;
+		heap.setPacked(packed, curr);
+		int key = rank(packed);
+		// Siftup until curr parent's key >= curr key
+		while (curr != 0 && key > keyAt((curr - 1) / d))
+		{
+			comparisons++;
+			swap(curr, (curr - 1) / d);
+			curr = (curr - 1) / d;
+		}
+		if (curr != 0)
+		{
+			comparisons++;
+		}
+	}
+}
@@ -8,11 +8,11 @@ import java.util.logging.Logger;
  * interface and handles all record I/O requests from any class making use of
  * the interface. This allows said classes to be free from any ties to the type
  * and implementation of the record data structure, in this case a
- * {@link BufferPool}.
+ * {@link BufferCache} such as a {@link BufferPool}.
  * <p/>
  * Any class making use of the interface will use the
- * {@link RecordCollection#get(int) get(int)} and
- * {@link RecordCollection#set(Object, int) set(Object, int)} methods to get and
+ * {@link RecordCollection#get(long) get(long)} and
+ * {@link RecordCollection#set(Object, long) set(Object, long)} methods to get and
  * set records; this class will then query its {@link BufferPool} to satisfy all
  * requests.
  * <p/>
@@ -26,9 +26,9 @@ public class IntegerCollection
 {
 
 	/**
-	 * The {@link BufferPool} utilized by this {@code IntegerCollection}.
+	 * The {@link BufferCache} utilized by this {@code IntegerCollection}.
 	 */
-	private BufferPool pool;
+	private BufferCache pool;
 	/**
 	 * The number of records the source file contains.
 	 */
@@ -37,6 +37,10 @@ public class IntegerCollection
 	 * The byte length of the source file.
 	 */
 	private long originalSourceLength;
+	/**
+	 * The position within the source of record {@code 0}, in bytes.
+	 */
+	private long base;
 	/**
 	 * The static size of managed records, in bytes. For Project 3, this is 4.
 	 */
@@ -44,49 +48,61 @@ public class IntegerCollection
 
 	/**
 	 * Constructs a new {@code IntegerCollection} given a
-	 * {@link BufferPool} {@code p}. The size of the pool is not determined
+	 * {@link BufferCache} {@code p}. The size of the pool is not determined
 	 * here; it is determined higher up the hierarchy.
 	 * <p/>
-	 * @param p      the {@link BufferPool} to use
+	 * @param p      the {@link BufferCache} to use
 	 * @param length
 	 */
-	public IntegerCollection(BufferPool p, long length)
+	public IntegerCollection(BufferCache p, long length)
+	{
+		this(p, 0, length);
+	}
+
+	/**
+	 * Constructs a new {@code IntegerCollection} over the {@code length}
+	 * bytes of the source of {@code p} that start at position {@code base},
+	 * so that a part of a file can be sorted on its own.
+	 * <p/>
+	 * @param p      the {@link BufferCache} to use
+	 * @param base   the position of the first record within the source, in
+	 *                  bytes
+	 * @param length the number of bytes of records
+	 */
+	public IntegerCollection(BufferCache p, long base, long length)
 	{
 		this.pool = p;
+		this.base = base;
 		this.length = length / RECORD_SIZE;
 		this.originalSourceLength = length;
 	}
 
 	@Override
-	public HeapRecord get(int recordNum)
+	public HeapRecord get(long recordNum)
 	{
 		//calculate the starting index
-		int start = recordNum * RECORD_SIZE;
-		//if an error occurs while trying to read bytes, this method will return
-		//a zero-sized array; otherwise it will return the desired bytes
-		byte[] got = new byte[0];
+		long start = base + recordNum * RECORD_SIZE;
 		try
 		{
-			got = pool.get(start);
+			return decode(pool.getInt(start));
 		}
 		catch (IOException ex)
 		{
 			Logger.getLogger(IntegerCollection.class.getName()).log(Level.SEVERE, null, ex);
 		}
-		//decode the bytes first
-		return decode(got);
+		//an error occurred while trying to read bytes, so there is no valid
+		//HeapRecord
+		return new HeapRecord(-1, -1);
 	}
 
 	@Override
-	public void set(HeapRecord element, int recordNum)
+	public void set(HeapRecord element, long recordNum)
 	{
 		//calculate the starting index
-		int start = recordNum * RECORD_SIZE;
-		//encode element
-		byte[] setMe = encode(element);
+		long start = base + recordNum * RECORD_SIZE;
 		try
 		{
-			pool.set(setMe, start);
+			pool.setInt(encode(element), start);
 		}
 		catch (IOException ex)
 		{
@@ -95,61 +111,390 @@ public class IntegerCollection
 	}
 
 	/**
-	 * Decodes {@code bytes} into a new {@link HeapRecord}.
+	 * Gets a range of records, reading them block by block from the pool and
+	 * then decoding each into a new {@link HeapRecord}. Callers that can work
+	 * on packed records should use
+	 * {@link IntegerCollection#getPackedRange(long, int, int[]) getPackedRange}
+	 * instead.
 	 * <p/>
-	 * @param bytes the byte array to decode
+	 * @param from  the index of the first record
+	 * @param count the number of records
+	 * @param dst   the array to fill from index {@code 0}
+	 */
+	@Override
+	public void getRange(long from, int count, HeapRecord[] dst)
+	{
+		int[] packed = new int[count];
+		getPackedRange(from, count, packed);
+		for (int i = 0; i < count; i++)
+		{
+			dst[i] = decode(packed[i]);
+		}
+	}
+
+	/**
+	 * Sets a range of records, encoding them first and then writing them
+	 * block by block to the pool.
 	 * <p/>
-	 * @return the decoded {@link HeapRecord}
+	 * @param from  the index of the first record to replace
+	 * @param count the number of records
+	 * @param src   the new records, from index {@code 0}
+	 */
+	@Override
+	public void setRange(long from, int count, HeapRecord[] src)
+	{
+		int[] packed = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			packed[i] = encode(src[i]);
+		}
+		setPackedRange(from, count, packed);
+	}
+
+	/**
+	 * Gets the {@code count} records stored from position {@code from} on in
+	 * their packed form. The pool is asked once per block, and each block's
+	 * records are copied straight out of its {@link Buffer}; no objects are
+	 * created.
+	 * <p/>
+	 * @param from  the index of the first record
+	 * @param count the number of records
+	 * @param dst   the array to fill from index {@code 0}
+	 */
+	public void getPackedRange(long from, int count, int[] dst)
+	{
+		try
+		{
+			pool.getInts(dst, 0, count, base + from * RECORD_SIZE);
+		}
+		catch (IOException ex)
+		{
+			Logger.getLogger(IntegerCollection.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	/**
+	 * Sets the {@code count} records from position {@code from} on from their
+	 * packed form, asking the pool once per block; no objects are created.
+	 * <p/>
+	 * @param from  the index of the first record to replace
+	 * @param count the number of records
+	 * @param src   the packed records, from index {@code 0}
+	 */
+	public void setPackedRange(long from, int count, int[] src)
+	{
+		try
+		{
+			pool.setInts(src, 0, count, base + from * RECORD_SIZE);
+		}
+		catch (IOException ex)
+		{
+			Logger.getLogger(IntegerCollection.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	@Override
+	public void prefetch(long recordNum)
+	{
+		pool.prefetch(base + recordNum * RECORD_SIZE);
+	}
+
+	/**
+	 * Swaps two records in place. Both blocks are pinned for the duration, so
+	 * each is looked up once and neither can be evicted halfway through; no
+	 * objects are created. A pool holding fewer than two
+	 * {@link Buffer Buffers} in total, as reported by
+	 * {@link BufferCache#getBufferCount() getBufferCount}, swaps through packed
+	 * reads and writes instead, and so does any swap for which the pool cannot
+	 * pin both blocks at once, because every {@link Buffer} the second block
+	 * could go to is already pinned.
+	 * <p/>
+	 * @param first  the index of one record
+	 * @param second the index of the other record
+	 */
+	@Override
+	public void swap(long first, long second)
+	{
+		long start1 = base + first * RECORD_SIZE;
+		long start2 = base + second * RECORD_SIZE;
+		int blockSize = pool.getBlockSize();
+		boolean sameBlock = start1 / blockSize == start2 / blockSize;
+		if (!sameBlock && pool.getBufferCount() < 2)
+		{
+			swapPacked(first, second);
+			return;
+		}
+		Buffer b1 = null;
+		Buffer b2 = null;
+		try
+		{
+			b1 = pool.pin(start1);
+			b2 = sameBlock ? b1 : pool.pin(start2);
+			int off1 = (int) (start1 % blockSize);
+			int off2 = (int) (start2 % blockSize);
+			int record1 = b1.getInt(off1);
+			b1.setInt(off1, b2.getInt(off2));
+			b2.setInt(off2, record1);
+			b1.makeDirty();
+			b2.makeDirty();
+		}
+		catch (IOException ex)
+		{
+			Logger.getLogger(IntegerCollection.class.getName()).log(Level.SEVERE, null, ex);
+		}
+		catch (IllegalStateException ex)
+		{
+			//nothing was changed yet; release what was pinned and go without
+			if (b1 != null)
+			{
+				pool.unpin(b1);
+				b1 = null;
+			}
+			swapPacked(first, second);
+		}
+		finally
+		{
+			if (b2 != null && b2 != b1)
+			{
+				pool.unpin(b2);
+			}
+			if (b1 != null)
+			{
+				pool.unpin(b1);
+			}
+		}
+	}
+
+	/**
+	 * Swaps two records through packed reads and writes, without pinning.
+	 * <p/>
+	 * @param first  the index of one record
+	 * @param second the index of the other record
+	 */
+	private void swapPacked(long first, long second)
+	{
+		int record1 = getPacked(first);
+		setPacked(getPacked(second), first);
+		setPacked(record1, second);
+	}
+
+	/**
+	 * Compares two records by key, as {@link HeapRecord#compareTo(HeapRecord)
+	 * HeapRecord} does, straight from their packed form; no
+	 * {@link HeapRecord HeapRecords} are created. Like
+	 * {@link IntegerCollection#swap(long, long) swap}, both blocks are pinned
+	 * for the duration, so two records in the same block cost one lookup, and
+	 * the comparison falls back to packed reads whenever the pool cannot pin
+	 * both blocks at once.
+	 * <p/>
+	 * @param first  the index of one record
+	 * @param second the index of the other record
+	 * <p/>
+	 * @return a negative number, zero or a positive number as the first key
+	 *            is less than, equal to or greater than the second
 	 */
-	private HeapRecord decode(byte[] bytes)
+	@Override
+	public int compare(long first, long second)
 	{
-		//if there was an error retrieving bytes, then the byte array will be
-		//zero-sized and thus does not contain a valid HeapRecord
-		if (bytes.length < 1)
+		long start1 = base + first * RECORD_SIZE;
+		long start2 = base + second * RECORD_SIZE;
+		int blockSize = pool.getBlockSize();
+		boolean sameBlock = start1 / blockSize == start2 / blockSize;
+		if (!sameBlock && pool.getBufferCount() < 2)
+		{
+			return comparePacked(first, second);
+		}
+		Buffer b1 = null;
+		Buffer b2 = null;
+		try
+		{
+			b1 = pool.pin(start1);
+			b2 = sameBlock ? b1 : pool.pin(start2);
+			return Integer.compare(key(b1.getInt((int) (start1 % blockSize))),
+					key(b2.getInt((int) (start2 % blockSize))));
+		}
+		catch (IOException ex)
+		{
+			Logger.getLogger(IntegerCollection.class.getName()).log(Level.SEVERE, null, ex);
+		}
+		catch (IllegalStateException ex)
 		{
-			return new HeapRecord(-1, -1);
+			//release what was pinned and go without
+			if (b1 != null)
+			{
+				pool.unpin(b1);
+				b1 = null;
+			}
+			return comparePacked(first, second);
 		}
-		//bit shifting; yay!
-		int key = bytes[1] | (bytes[0] << 8);
-		int value = bytes[3] | (bytes[2] << 8);
-		return new HeapRecord(key, value);
+		finally
+		{
+			if (b2 != null && b2 != b1)
+			{
+				pool.unpin(b2);
+			}
+			if (b1 != null)
+			{
+				pool.unpin(b1);
+			}
+		}
+		return 0;
 	}
 
 	/**
-	 * Encodes {@code record} into a byte array for future storage.
+	 * Compares two records by key through packed reads, without pinning.
+	 * <p/>
+	 * @param first  the index of one record
+	 * @param second the index of the other record
+	 * <p/>
+	 * @return a negative number, zero or a positive number as the first key
+	 *            is less than, equal to or greater than the second
+	 */
+	private int comparePacked(long first, long second)
+	{
+		return Integer.compare(key(getPacked(first)), key(getPacked(second)));
+	}
+
+	/**
+	 * Gets the record stored in position {@code recordNum} in its packed form:
+	 * the key in the upper 16 bits and the value in the lower 16 bits, exactly
+	 * as the four bytes appear in the source. No objects are created.
+	 * <p/>
+	 * @param recordNum the index at which to retrieve a record
+	 * <p/>
+	 * @return the packed record, or {@code 0} if it could not be read
+	 */
+	public int getPacked(long recordNum)
+	{
+		try
+		{
+			return pool.getInt(base + recordNum * RECORD_SIZE);
+		}
+		catch (IOException ex)
+		{
+			Logger.getLogger(IntegerCollection.class.getName()).log(Level.SEVERE, null, ex);
+		}
+		return 0;
+	}
+
+	/**
+	 * Sets the record at position {@code recordNum} from its packed form. No
+	 * objects are created.
+	 * <p/>
+	 * @param packed    the packed record to store
+	 * @param recordNum the index at which to replace
+	 * <p/>
+	 * @see IntegerCollection#getPacked(long)
+	 */
+	public void setPacked(int packed, long recordNum)
+	{
+		try
+		{
+			pool.setInt(packed, base + recordNum * RECORD_SIZE);
+		}
+		catch (IOException ex)
+		{
+			Logger.getLogger(IntegerCollection.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	/**
+	 * Extracts the key from a packed record. Keys are stored as signed 16-bit
+	 * values.
+	 * <p/>
+	 * @param packed a packed record
+	 * <p/>
+	 * @return the key
+	 */
+	public static int key(int packed)
+	{
+		return packed >> 16;
+	}
+
+	/**
+	 * Normalizes a packed record into a composite sort key: the key, then the
+	 * value. As an unsigned 32-bit number the composite is the packed record
+	 * with the sign bits of both halves flipped; the signed {@code int}
+	 * returned here is that composite with its top bit flipped back, so that
+	 * a plain signed comparison orders records by key and then by value with
+	 * a single instruction. The normalization is its own inverse.
+	 * <p/>
+	 * @param packed a packed record
+	 * <p/>
+	 * @return the composite sort key
+	 */
+	public static int sortKey(int packed)
+	{
+		return packed ^ 0x8000;
+	}
+
+	/**
+	 * Extracts the value from a packed record. Values are stored as signed
+	 * 16-bit values.
+	 * <p/>
+	 * @param packed a packed record
+	 * <p/>
+	 * @return the value
+	 */
+	public static int value(int packed)
+	{
+		return (short) packed;
+	}
+
+	/**
+	 * Decodes a packed record into a new {@link HeapRecord}.
+	 * <p/>
+	 * @param packed the packed record to decode
+	 * <p/>
+	 * @return the decoded {@link HeapRecord}
+	 */
+	private HeapRecord decode(int packed)
+	{
+		return new HeapRecord(key(packed), value(packed));
+	}
+
+	/**
+	 * Encodes {@code record} into its packed form for future storage. A
+	 * {@code null} record is stored as all zero bytes.
 	 * <p/>
 	 * @param record the {@link HeapRecord} to encode
 	 * <p/>
 	 * @return the encoded record
 	 */
-	private byte[] encode(HeapRecord record)
+	private int encode(HeapRecord record)
 	{
-		byte[] ret = new byte[4];
-		if (record != null)
+		if (record == null)
 		{
-			int key = record.getKey();
-			int val = record.getValue();
-			//the first half is simply the key shifted 8 places
-			ret[0] = (byte) (key >> 8);
-			//the next half is masked
-			ret[1] = (byte) (key & 0xff);
-			ret[2] = (byte) (val >> 8);
-			ret[3] = (byte) (val & 0xff);
+			return 0;
 		}
-		return ret;
+		//the key is the upper half, the value the (masked) lower half
+		return (record.getKey() << 16) | (record.getValue() & 0xffff);
+	}
+
+	/**
+	 * Returns the size of the blocks of the pool the records are read
+	 * through, in bytes.
+	 * <p/>
+	 * @return the block size
+	 */
+	public int getBlockSize()
+	{
+		return pool.getBlockSize();
 	}
 
 	/**
 	 * Acquires the first record in each block of the file. A block's size is
-	 * dependent upon the value of {@link BufferPool#BLOCK_SIZE}. For example,
-	 * if there are 12 blocks in a file, this method will return 12
-	 * {@link HeapRecord} objects.
+	 * that of the pool, {@link BufferPool#getBlockSize()}. For example, if
+	 * there are 12 blocks in a file, this method will return 12
+	 * {@link HeapRecord} objects; a partial last block counts as one.
 	 * <p/>
 	 * @return an array of {@link HeapRecord} objects
 	 */
 	public HeapRecord[] getBlockLeaders()
 	{
-		int numBlocks = (int) (originalSourceLength / BufferPool.BLOCK_SIZE);
+		int blockSize = pool.getBlockSize();
+		int numBlocks = (int) ((originalSourceLength + blockSize - 1)
+				/ blockSize);
 		//there must always be 1 block
 		if (numBlocks == 0)
 		{
@@ -157,11 +502,11 @@ public class IntegerCollection
 		}
 		HeapRecord[] ret = new HeapRecord[numBlocks];
 		int retIndex = 0;
-		for (int i = 0; i < originalSourceLength; i += BufferPool.BLOCK_SIZE)
+		for (long i = 0; i < originalSourceLength; i += blockSize)
 		{
 			try
 			{
-				ret[retIndex] = decode(pool.get(i));
+				ret[retIndex] = decode(pool.getInt(base + i));
 				retIndex++;
 			}
 			catch (IOException ex)
@@ -0,0 +1,192 @@
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@code LRUKPolicy} implements the <b>LRU-K</b> scheme of O'Neil, O'Neil and
+ * Weikum. The victim is the {@link Buffer} whose K-th most recent reference is
+ * furthest in the past. {@link Buffer Buffers} that have not yet been
+ * referenced K times are treated as infinitely old and go first, least
+ * recently used among them first.
+ * <p/>
+ * Reference times come from a logical clock that ticks once per access.
+ * Reference histories of evicted blocks are retained for a while, so a block
+ * that is reloaded soon after eviction is not mistaken for a new one.
+ * <p/>
+ * {@link Buffer Buffers} with a full history are ordered by their K-th most
+ * recent reference time in a {@link TreeMap}; since every tick is unique, that
+ * time identifies the {@link Buffer}.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class LRUKPolicy
+		implements ReplacementPolicy
+{
+
+	/**
+	 * The number of references tracked per block.
+	 */
+	private int k;
+	/**
+	 * The logical clock.
+	 */
+	private long clock;
+	/**
+	 * {@link Buffer Buffers} with fewer than K references, most recently used
+	 * first.
+	 */
+	private BufferList young = new BufferList();
+	/**
+	 * {@link Buffer Buffers} with K references, keyed by their K-th most recent
+	 * reference time.
+	 */
+	private TreeMap<Long, Buffer> mature = new TreeMap<>();
+	/**
+	 * Reference histories of resident blocks, most recent time first. Unused
+	 * entries hold zero.
+	 */
+	private HashMap<Integer, long[]> history = new HashMap<>();
+	/**
+	 * Reference histories of recently evicted blocks.
+	 */
+	private Map<Integer, long[]> retained;
+	/**
+	 * The number of hits reported to this policy.
+	 */
+	private long hits;
+	/**
+	 * The number of misses reported to this policy.
+	 */
+	private long misses;
+
+	/**
+	 * Constructs a new {@code LRUKPolicy} tracking the last {@code k}
+	 * references of each block, for a pool of {@code capacity}
+	 * {@link Buffer Buffers}. Histories are retained for as many evicted
+	 * blocks as the pool holds.
+	 * <p/>
+	 * @param k        the number of references to track, at least 1
+	 * @param capacity the maximum number of {@link Buffer Buffers} in the pool
+	 */
+	public LRUKPolicy(int k, final int capacity)
+	{
+		this.k = k;
+		this.clock = 0;
+		this.retained = new LinkedHashMap<Integer, long[]>()
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, long[]> e)
+			{
+				return size() > capacity;
+			}
+		};
+	}
+
+	@Override
+	public void accessed(Buffer buff)
+	{
+		hits++;
+		long[] times = history.get(buff.getNumber());
+		if (times[k - 1] != 0)
+		{
+			mature.remove(times[k - 1]);
+		}
+		else
+		{
+			young.remove(buff);
+		}
+		reference(times);
+		place(buff, times);
+	}
+
+	@Override
+	public void admitted(Buffer buff)
+	{
+		misses++;
+		long[] times = retained.remove(buff.getNumber());
+		if (times == null)
+		{
+			times = new long[k];
+		}
+		history.put(buff.getNumber(), times);
+		reference(times);
+		place(buff, times);
+	}
+
+	@Override
+	public Buffer evict(int blockNum)
+	{
+		Buffer victim = young.removeLast();
+		if (victim == null)
+		{
+			victim = mature.pollFirstEntry().getValue();
+		}
+		retained.put(victim.getNumber(), history.remove(victim.getNumber()));
+		return victim;
+	}
+
+	@Override
+	public void reinstate(Buffer buff)
+	{
+		long[] times = retained.remove(buff.getNumber());
+		history.put(buff.getNumber(), times);
+		if (times[k - 1] != 0)
+		{
+			mature.put(times[k - 1], buff);
+		}
+		else
+		{
+			young.addLast(buff);
+		}
+	}
+
+	@Override
+	public long getHits()
+	{
+		return hits;
+	}
+
+	@Override
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "LRU-" + k;
+	}
+
+	/**
+	 * Records a reference at the next clock tick in {@code times}.
+	 * <p/>
+	 * @param times a reference history, most recent first
+	 */
+	private void reference(long[] times)
+	{
+		System.arraycopy(times, 0, times, 1, k - 1);
+		times[0] = ++clock;
+	}
+
+	/**
+	 * Files {@code buff} under the structure matching its history.
+	 * <p/>
+	 * @param buff  the {@link Buffer} to file; it must be on neither structure
+	 * @param times the reference history of its block
+	 */
+	private void place(Buffer buff, long[] times)
+	{
+		if (times[k - 1] != 0)
+		{
+			mature.put(times[k - 1], buff);
+		}
+		else
+		{
+			young.addFirst(buff);
+		}
+	}
+}
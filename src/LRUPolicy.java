@@ -0,0 +1,71 @@
+
+/**
+ * {@code LRUPolicy} implements the <b>Least Recently Used</b> scheme: every
+ * hit moves a {@link Buffer} to the front of a single {@link BufferList} and
+ * victims are taken from the back. This is the default policy of a
+ * {@link BufferPool}.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class LRUPolicy
+		implements ReplacementPolicy
+{
+
+	/**
+	 * The managed {@link Buffer Buffers}, most recently used first.
+	 */
+	private BufferList list = new BufferList();
+	/**
+	 * The number of hits reported to this policy.
+	 */
+	private long hits;
+	/**
+	 * The number of misses reported to this policy.
+	 */
+	private long misses;
+
+	@Override
+	public void accessed(Buffer buff)
+	{
+		hits++;
+		list.moveToFront(buff);
+	}
+
+	@Override
+	public void admitted(Buffer buff)
+	{
+		misses++;
+		list.addFirst(buff);
+	}
+
+	@Override
+	public Buffer evict(int blockNum)
+	{
+		return list.removeLast();
+	}
+
+	@Override
+	public void reinstate(Buffer buff)
+	{
+		list.addLast(buff);
+	}
+
+	@Override
+	public long getHits()
+	{
+		return hits;
+	}
+
+	@Override
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "LRU";
+	}
+}
@@ -0,0 +1,171 @@
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * {@code MappedBufferPool} objects are {@link BufferPool BufferPools} whose
+ * source is accessed through a {@link MappedFile} rather than by positioning
+ * and reading a {@link java.io.RandomAccessFile}. A miss therefore becomes a
+ * memory copy out of the operating system's page cache instead of a system
+ * call, and paging of the source is left to the operating system.
+ * <p/>
+ * Cache hits, cache misses, disk reads and disk writes are counted exactly as
+ * they are by a {@link BufferPool}, so the two can be compared on the same
+ * workload. Since the operating system hides its actual paging, this pool
+ * also estimates the page-ins the mapping caused: the first touch of any block
+ * of the source is counted as one page-in, every later touch is assumed to be
+ * served from memory.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class MappedBufferPool
+		extends BufferPool
+{
+
+	/**
+	 * The size of each mapped segment of the source, in bytes. This is a
+	 * multiple of every block size up to {@link BufferPool#MAX_BLOCK_SIZE} so
+	 * that no block ever straddles two segments.
+	 */
+	public static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+	/**
+	 * The mapped source.
+	 */
+	private MappedFile mapped;
+	/**
+	 * The blocks of the source that have been touched through the mapping.
+	 */
+	private BitSet touched;
+	/**
+	 * A running count of the estimated number of page-ins.
+	 */
+	private long PAGE_INS;
+
+	/**
+	 * Constructs a new {@code MappedBufferPool} with space for
+	 * {@code numBuffers} using {@code file}, which is mapped read-write.
+	 * Buffers are replaced using the <b>Least Recently Used</b> scheme.
+	 * <p/>
+	 * @param numBuffers the number of {@link Buffer Buffers} this pool will
+	 *                      manage
+	 * @param file       the {@link File} from which to read and write
+	 * <p/>
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public MappedBufferPool(int numBuffers, File file)
+			throws FileNotFoundException, IOException
+	{
+		this(numBuffers, file, new LRUPolicy());
+	}
+
+	/**
+	 * Constructs a new {@code MappedBufferPool} with space for
+	 * {@code numBuffers} using {@code file}, which is mapped read-write.
+	 * Buffers are replaced as decided by {@code policy}.
+	 * <p/>
+	 * @param numBuffers the number of {@link Buffer Buffers} this pool will
+	 *                      manage
+	 * @param file       the {@link File} from which to read and write
+	 * @param policy     the {@link ReplacementPolicy} to use
+	 * <p/>
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public MappedBufferPool(int numBuffers, File file, ReplacementPolicy policy)
+			throws FileNotFoundException, IOException
+	{
+		this(numBuffers, file, policy, BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructs a new {@code MappedBufferPool} with space for
+	 * {@code numBuffers} blocks of {@code blockSize} bytes using {@code file},
+	 * which is mapped read-write. Buffers are replaced as decided by
+	 * {@code policy}.
+	 * <p/>
+	 * @param numBuffers the number of {@link Buffer Buffers} this pool will
+	 *                      manage
+	 * @param file       the {@link File} from which to read and write
+	 * @param policy     the {@link ReplacementPolicy} to use
+	 * @param blockSize  the size of every block, in bytes
+	 * <p/>
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public MappedBufferPool(int numBuffers, File file, ReplacementPolicy policy,
+			int blockSize) throws FileNotFoundException, IOException
+	{
+		super(numBuffers, file, policy, blockSize);
+		mapped = new MappedFile(getChannel(), file.length(), SEGMENT_SIZE,
+				FileChannel.MapMode.READ_WRITE);
+		touched = new BitSet();
+		PAGE_INS = 0;
+	}
+
+	@Override
+	protected void readBlock(ByteBuffer ret, long start) throws IOException
+	{
+		touch(start);
+		ByteBuffer dst = ret.duplicate();
+		dst.clear();
+		mapped.get(start, dst);
+	}
+
+	@Override
+	protected void writeBlock(ByteBuffer bytes, long start) throws IOException
+	{
+		touch(start);
+		ByteBuffer src = bytes.duplicate();
+		src.clear();
+		mapped.put(start, src);
+	}
+
+	@Override
+	protected void writeBlocks(ByteBuffer[] srcs, long start) throws IOException
+	{
+		for (int i = 0; i < srcs.length; i++)
+		{
+			writeBlock(srcs[i], start + (long) i * getBlockSize());
+		}
+	}
+
+	@Override
+	public void closeSourceStream() throws IOException
+	{
+		mapped.force();
+		super.closeSourceStream();
+	}
+
+	/**
+	 * Records an access to the block starting at {@code start}, counting a
+	 * page-in if the block has never been touched before. Blocks may be read
+	 * by the pool's background reader, hence the synchronization.
+	 * <p/>
+	 * @param start the starting index of the block within the source
+	 */
+	private synchronized void touch(long start)
+	{
+		int blockNum = (int) (start / getBlockSize());
+		if (!touched.get(blockNum))
+		{
+			touched.set(blockNum);
+			PAGE_INS++;
+		}
+	}
+
+	/**
+	 * Retrieves the estimated number of page-ins the mapping caused.
+	 * <p/>
+	 * @return the estimated page-in count
+	 */
+	public synchronized long getPageIns()
+	{
+		return this.PAGE_INS;
+	}
+}
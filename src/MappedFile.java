@@ -0,0 +1,231 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@code MappedFile} objects expose a file through a series of fixed-size
+ * {@link MappedByteBuffer} segments created with {@link FileChannel#map}.
+ * Segments are mapped lazily, the first time a byte inside them is touched,
+ * so only the regions of the file actually used are ever mapped. Reads and
+ * writes that cross a segment boundary are split transparently.
+ * <p/>
+ * Positions are {@code long} byte offsets into the file; a single
+ * {@link MappedByteBuffer} cannot address more than 2 GB, which is why the
+ * file is broken into segments in the first place.
+ * <p/>
+ * Segment positions are used as cursors for bulk copies, so copies are
+ * synchronized; a {@code MappedFile} may be used by a pool and its background
+ * writer at the same time.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class MappedFile
+{
+
+	/**
+	 * The channel the segments are mapped from.
+	 */
+	private FileChannel channel;
+	/**
+	 * The mode every segment is mapped with.
+	 */
+	private FileChannel.MapMode mode;
+	/**
+	 * The mapped segments, {@code null} until first touched.
+	 */
+	private MappedByteBuffer[] segments;
+	/**
+	 * The size of every segment but possibly the last, in bytes.
+	 */
+	private int segmentSize;
+	/**
+	 * The number of bytes of the file that are mapped.
+	 */
+	private long length;
+
+	/**
+	 * Constructs a new {@code MappedFile} over the first {@code length} bytes
+	 * of {@code channel}.
+	 * <p/>
+	 * @param channel     the channel to map
+	 * @param length      the number of bytes to expose
+	 * @param segmentSize the size of each mapped segment, in bytes
+	 * @param mode        the mode to map segments with
+	 */
+	public MappedFile(FileChannel channel, long length, int segmentSize,
+			FileChannel.MapMode mode)
+	{
+		this.channel = channel;
+		this.length = length;
+		this.segmentSize = segmentSize;
+		this.mode = mode;
+		int count = (int) ((length + segmentSize - 1) / segmentSize);
+		segments = new MappedByteBuffer[count];
+	}
+
+	/**
+	 * Copies up to {@code len} bytes starting at file position {@code pos}
+	 * into {@code dst}. Fewer bytes are copied if the end of the file is
+	 * reached first.
+	 * <p/>
+	 * @param pos the file position to start reading from
+	 * @param dst the array to copy into
+	 * @param off the first index of {@code dst} to fill
+	 * @param len the number of bytes wanted
+	 * <p/>
+	 * @return the number of bytes actually copied
+	 * <p/>
+	 * @throws IOException
+	 */
+	public synchronized int get(long pos, byte[] dst, int off, int len)
+			throws IOException
+	{
+		int done = 0;
+		while (done < len && pos < length)
+		{
+			MappedByteBuffer seg = segment(pos);
+			int segOff = (int) (pos % segmentSize);
+			int chunk = Math.min(len - done, seg.limit() - segOff);
+			seg.position(segOff);
+			seg.get(dst, off + done, chunk);
+			done += chunk;
+			pos += chunk;
+		}
+		return done;
+	}
+
+	/**
+	 * Copies {@code len} bytes from {@code src} into the file starting at
+	 * position {@code pos}. Bytes that would land past the mapped length are
+	 * dropped.
+	 * <p/>
+	 * @param pos the file position to start writing at
+	 * @param src the array to copy from
+	 * @param off the first index of {@code src} to copy
+	 * @param len the number of bytes to copy
+	 * <p/>
+	 * @throws IOException
+	 */
+	public synchronized void put(long pos, byte[] src, int off, int len)
+			throws IOException
+	{
+		int done = 0;
+		while (done < len && pos < length)
+		{
+			MappedByteBuffer seg = segment(pos);
+			int segOff = (int) (pos % segmentSize);
+			int chunk = Math.min(len - done, seg.limit() - segOff);
+			seg.position(segOff);
+			seg.put(src, off + done, chunk);
+			done += chunk;
+			pos += chunk;
+		}
+	}
+
+	/**
+	 * Copies bytes starting at file position {@code pos} into the remaining
+	 * space of {@code dst}, advancing its position. Fewer bytes are copied if
+	 * the end of the file is reached first.
+	 * <p/>
+	 * @param pos the file position to start reading from
+	 * @param dst the buffer to copy into
+	 * <p/>
+	 * @return the number of bytes actually copied
+	 * <p/>
+	 * @throws IOException
+	 */
+	public synchronized int get(long pos, ByteBuffer dst) throws IOException
+	{
+		int done = 0;
+		while (dst.hasRemaining() && pos < length)
+		{
+			MappedByteBuffer seg = segment(pos);
+			int segOff = (int) (pos % segmentSize);
+			int chunk = Math.min(dst.remaining(), seg.limit() - segOff);
+			ByteBuffer src = seg.duplicate();
+			src.position(segOff);
+			src.limit(segOff + chunk);
+			dst.put(src);
+			done += chunk;
+			pos += chunk;
+		}
+		return done;
+	}
+
+	/**
+	 * Copies the remaining bytes of {@code src} into the file starting at
+	 * position {@code pos}, advancing its position. Bytes that would land
+	 * past the mapped length are dropped.
+	 * <p/>
+	 * @param pos the file position to start writing at
+	 * @param src the buffer to copy from
+	 * <p/>
+	 * @throws IOException
+	 */
+	public synchronized void put(long pos, ByteBuffer src) throws IOException
+	{
+		while (src.hasRemaining() && pos < length)
+		{
+			MappedByteBuffer seg = segment(pos);
+			int segOff = (int) (pos % segmentSize);
+			int chunk = Math.min(src.remaining(), seg.limit() - segOff);
+			ByteBuffer part = src.duplicate();
+			part.limit(part.position() + chunk);
+			seg.position(segOff);
+			seg.put(part);
+			src.position(src.position() + chunk);
+			pos += chunk;
+		}
+	}
+
+	/**
+	 * Forces every mapped segment's changes out to the underlying file.
+	 */
+	public void force()
+	{
+		for (MappedByteBuffer seg : segments)
+		{
+			if (seg != null)
+			{
+				seg.force();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes exposed by this {@code MappedFile}.
+	 * <p/>
+	 * @return the mapped length
+	 */
+	public long length()
+	{
+		return length;
+	}
+
+	/**
+	 * Returns the segment containing file position {@code pos}, mapping it
+	 * first if this is the first time it has been touched.
+	 * <p/>
+	 * @param pos a file position
+	 * <p/>
+	 * @return the segment covering {@code pos}
+	 * <p/>
+	 * @throws IOException
+	 */
+	private MappedByteBuffer segment(long pos) throws IOException
+	{
+		int s = (int) (pos / segmentSize);
+		MappedByteBuffer seg = segments[s];
+		if (seg == null)
+		{
+			long base = (long) s * segmentSize;
+			long size = Math.min(segmentSize, length - base);
+			seg = channel.map(mode, base, size);
+			segments[s] = seg;
+		}
+		return seg;
+	}
+}
@@ -16,7 +16,7 @@ public class MaxHeap<E extends Comparable<? super E>>
 	/**
 	 * Number of records currently in the heap.
 	 */
-	private int n;
+	private long n;
 	/**
 	 * Maximum allowable size of the heap, in terms of number of records.
 	 */
@@ -46,7 +46,7 @@ public class MaxHeap<E extends Comparable<? super E>>
 	public MaxHeap(RecordCollection<E> c, long num, long max) throws HeapException
 	{
 		this.heap = c;
-		this.n = (int) num;
+		this.n = num;
 		this.size = max;
 		buildHeap();
 	}
@@ -56,7 +56,7 @@ public class MaxHeap<E extends Comparable<? super E>>
 	 */
 	private void buildHeap() throws HeapException
 	{
-		for (int i = n / 2 - 1; i >= 0; i--)
+		for (long i = n / 2 - 1; i >= 0; i--)
 		{
 			siftDown(i);
 		}
@@ -70,7 +70,7 @@ public class MaxHeap<E extends Comparable<? super E>>
 	 * @return {@code true} if the position is a leaf (it has no children),
 	 *            {@code false} otherwise
 	 */
-	private boolean isLeaf(int pos)
+	private boolean isLeaf(long pos)
 	{
 		return (pos >= n / 2) && (pos < n);
 	}
@@ -83,7 +83,7 @@ public class MaxHeap<E extends Comparable<? super E>>
 	 * @return a valid Integer if {@code pos} has a left child, otherwise
 	 *            nothing
 	 */
-	private int leftChild(int pos)
+	private long leftChild(long pos)
 	{
 		assert pos < n / 2 : "Position has no left child";
 		return 2 * pos + 1;
@@ -97,7 +97,7 @@ public class MaxHeap<E extends Comparable<? super E>>
 	 * @return a valid Integer if {@code pos} has a right child, otherwise
 	 *            nothing
 	 */
-	private int rightChild(int pos)
+	private long rightChild(long pos)
 	{
 		assert pos < (n - 1) / 2 : "Position has no right child";
 		return 2 * pos + 2;
@@ -111,7 +111,7 @@ public class MaxHeap<E extends Comparable<? super E>>
 	 * <p/>
 	 * @return a valid Integer if {@code pos} is not the root, otherwise nothing
 	 */
-	private int parent(int pos)
+	private long parent(long pos)
 	{
 		assert pos > 0 : "Position has no parent";
 		return (pos - 1) / 2;
@@ -127,6 +127,21 @@ public class MaxHeap<E extends Comparable<? super E>>
 	 * @throws HeapException
 	 */
 	public E removeMax() throws HeapException
+	{
+		moveMaxToEnd();
+		return heap.get(n);
+	}
+
+	/**
+	 * Removes the maximum value from the heap by swapping it with the end
+	 * value, as {@link MaxHeap#removeMax() removeMax} does, but without
+	 * reading it back. A heapsort, which leaves every removed value where it
+	 * lands, needs nothing else, so no record is decoded per removal. If the
+	 * heap is empty a {@link HeapException} is thrown.
+	 * <p/>
+	 * @throws HeapException
+	 */
+	public void moveMaxToEnd() throws HeapException
 	{
 		if (n < 0)
 		{
@@ -138,24 +153,20 @@ public class MaxHeap<E extends Comparable<? super E>>
 		{
 			siftDown(0);
 		}
-		return heap.get(n);
-
 	}
 
 	/**
 	 * Swaps the record stored at position {@code first} with the record at
-	 * {@code second}.
+	 * {@code second}. The swap is left to the {@link RecordCollection}, which
+	 * can move the records without decoding them.
 	 * 
 	 * @param rc the {@link RecordCollection} used to get and set records
 	 * @param first the first position at which to swap
 	 * @param second the second position at which to swap
 	 */
-	private void swap(RecordCollection<E> rc, int first, int second)
+	private void swap(RecordCollection<E> rc, long first, long second)
 	{
-		E record1 = rc.get(first);
-		E record2 = rc.get(second);
-		rc.set(record1, second);
-		rc.set(record2, first);
+		rc.swap(first, second);
 	}
 
 	/**
@@ -163,7 +174,7 @@ public class MaxHeap<E extends Comparable<? super E>>
 	 * <p/>
 	 * @return the length of the heap
 	 */
-	public int length()
+	public long length()
 	{
 		return n;
 	}
@@ -178,7 +189,7 @@ public class MaxHeap<E extends Comparable<? super E>>
 	 * <p/>
 	 * @throws IllegalHeapPositionException
 	 */
-	private void siftDown(int pos) throws IllegalHeapPositionException
+	private void siftDown(long pos) throws IllegalHeapPositionException
 	{
 		if ((pos >= n) || (pos < 0))
 		{
@@ -186,12 +197,20 @@ public class MaxHeap<E extends Comparable<? super E>>
 		}
 		while (!isLeaf(pos))
 		{
-			int j = leftChild(pos);
-			if ((j < (n - 1)) && (heap.get(j).compareTo(heap.get(j + 1)) < 0))
+			long j = leftChild(pos);
+			//the children are read right away; ask for the grandchildren so
+			//that the next level is on its way while this one is compared
+			long grandchild = 2 * j + 1;
+			if (grandchild < n)
+			{
+				heap.prefetch(grandchild);
+				heap.prefetch(Math.min(grandchild + 3, n - 1));
+			}
+			if ((j < (n - 1)) && (heap.compare(j, j + 1) < 0))
 			{
 				j++; // index of child w/ greater value
 			}
-			if (heap.get(pos).compareTo(heap.get(j)) >= 0)
+			if (heap.compare(pos, j) >= 0)
 			{
 				return;
 			}
@@ -217,10 +236,10 @@ public class MaxHeap<E extends Comparable<? super E>>
 		{
 			throw new IllegalHeapStateException("Attempted to insert into a full heap: " + val);
 		}
-		int curr = n++;
+		long curr = n++;
 		heap.set(val, curr);
 		// Siftup until curr parent's key > curr key
-		while ((curr != 0) && (heap.get(curr).compareTo(heap.get(parent(curr))) > 0))
+		while ((curr != 0) && (heap.compare(curr, parent(curr)) > 0))
 		{
 			swap(heap, curr, parent(curr));
 			curr = parent(curr);
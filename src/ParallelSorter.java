@@ -0,0 +1,624 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts a data file on several threads. The file is split into block-aligned
+ * chunks, each the size of one thread's share of the buffer budget, and the
+ * chunks are sorted concurrently on a {@link ForkJoinPool}, each by its own
+ * {@link HeapSorter} through its own {@link BufferPool}. Since every chunk
+ * fits in its pool, a chunk sort reads and writes each block once. The sorted
+ * chunks are then merged with sequential I/O into a temporary file next to
+ * the data file, which then replaces the data file by rename. The merge keeps
+ * to the same buffer budget: when there are more chunks than it can merge at
+ * once, it merges them in several passes. Anything
+ * holding the data file open during the sort must reopen it afterwards. Bytes
+ * past the last whole record are copied to the merged file unchanged, so the
+ * data file keeps its length.
+ * <p/>
+ * Chunks never share a block, so their pools never write the same part of the
+ * file, and no locking is needed beyond the fork/join itself. The sort phase
+ * scales with the number of threads until the disk becomes the limit; the
+ * merge phase is sequential I/O on a single thread.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class ParallelSorter
+		implements RecordSorter
+{
+
+	/**
+	 * The time it took for the last sort in milliseconds.
+	 */
+	private long time = -1;
+	/**
+	 * The data file to sort.
+	 */
+	private File dataFile;
+	/**
+	 * The total number of {@link Buffer Buffers} shared by the threads.
+	 */
+	private int buffers;
+	/**
+	 * The number of threads.
+	 */
+	private int threads;
+	/**
+	 * The number of children per heap position used by each chunk sort.
+	 */
+	private int arity;
+	/**
+	 * Whether each chunk sort sifts bottom-up.
+	 */
+	private boolean bottomUp;
+	/**
+	 * The size of the blocks of every chunk pool and of the merge's reads and
+	 * writes, in bytes.
+	 */
+	private int blockSize;
+	/**
+	 * The size of every chunk but possibly the last, in bytes.
+	 */
+	private long chunkBytes;
+	/**
+	 * The number of chunks the last sort used.
+	 */
+	private int chunks;
+	/**
+	 * Totals over every chunk sort: comparisons, record reads, cache hits,
+	 * cache misses, disk reads and disk writes. Guarded by {@code this}.
+	 */
+	private long comparisons, recordReads, cacheHits, cacheMisses, diskReads,
+			diskWrites;
+	/**
+	 * The number of blocks read and written by the merge.
+	 */
+	private long mergeReads, mergeWrites;
+	/**
+	 * The number of merge passes the last sort made.
+	 */
+	private int mergePasses;
+	/**
+	 * The first failure of any chunk sort, or {@code null}. Guarded by
+	 * {@code this}.
+	 */
+	private Exception failure;
+
+	/**
+	 * Constructs a new {@code ParallelSorter} for {@code dataFile}.
+	 * <p/>
+	 * @param dataFile the file of records to sort
+	 * @param buffers  the total number of {@link Buffer Buffers}, shared
+	 *                    evenly by the threads
+	 * @param threads  the number of threads to sort with
+	 * @param arity    the number of children per heap position
+	 * @param bottomUp whether to sift bottom-up
+	 */
+	public ParallelSorter(File dataFile, int buffers, int threads, int arity,
+			boolean bottomUp)
+	{
+		this(dataFile, buffers, threads, arity, bottomUp, BufferPool.BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructs a new {@code ParallelSorter} for {@code dataFile} whose pools
+	 * and merge use blocks of {@code blockSize} bytes.
+	 * <p/>
+	 * @param dataFile  the file of records to sort
+	 * @param buffers   the total number of {@link Buffer Buffers}, shared
+	 *                     evenly by the threads
+	 * @param threads   the number of threads to sort with
+	 * @param arity     the number of children per heap position
+	 * @param bottomUp  whether to sift bottom-up
+	 * @param blockSize the size of every block, in bytes
+	 */
+	public ParallelSorter(File dataFile, int buffers, int threads, int arity,
+			boolean bottomUp, int blockSize)
+	{
+		this.dataFile = dataFile;
+		this.buffers = buffers;
+		this.threads = Math.max(1, threads);
+		this.arity = arity;
+		this.bottomUp = bottomUp;
+		this.blockSize = blockSize;
+	}
+
+	@Override
+	public long getSortTime()
+	{
+		return time;
+	}
+
+	/**
+	 * Returns the number of key comparisons the chunk sorts made; the merge is
+	 * not counted.
+	 * <p/>
+	 * @return the comparison count
+	 */
+	@Override
+	public synchronized long getComparisons()
+	{
+		return comparisons;
+	}
+
+	@Override
+	public synchronized long getRecordReads()
+	{
+		return recordReads;
+	}
+
+	/**
+	 * Returns the number of chunks the last sort used.
+	 * <p/>
+	 * @return the chunk count
+	 */
+	public int getChunkCount()
+	{
+		return chunks;
+	}
+
+	/**
+	 * Returns the number of threads used.
+	 * <p/>
+	 * @return the thread count
+	 */
+	public int getThreadCount()
+	{
+		return threads;
+	}
+
+	/**
+	 * Returns the cache hits of all chunk pools together.
+	 * <p/>
+	 * @return the cache hit count
+	 */
+	public synchronized long getCacheHits()
+	{
+		return cacheHits;
+	}
+
+	/**
+	 * Returns the cache misses of all chunk pools together.
+	 * <p/>
+	 * @return the cache miss count
+	 */
+	public synchronized long getCacheMisses()
+	{
+		return cacheMisses;
+	}
+
+	/**
+	 * Returns the disk reads of all chunk pools together.
+	 * <p/>
+	 * @return the disk read count
+	 */
+	public synchronized long getDiskReads()
+	{
+		return diskReads;
+	}
+
+	/**
+	 * Returns the disk writes of all chunk pools together.
+	 * <p/>
+	 * @return the disk write count
+	 */
+	public synchronized long getDiskWrites()
+	{
+		return diskWrites;
+	}
+
+	/**
+	 * Returns the number of blocks the merge read, from the data file and the
+	 * temporary files of every pass.
+	 * <p/>
+	 * @return the merge block read count
+	 */
+	public long getMergeReads()
+	{
+		return mergeReads;
+	}
+
+	/**
+	 * Returns the number of merge passes the last sort made, including the
+	 * final one into the file that replaces the data file.
+	 * <p/>
+	 * @return the merge pass count, {@code 0} if there was a single chunk
+	 */
+	public int getMergePasses()
+	{
+		return mergePasses;
+	}
+
+	/**
+	 * Returns the number of blocks the merge wrote, to the temporary files of
+	 * every pass.
+	 * <p/>
+	 * @return the merge block write count
+	 */
+	public long getMergeWrites()
+	{
+		return mergeWrites;
+	}
+
+	/**
+	 * Sorts the data file.
+	 * <p/>
+	 * @throws HeapException
+	 * @throws IOException
+	 */
+	@Override
+	public void sort() throws HeapException, IOException
+	{
+		long startTime = System.currentTimeMillis();
+		synchronized (this)
+		{
+			comparisons = 0;
+			recordReads = 0;
+			cacheHits = 0;
+			cacheMisses = 0;
+			diskReads = 0;
+			diskWrites = 0;
+			failure = null;
+		}
+		mergeReads = 0;
+		mergeWrites = 0;
+		mergePasses = 0;
+		long bytes = dataFile.length();
+		int chunkBlocks = Math.max(1, buffers / threads);
+		chunkBytes = (long) chunkBlocks * blockSize;
+		chunks = (int) ((bytes + chunkBytes - 1) / chunkBytes);
+		ForkJoinPool workers = new ForkJoinPool(threads);
+		try
+		{
+			workers.invoke(new ChunkSort(0, chunks, chunkBlocks));
+		}
+		finally
+		{
+			workers.shutdown();
+		}
+		synchronized (this)
+		{
+			if (failure instanceof IOException)
+			{
+				throw (IOException) failure;
+			}
+			if (failure instanceof HeapException)
+			{
+				throw (HeapException) failure;
+			}
+		}
+		if (chunks > 1)
+		{
+			merge(bytes);
+		}
+		time = System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * Sorts chunk {@code chunk} on the calling thread with a pool of its own,
+	 * and adds its counts to the totals.
+	 * <p/>
+	 * @param chunk       the index of the chunk
+	 * @param chunkBlocks the number of {@link Buffer Buffers} for its pool
+	 * <p/>
+	 * @throws HeapException
+	 * @throws IOException
+	 */
+	private void sortChunk(int chunk, int chunkBlocks)
+			throws HeapException, IOException
+	{
+		long base = chunk * chunkBytes;
+		long length = Math.min(chunkBytes, dataFile.length() - base);
+		BufferPool pool = new BufferPool(chunkBlocks, dataFile, new LRUPolicy(),
+				blockSize);
+		try
+		{
+			HeapSorter sorter = new HeapSorter(new IntegerCollection(pool,
+					base, length));
+			sorter.setArity(arity);
+			sorter.setBottomUp(bottomUp);
+			sorter.sort();
+			pool.flush();
+			synchronized (this)
+			{
+				comparisons += sorter.getComparisons();
+				recordReads += sorter.getRecordReads();
+				cacheHits += pool.getCacheHits();
+				cacheMisses += pool.getCacheMisses();
+				diskReads += pool.getDiskReads();
+				diskWrites += pool.getDiskWrites();
+			}
+		}
+		finally
+		{
+			pool.closeSourceStream();
+		}
+	}
+
+	/**
+	 * Merges the sorted chunks, smallest record first, into a temporary file
+	 * and renames it over the data file. A merge holds one block of every
+	 * run it reads and one it writes, so at most one run fewer than there are
+	 * {@link Buffer Buffers} is merged at a time. More chunks than that are
+	 * first merged in groups, pass after pass, alternating between two
+	 * temporary files, as {@link ExternalSorter} does, and the last pass
+	 * writes the file that replaces the data file.
+	 * <p/>
+	 * @param bytes the length of the data file
+	 * <p/>
+	 * @throws HeapException
+	 * @throws IOException
+	 */
+	private void merge(long bytes) throws HeapException, IOException
+	{
+		long chunkRecords = chunkBytes / IntegerCollection.RECORD_SIZE;
+		long records = bytes / IntegerCollection.RECORD_SIZE;
+		List<long[]> bounds = new ArrayList<>();
+		for (int i = 0; i < chunks; i++)
+		{
+			long offset = i * chunkRecords;
+			bounds.add(new long[]
+			{
+				offset, Math.min(chunkRecords, records - offset)
+			});
+		}
+		int fanIn = Math.max(2, buffers - 1);
+		File directory = dataFile.getAbsoluteFile().getParentFile();
+		File[] merged =
+		{
+			File.createTempFile("heapsort", ".merge", directory),
+			File.createTempFile("heapsort", ".merge", directory)
+		};
+		//the file the next pass writes to
+		int target = 0;
+		try
+		{
+			try (RandomAccessFile data = new RandomAccessFile(dataFile, "r");
+					RandomAccessFile first = new RandomAccessFile(merged[0], "rw");
+					RandomAccessFile second = new RandomAccessFile(merged[1], "rw"))
+			{
+				FileChannel[] channels =
+				{
+					first.getChannel(), second.getChannel()
+				};
+				FileChannel from = data.getChannel();
+				while (bounds.size() > fanIn)
+				{
+					channels[target].truncate(0);
+					bounds = mergePass(from, bounds, fanIn, channels[target]);
+					from = channels[target];
+					target ^= 1;
+				}
+				channels[target].truncate(0);
+				RunWriter writer = new RunWriter(channels[target], 0, blockSize);
+				mergeRuns(from, bounds, writer);
+				writer.flush();
+				mergeWrites += writer.getBlocksWritten();
+				mergePasses++;
+				RunWriter.copyTail(data.getChannel(), channels[target],
+						records * IntegerCollection.RECORD_SIZE, bytes);
+			}
+			try
+			{
+				Files.move(merged[target].toPath(), dataFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException ex)
+			{
+				Files.move(merged[target].toPath(), dataFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally
+		{
+			//the final file is only left over if the merge or rename failed
+			merged[0].delete();
+			merged[1].delete();
+		}
+	}
+
+	/**
+	 * Merges the runs of {@code bounds} in groups of {@code fanIn} into
+	 * {@code out}.
+	 * <p/>
+	 * @param in     the channel holding the runs
+	 * @param bounds the offset and length, in records, of every run
+	 * @param fanIn  the number of runs merged at once
+	 * @param out    the channel to write the merged runs to, from position
+	 *                  {@code 0}
+	 * <p/>
+	 * @return the offset and length, in records, of every merged run
+	 * <p/>
+	 * @throws HeapException
+	 * @throws IOException
+	 */
+	private List<long[]> mergePass(FileChannel in, List<long[]> bounds,
+			int fanIn, FileChannel out) throws HeapException, IOException
+	{
+		List<long[]> ret = new ArrayList<>();
+		RunWriter writer = new RunWriter(out, 0, blockSize);
+		for (int i = 0; i < bounds.size(); i += fanIn)
+		{
+			long start = writer.getCount();
+			mergeRuns(in, bounds.subList(i, Math.min(i + fanIn, bounds.size())),
+					writer);
+			ret.add(new long[]
+			{
+				start, writer.getCount() - start
+			});
+		}
+		writer.flush();
+		mergeWrites += writer.getBlocksWritten();
+		mergePasses++;
+		return ret;
+	}
+
+	/**
+	 * Merges the runs of {@code bounds}, smallest record first, into
+	 * {@code writer}.
+	 * <p/>
+	 * @param in     the channel holding the runs
+	 * @param bounds the offset and length, in records, of every run to merge
+	 * @param writer where to write the merged run
+	 * <p/>
+	 * @throws HeapException
+	 * @throws IOException
+	 */
+	private void mergeRuns(FileChannel in, List<long[]> bounds,
+			RunWriter writer) throws HeapException, IOException
+	{
+		int k = bounds.size();
+		RunReader[] readers = new RunReader[k];
+		ArrayCollection<Head> memory = new ArrayCollection<>(k);
+		int live = 0;
+		long records = 0;
+		for (int i = 0; i < k; i++)
+		{
+			readers[i] = new RunReader(in, bounds.get(i)[0], bounds.get(i)[1],
+					blockSize);
+			records += bounds.get(i)[1];
+			if (readers[i].hasNext())
+			{
+				memory.set(new Head(i, readers[i].next()), live++);
+			}
+		}
+		MaxHeap<Head> heap = new MaxHeap<>(memory, live, k);
+		while (heap.length() > 0)
+		{
+			Head top = heap.removeMax();
+			writer.write(top.packed);
+			if (readers[top.run].hasNext())
+			{
+				top.packed = readers[top.run].next();
+				heap.insert(top);
+			}
+		}
+		for (RunReader reader : readers)
+		{
+			mergeReads += reader.getBlocksRead();
+		}
+		synchronized (this)
+		{
+			recordReads += records;
+		}
+	}
+
+	/**
+	 * The next record of one sorted run during a merge. The heap is a
+	 * max-heap, so the smallest record ranks highest.
+	 */
+	private static class Head
+			implements Comparable<Head>
+	{
+
+		/**
+		 * The index, among the runs merged, of the run the record came from.
+		 */
+		private int run;
+		/**
+		 * The packed record.
+		 */
+		private int packed;
+
+		/**
+		 * Constructs a new {@code Head}.
+		 * <p/>
+		 * @param run    the index of the run the record came from
+		 * @param packed the packed record
+		 */
+		Head(int run, int packed)
+		{
+			this.run = run;
+			this.packed = packed;
+		}
+
+		@Override
+		public int compareTo(Head o)
+		{
+			return Integer.compare(IntegerCollection.key(o.packed),
+					IntegerCollection.key(packed));
+		}
+	}
+
+	/**
+	 * Sorts a range of chunks, splitting it in two until a single chunk is
+	 * left.
+	 */
+	private class ChunkSort
+			extends RecursiveAction
+	{
+
+		/**
+		 * The serialization version; tasks are never serialized.
+		 */
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The first chunk of the range.
+		 */
+		private final int from;
+		/**
+		 * One past the last chunk of the range.
+		 */
+		private final int to;
+		/**
+		 * The number of {@link Buffer Buffers} for each chunk's pool.
+		 */
+		private final int chunkBlocks;
+
+		/**
+		 * Constructs a new {@code ChunkSort} for chunks {@code from} up to,
+		 * but not including, {@code to}.
+		 * <p/>
+		 * @param from        the first chunk
+		 * @param to          one past the last chunk
+		 * @param chunkBlocks the number of {@link Buffer Buffers} per chunk
+		 */
+		ChunkSort(int from, int to, int chunkBlocks)
+		{
+			this.from = from;
+			this.to = to;
+			this.chunkBlocks = chunkBlocks;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from > 1)
+			{
+				int mid = (from + to) >>> 1;
+				invokeAll(new ChunkSort(from, mid, chunkBlocks),
+						new ChunkSort(mid, to, chunkBlocks));
+				return;
+			}
+			if (from == to)
+			{
+				return;
+			}
+			try
+			{
+				sortChunk(from, chunkBlocks);
+			}
+			catch (HeapException | IOException ex)
+			{
+				synchronized (ParallelSorter.this)
+				{
+					if (failure == null)
+					{
+						failure = ex;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,210 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sorts a data file by least significant digit radix sort on the 16-bit
+ * record keys, one byte at a time, in linear time. A first sequential pass
+ * builds a histogram of both key bytes. A second pass streams the file and
+ * distributes every record by the low key byte into a temporary file, and a
+ * third streams the temporary file back into the data file by the high key
+ * byte. Each distribution pass fills 256 buckets, every bucket a contiguous
+ * region written front to back through its own block-sized
+ * {@link RunWriter}, so all I/O is in whole blocks and sequential within each
+ * bucket.
+ * <p/>
+ * The distribution is stable, so records end up in key order with records of
+ * equal key in their original relative order. Keys are signed; the high byte
+ * has its sign bit flipped so that negative keys sort first.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class RadixSorter
+		implements RecordSorter
+{
+
+	/**
+	 * The number of buckets per pass, one per byte value.
+	 */
+	private static final int RADIX = 256;
+	/**
+	 * The time it took for the last sort in milliseconds.
+	 */
+	private long time = -1;
+	/**
+	 * The data file to sort.
+	 */
+	private File dataFile;
+	/**
+	 * The number of records the last sort read.
+	 */
+	private long recordReads = -1;
+	/**
+	 * The number of blocks the last sort read.
+	 */
+	private long blocksRead;
+	/**
+	 * The number of blocks the last sort wrote.
+	 */
+	private long blocksWritten;
+
+	/**
+	 * Constructs a new {@code RadixSorter} for {@code dataFile}.
+	 * <p/>
+	 * @param dataFile the file of records to sort
+	 */
+	public RadixSorter(File dataFile)
+	{
+		this.dataFile = dataFile;
+	}
+
+	@Override
+	public long getSortTime()
+	{
+		return time;
+	}
+
+	/**
+	 * Radix sort makes no comparisons.
+	 * <p/>
+	 * @return {@code 0}
+	 */
+	@Override
+	public long getComparisons()
+	{
+		return 0;
+	}
+
+	@Override
+	public long getRecordReads()
+	{
+		return recordReads;
+	}
+
+	/**
+	 * Returns the number of blocks the last sort read, over all passes.
+	 * <p/>
+	 * @return the block read count
+	 */
+	public long getBlocksRead()
+	{
+		return blocksRead;
+	}
+
+	/**
+	 * Returns the number of blocks the last sort wrote, over all passes.
+	 * <p/>
+	 * @return the block write count
+	 */
+	public long getBlocksWritten()
+	{
+		return blocksWritten;
+	}
+
+	/**
+	 * Sorts the data file.
+	 * <p/>
+	 * @throws IOException
+	 */
+	@Override
+	public void sort() throws IOException
+	{
+		long startTime = System.currentTimeMillis();
+		recordReads = 0;
+		blocksRead = 0;
+		blocksWritten = 0;
+		File temp = File.createTempFile("heapsort", ".radix",
+				dataFile.getAbsoluteFile().getParentFile());
+		try (RandomAccessFile data = new RandomAccessFile(dataFile, "rw");
+				RandomAccessFile scratch = new RandomAccessFile(temp, "rw"))
+		{
+			FileChannel dataChannel = data.getChannel();
+			FileChannel tempChannel = scratch.getChannel();
+			long n = dataChannel.size() / IntegerCollection.RECORD_SIZE;
+			long[] low = new long[RADIX];
+			long[] high = new long[RADIX];
+			RunReader reader = new RunReader(dataChannel, 0, n);
+			while (reader.hasNext())
+			{
+				int packed = reader.next();
+				low[lowDigit(packed)]++;
+				high[highDigit(packed)]++;
+			}
+			blocksRead += reader.getBlocksRead();
+			recordReads += n;
+			distribute(dataChannel, tempChannel, n, low, false);
+			distribute(tempChannel, dataChannel, n, high, true);
+		}
+		finally
+		{
+			temp.delete();
+		}
+		time = System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * Streams {@code n} records from {@code in} to {@code out}, placing each
+	 * in the bucket of one key byte.
+	 * <p/>
+	 * @param in     the channel to read from
+	 * @param out    the channel to write to
+	 * @param n      the number of records
+	 * @param counts the number of records per bucket
+	 * @param high   {@code true} to distribute by the high key byte,
+	 *                  {@code false} by the low one
+	 * <p/>
+	 * @throws IOException
+	 */
+	private void distribute(FileChannel in, FileChannel out, long n,
+			long[] counts, boolean high) throws IOException
+	{
+		RunWriter[] buckets = new RunWriter[RADIX];
+		long offset = 0;
+		for (int i = 0; i < RADIX; i++)
+		{
+			buckets[i] = new RunWriter(out, offset);
+			offset += counts[i];
+		}
+		RunReader reader = new RunReader(in, 0, n);
+		while (reader.hasNext())
+		{
+			int packed = reader.next();
+			buckets[high ? highDigit(packed) : lowDigit(packed)].write(packed);
+		}
+		blocksRead += reader.getBlocksRead();
+		recordReads += n;
+		for (RunWriter bucket : buckets)
+		{
+			bucket.flush();
+			blocksWritten += bucket.getBlocksWritten();
+		}
+	}
+
+	/**
+	 * Returns the low byte of the key of a packed record.
+	 * <p/>
+	 * @param packed a packed record
+	 * <p/>
+	 * @return the low key byte, {@code 0} to {@code 255}
+	 */
+	private static int lowDigit(int packed)
+	{
+		return (packed >>> 16) & 0xff;
+	}
+
+	/**
+	 * Returns the high byte of the key of a packed record, with its sign bit
+	 * flipped so that negative keys come first.
+	 * <p/>
+	 * @param packed a packed record
+	 * <p/>
+	 * @return the high key byte, {@code 0} to {@code 255}
+	 */
+	private static int highDigit(int packed)
+	{
+		return (packed >>> 24) ^ 0x80;
+	}
+}
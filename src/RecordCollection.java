@@ -19,7 +19,7 @@ public interface RecordCollection<E>
 	 * <p/>
 	 * @return the record stored at {@code index}
 	 */
-	public E get(int recordNum);
+	public E get(long recordNum);
 
 	/**
 	 * Sets the record at position {@code recordNum} to {@code element}.
@@ -27,7 +27,59 @@ public interface RecordCollection<E>
 	 * @param element   the new record to use
 	 * @param recordNum the index at which to replace
 	 */
-	public void set(E element, int recordNum);
+	public void set(E element, long recordNum);
+
+	/**
+	 * Gets the {@code count} records stored from position {@code from} on,
+	 * in order, into {@code dst}. Implementations may serve the whole range
+	 * at once rather than record by record.
+	 * <p/>
+	 * @param from  the index of the first record
+	 * @param count the number of records
+	 * @param dst   the array to fill from index {@code 0}
+	 */
+	public void getRange(long from, int count, E[] dst);
+
+	/**
+	 * Sets the {@code count} records from position {@code from} on to the
+	 * first {@code count} elements of {@code src}, in order.
+	 * <p/>
+	 * @param from  the index of the first record to replace
+	 * @param count the number of records
+	 * @param src   the new records, from index {@code 0}
+	 */
+	public void setRange(long from, int count, E[] src);
+
+	/**
+	 * Hints that the record at position {@code recordNum} will be needed soon,
+	 * so that an implementation backed by slow storage can start fetching it.
+	 * Implementations are free to ignore the hint; it never changes what
+	 * {@link RecordCollection#get(long) get} returns.
+	 * <p/>
+	 * @param recordNum the index of the record that will be needed
+	 */
+	public void prefetch(long recordNum);
+
+	/**
+	 * Swaps the records at positions {@code first} and {@code second}.
+	 * <p/>
+	 * @param first  the index of one record
+	 * @param second the index of the other record
+	 */
+	public void swap(long first, long second);
+
+	/**
+	 * Compares the records at positions {@code first} and {@code second} in
+	 * the same way as {@link Comparable#compareTo(Object) compareTo}, without
+	 * retrieving either as an object.
+	 * <p/>
+	 * @param first  the index of one record
+	 * @param second the index of the other record
+	 * <p/>
+	 * @return a negative number, zero or a positive number as the first
+	 *            record is less than, equal to or greater than the second
+	 */
+	public int compare(long first, long second);
 
     /**
      * Get the number of records in the collection
@@ -0,0 +1,46 @@
+
+import java.io.IOException;
+
+/**
+ * The {@code RecordSorter} interface is implemented by every sorting engine
+ * that {@link heapsort} can run. Each engine sorts the records of its
+ * collection in ascending order, in place, and reports how long that took, so
+ * engines can be swapped on the command line and compared on the same
+ * statistics file.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public interface RecordSorter
+{
+
+	/**
+	 * Sorts the records.
+	 * <p/>
+	 * @throws HeapException
+	 * @throws IOException
+	 */
+	public void sort() throws HeapException, IOException;
+
+	/**
+	 * Returns the last sorting time in milliseconds. A negative value implies
+	 * no sorting occurred.
+	 * <p/>
+	 * @return the sort time
+	 */
+	public long getSortTime();
+
+	/**
+	 * Returns the number of key comparisons the last sort made.
+	 * <p/>
+	 * @return the comparison count, or {@code -1} if not counted
+	 */
+	public long getComparisons();
+
+	/**
+	 * Returns the number of records the last sort read.
+	 * <p/>
+	 * @return the record read count, or {@code -1} if not counted
+	 */
+	public long getRecordReads();
+}
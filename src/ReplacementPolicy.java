@@ -0,0 +1,86 @@
+
+/**
+ * The {@code ReplacementPolicy} interface decides which {@link Buffer} a
+ * {@link BufferPool} gives up when it is full and a block that is not in the
+ * pool is requested. The pool reports every hit and every newly loaded block
+ * to its policy, and asks the policy for a victim only when a miss occurs
+ * while the pool is full.
+ * <p/>
+ * Implementations track only the {@link Buffer Buffers} they have been told
+ * about; the pool remains responsible for writing back dirty victims and for
+ * counting disk accesses. Each policy counts the hits and misses it is told
+ * about itself, so that the statistics of one policy can be compared with
+ * another's on the same run without relying on the pool's own counters.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public interface ReplacementPolicy
+{
+
+	/**
+	 * Notifies the policy that {@code buff} was found in the pool.
+	 * <p/>
+	 * @param buff the {@link Buffer} that was hit
+	 */
+	public void accessed(Buffer buff);
+
+	/**
+	 * Notifies the policy that {@code buff} has just been loaded with a block
+	 * that was not in the pool. {@code buff} is either a new {@link Buffer},
+	 * or the last victim returned by
+	 * {@link ReplacementPolicy#evict(int) evict}, renumbered.
+	 * <p/>
+	 * @param buff the {@link Buffer} holding the newly loaded block
+	 */
+	public void admitted(Buffer buff);
+
+	/**
+	 * Chooses a {@link Buffer} to give up so that block {@code blockNum} can be
+	 * loaded, and stops tracking it. Only called while the pool is full. If the
+	 * victim is pinned the pool calls this again for the same block until it
+	 * gets one it can give up, and then hands the pinned ones back through
+	 * {@link ReplacementPolicy#reinstate(Buffer) reinstate}.
+	 * <p/>
+	 * @param blockNum the number of the block about to be loaded
+	 * <p/>
+	 * @return the victim {@link Buffer}
+	 */
+	public Buffer evict(int blockNum);
+
+	/**
+	 * Takes back a victim returned by {@link ReplacementPolicy#evict(int)
+	 * evict} that the pool could not give up because it is pinned. Unlike
+	 * {@link ReplacementPolicy#admitted(Buffer) admitted} this is not a new
+	 * reference: {@code buff} goes back where it was taken from, with the same
+	 * history, so it is again next in line once it is unpinned. Victims are
+	 * handed back in the reverse of the order they were evicted.
+	 * <p/>
+	 * @param buff the pinned victim, still holding its block
+	 */
+	public void reinstate(Buffer buff);
+
+	/**
+	 * Returns the number of hits reported to this policy through
+	 * {@link ReplacementPolicy#accessed(Buffer) accessed}.
+	 * <p/>
+	 * @return the number of hits this policy has seen
+	 */
+	public long getHits();
+
+	/**
+	 * Returns the number of misses reported to this policy through
+	 * {@link ReplacementPolicy#admitted(Buffer) admitted}.
+	 * <p/>
+	 * @return the number of misses this policy has seen
+	 */
+	public long getMisses();
+
+	/**
+	 * Returns the short name of this policy, as used on the command line and in
+	 * the statistics file.
+	 * <p/>
+	 * @return the policy name
+	 */
+	public String getName();
+}
@@ -0,0 +1,121 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@code RunReader} objects read a run of packed records sequentially from a
+ * {@link FileChannel}, one block at a time, using positional reads. Blocks
+ * are {@link BufferPool#BLOCK_SIZE BLOCK_SIZE} bytes unless another size is
+ * given. Any number of readers may share a channel.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class RunReader
+{
+
+	/**
+	 * The channel holding the run.
+	 */
+	private final FileChannel channel;
+	/**
+	 * The block currently being read.
+	 */
+	private final ByteBuffer block;
+	/**
+	 * The channel position of the next block.
+	 */
+	private long position;
+	/**
+	 * The number of records not yet returned.
+	 */
+	private long remaining;
+	/**
+	 * The number of blocks read so far.
+	 */
+	private long blocksRead;
+
+	/**
+	 * Constructs a new {@code RunReader}.
+	 * <p/>
+	 * @param channel the channel holding the run
+	 * @param offset  the offset of the run, in records
+	 * @param length  the length of the run, in records
+	 */
+	public RunReader(FileChannel channel, long offset, long length)
+	{
+		this(channel, offset, length, BufferPool.BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructs a new {@code RunReader} that reads blocks of
+	 * {@code blockSize} bytes.
+	 * <p/>
+	 * @param channel   the channel holding the run
+	 * @param offset    the offset of the run, in records
+	 * @param length    the length of the run, in records
+	 * @param blockSize the size of every read, in bytes; a multiple of
+	 *                     {@link IntegerCollection#RECORD_SIZE RECORD_SIZE}
+	 */
+	public RunReader(FileChannel channel, long offset, long length,
+			int blockSize)
+	{
+		this.channel = channel;
+		this.block = ByteBuffer.allocate(blockSize);
+		this.position = offset * IntegerCollection.RECORD_SIZE;
+		this.remaining = length;
+		block.limit(0);
+	}
+
+	/**
+	 * Determines if the run has records left.
+	 * <p/>
+	 * @return {@code true} if {@link RunReader#next() next} may be called
+	 */
+	public boolean hasNext()
+	{
+		return remaining > 0;
+	}
+
+	/**
+	 * Returns the next record of the run.
+	 * <p/>
+	 * @return the next packed record
+	 * <p/>
+	 * @throws IOException if the channel ends before the run does
+	 */
+	public int next() throws IOException
+	{
+		if (!block.hasRemaining())
+		{
+			block.clear();
+			long wanted = Math.min(block.capacity(),
+					remaining * IntegerCollection.RECORD_SIZE);
+			block.limit((int) wanted);
+			while (block.hasRemaining())
+			{
+				int read = channel.read(block, position);
+				if (read < 0)
+				{
+					throw new IOException("Run ended early at position " + position);
+				}
+				position += read;
+			}
+			block.flip();
+			blocksRead++;
+		}
+		remaining--;
+		return block.getInt();
+	}
+
+	/**
+	 * Returns the number of blocks read so far.
+	 * <p/>
+	 * @return the block read count
+	 */
+	public long getBlocksRead()
+	{
+		return blocksRead;
+	}
+}
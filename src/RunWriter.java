@@ -0,0 +1,152 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@code RunWriter} objects append packed records sequentially to a
+ * {@link FileChannel}, one block at a time, using positional writes. Blocks
+ * are {@link BufferPool#BLOCK_SIZE BLOCK_SIZE} bytes unless another size is
+ * given.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class RunWriter
+{
+
+	/**
+	 * The channel written to.
+	 */
+	private final FileChannel channel;
+	/**
+	 * The block currently being filled.
+	 */
+	private final ByteBuffer block;
+	/**
+	 * The channel position of the next block.
+	 */
+	private long position;
+	/**
+	 * The number of records written so far.
+	 */
+	private long count;
+	/**
+	 * The number of blocks written so far.
+	 */
+	private long blocksWritten;
+
+	/**
+	 * Constructs a new {@code RunWriter}.
+	 * <p/>
+	 * @param channel the channel to write to
+	 * @param offset  the offset to start writing at, in records
+	 */
+	public RunWriter(FileChannel channel, long offset)
+	{
+		this(channel, offset, BufferPool.BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructs a new {@code RunWriter} that writes blocks of
+	 * {@code blockSize} bytes.
+	 * <p/>
+	 * @param channel   the channel to write to
+	 * @param offset    the offset to start writing at, in records
+	 * @param blockSize the size of every write, in bytes; a multiple of
+	 *                     {@link IntegerCollection#RECORD_SIZE RECORD_SIZE}
+	 */
+	public RunWriter(FileChannel channel, long offset, int blockSize)
+	{
+		this.channel = channel;
+		this.block = ByteBuffer.allocate(blockSize);
+		this.position = offset * IntegerCollection.RECORD_SIZE;
+	}
+
+	/**
+	 * Appends one record.
+	 * <p/>
+	 * @param packed the packed record
+	 * <p/>
+	 * @throws IOException
+	 */
+	public void write(int packed) throws IOException
+	{
+		if (!block.hasRemaining())
+		{
+			flush();
+		}
+		block.putInt(packed);
+		count++;
+	}
+
+	/**
+	 * Writes out the records not yet written.
+	 * <p/>
+	 * @throws IOException
+	 */
+	public void flush() throws IOException
+	{
+		block.flip();
+		if (block.hasRemaining())
+		{
+			blocksWritten++;
+		}
+		while (block.hasRemaining())
+		{
+			position += channel.write(block, position);
+		}
+		block.clear();
+	}
+
+	/**
+	 * Returns the number of records written so far.
+	 * <p/>
+	 * @return the record count
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Returns the number of blocks written so far.
+	 * <p/>
+	 * @return the block write count
+	 */
+	public long getBlocksWritten()
+	{
+		return blocksWritten;
+	}
+
+	/**
+	 * Copies the bytes of {@code in} from {@code from} up to {@code to} to the
+	 * same place in {@code out}. This carries a partial record at the end of
+	 * a data file, which is never sorted, over into the file the sorted
+	 * records are written to.
+	 * <p/>
+	 * @param in   the channel to copy from
+	 * @param out  the channel to copy to
+	 * @param from the position of the first byte to copy
+	 * @param to   the position past the last byte to copy
+	 * <p/>
+	 * @throws IOException
+	 */
+	public static void copyTail(FileChannel in, FileChannel out, long from,
+			long to) throws IOException
+	{
+		ByteBuffer tail = ByteBuffer.allocate((int) (to - from));
+		while (tail.hasRemaining())
+		{
+			if (in.read(tail, from + tail.position()) < 0)
+			{
+				throw new IOException("Data file ended early");
+			}
+		}
+		tail.flip();
+		while (tail.hasRemaining())
+		{
+			out.write(tail, from + tail.position());
+		}
+	}
+}
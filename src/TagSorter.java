@@ -0,0 +1,360 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Sorts a data file of wide records, each {@code recordSize} bytes and keyed
+ * by the signed 16-bit number in its first two bytes, by sorting compact tags
+ * instead of the records themselves. A first sequential pass reads the key of
+ * every record into an in-memory tag that pairs it with the record's index.
+ * The tags, eight bytes each however wide the records are, are then sorted.
+ * Ties are broken by index, so the sort is stable. A final pass permutes the
+ * payload: it reads every record once, in tag order, through a
+ * {@link BufferPool}, and writes it once, sequentially, through a
+ * {@link DoubleBufferedWriter}.
+ * <p/>
+ * The records are written into a temporary file that is then copied back
+ * over the data file, or straight into an output file, in which case the
+ * data file is only read.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class TagSorter
+		implements RecordSorter
+{
+
+	/**
+	 * The size of the chunks the keys are read in, in blocks, before rounding
+	 * down to a whole number of records.
+	 */
+	private static final int READ_BLOCKS = 16;
+	/**
+	 * The time it took for the last sort in milliseconds.
+	 */
+	private long time = -1;
+	/**
+	 * The data file to sort.
+	 */
+	private File dataFile;
+	/**
+	 * The file to write the sorted records to, or {@code null} to write them
+	 * back over the data file.
+	 */
+	private File output;
+	/**
+	 * The size of every record, in bytes.
+	 */
+	private int recordSize;
+	/**
+	 * The number of {@link Buffer Buffers} of the pool the payload is read
+	 * through.
+	 */
+	private int buffers;
+	/**
+	 * The size of the blocks of the payload pool and of every read and write,
+	 * in bytes.
+	 */
+	private int blockSize;
+	/**
+	 * The number of records the last sort read: once for its key, once for
+	 * its payload.
+	 */
+	private long recordReads = -1;
+	/**
+	 * Statistics of the payload pool of the last sort: cache hits, cache
+	 * misses and disk reads.
+	 */
+	private long cacheHits, cacheMisses, diskReads;
+	/**
+	 * The number of blocks the last sort wrote, including the copy back.
+	 */
+	private long blocksWritten;
+
+	/**
+	 * Constructs a new {@code TagSorter} for {@code dataFile}.
+	 * <p/>
+	 * @param dataFile   the file of records to sort
+	 * @param output     the file to write the sorted records to, or
+	 *                      {@code null} to write them back over
+	 *                      {@code dataFile}
+	 * @param recordSize the size of every record, in bytes, at least 2
+	 * @param buffers    the number of {@link Buffer Buffers} to read the
+	 *                      payload through
+	 */
+	public TagSorter(File dataFile, File output, int recordSize, int buffers)
+	{
+		this(dataFile, output, recordSize, buffers, BufferPool.BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructs a new {@code TagSorter} for {@code dataFile} that reads and
+	 * writes in blocks of {@code blockSize} bytes.
+	 * <p/>
+	 * @param dataFile   the file of records to sort
+	 * @param output     the file to write the sorted records to, or
+	 *                      {@code null} to write them back over
+	 *                      {@code dataFile}
+	 * @param recordSize the size of every record, in bytes, at least 2
+	 * @param buffers    the number of {@link Buffer Buffers} to read the
+	 *                      payload through
+	 * @param blockSize  the size of every block, in bytes
+	 */
+	public TagSorter(File dataFile, File output, int recordSize, int buffers,
+			int blockSize)
+	{
+		if (recordSize < 2)
+		{
+			throw new IllegalArgumentException("Records must hold a key: "
+					+ recordSize);
+		}
+		this.dataFile = dataFile;
+		this.output = output;
+		this.recordSize = recordSize;
+		this.buffers = Math.max(1, buffers);
+		this.blockSize = blockSize;
+	}
+
+	@Override
+	public long getSortTime()
+	{
+		return time;
+	}
+
+	/**
+	 * Comparisons are made by {@link Arrays#sort(long[])} and are not counted.
+	 * <p/>
+	 * @return {@code -1}
+	 */
+	@Override
+	public long getComparisons()
+	{
+		return -1;
+	}
+
+	@Override
+	public long getRecordReads()
+	{
+		return recordReads;
+	}
+
+	/**
+	 * Returns the size of every record, in bytes.
+	 * <p/>
+	 * @return the record size
+	 */
+	public int getRecordSize()
+	{
+		return recordSize;
+	}
+
+	/**
+	 * Returns the cache hits of the pool the payload was read through.
+	 * <p/>
+	 * @return the cache hit count
+	 */
+	public long getCacheHits()
+	{
+		return cacheHits;
+	}
+
+	/**
+	 * Returns the cache misses of the pool the payload was read through.
+	 * <p/>
+	 * @return the cache miss count
+	 */
+	public long getCacheMisses()
+	{
+		return cacheMisses;
+	}
+
+	/**
+	 * Returns the disk reads of the pool the payload was read through.
+	 * <p/>
+	 * @return the disk read count
+	 */
+	public long getDiskReads()
+	{
+		return diskReads;
+	}
+
+	/**
+	 * Returns the number of blocks the last sort wrote, including the copy
+	 * back over the data file.
+	 * <p/>
+	 * @return the block write count
+	 */
+	public long getBlocksWritten()
+	{
+		return blocksWritten;
+	}
+
+	/**
+	 * Sorts the data file.
+	 * <p/>
+	 * @throws IOException
+	 */
+	@Override
+	public void sort() throws IOException
+	{
+		long startTime = System.currentTimeMillis();
+		long bytes = dataFile.length();
+		if (bytes % recordSize != 0)
+		{
+			throw new IOException("Data file is not a whole number of "
+					+ recordSize + "-byte records: " + bytes + " bytes");
+		}
+		if (bytes / recordSize > Integer.MAX_VALUE)
+		{
+			throw new IOException("Too many records for one tag array: "
+					+ bytes / recordSize);
+		}
+		int n = (int) (bytes / recordSize);
+		long[] tags = readTags(n);
+		Arrays.sort(tags);
+		recordReads = n;
+		blocksWritten = 0;
+		File target = output;
+		if (target == null)
+		{
+			target = File.createTempFile("heapsort", ".tags",
+					dataFile.getAbsoluteFile().getParentFile());
+		}
+		try
+		{
+			permute(tags, target);
+			if (output == null)
+			{
+				copyBack(target, bytes);
+			}
+		}
+		finally
+		{
+			if (output == null)
+			{
+				target.delete();
+			}
+		}
+		time = System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * Reads the key of every record, front to back, into a tag: the key,
+	 * offset to be non-negative, in the upper half and the record index in
+	 * the lower half, so that tags sort by key and then by index.
+	 * <p/>
+	 * @param n the number of records
+	 * <p/>
+	 * @return the tags, in record order
+	 * <p/>
+	 * @throws IOException
+	 */
+	private long[] readTags(int n) throws IOException
+	{
+		long[] ret = new long[n];
+		int chunk = Math.max(1, READ_BLOCKS * blockSize / recordSize)
+				* recordSize;
+		ByteBuffer buf = ByteBuffer.allocateDirect(chunk);
+		try (RandomAccessFile in = new RandomAccessFile(dataFile, "r"))
+		{
+			FileChannel channel = in.getChannel();
+			long position = 0;
+			int index = 0;
+			while (index < n)
+			{
+				buf.clear();
+				while (buf.hasRemaining())
+				{
+					int read = channel.read(buf, position + buf.position());
+					if (read < 0)
+					{
+						break;
+					}
+				}
+				buf.flip();
+				position += buf.limit();
+				for (int at = 0; at + recordSize <= buf.limit() && index < n;
+						at += recordSize)
+				{
+					long key = buf.getShort(at) + 32768;
+					ret[index] = (key << 32) | index;
+					index++;
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Writes the records to {@code target} in the order of {@code tags},
+	 * reading each through a {@link BufferPool} over the data file.
+	 * <p/>
+	 * @param tags   the sorted tags
+	 * @param target the file to write to; it is created or overwritten
+	 * <p/>
+	 * @throws IOException
+	 */
+	private void permute(long[] tags, File target) throws IOException
+	{
+		BufferPool pool = new BufferPool(buffers, dataFile, new LRUPolicy(),
+				blockSize);
+		byte[] record = new byte[recordSize];
+		try (RandomAccessFile out = new RandomAccessFile(target, "rw"))
+		{
+			out.setLength(0);
+			DoubleBufferedWriter writer = new DoubleBufferedWriter(
+					out.getChannel(), blockSize);
+			try
+			{
+				for (long tag : tags)
+				{
+					long index = tag & 0xffffffffL;
+					pool.get(record, 0, recordSize, index * recordSize);
+					writer.write(record, 0, recordSize);
+				}
+			}
+			finally
+			{
+				writer.close();
+			}
+			recordReads += tags.length;
+			blocksWritten += writer.getBlocksWritten();
+			cacheHits = pool.getCacheHits();
+			cacheMisses = pool.getCacheMisses();
+			diskReads = pool.getDiskReads();
+		}
+		finally
+		{
+			pool.closeSourceStream();
+		}
+	}
+
+	/**
+	 * Copies the sorted records from {@code sorted} back over the data file.
+	 * <p/>
+	 * @param sorted the file holding the sorted records
+	 * @param bytes  the length of the data file
+	 * <p/>
+	 * @throws IOException
+	 */
+	private void copyBack(File sorted, long bytes) throws IOException
+	{
+		try (RandomAccessFile data = new RandomAccessFile(dataFile, "rw");
+				RandomAccessFile in = new RandomAccessFile(sorted, "r"))
+		{
+			FileChannel channel = data.getChannel();
+			FileChannel source = in.getChannel();
+			long done = 0;
+			while (done < bytes)
+			{
+				done += channel.transferFrom(source.position(done), done,
+						bytes - done);
+			}
+		}
+		blocksWritten += (bytes + blockSize - 1) / blockSize;
+	}
+}
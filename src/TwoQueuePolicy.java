@@ -0,0 +1,144 @@
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * {@code TwoQueuePolicy} implements the full <b>2Q</b> scheme of Johnson and
+ * Shasha. Blocks seen for the first time enter a small FIFO queue,
+ * {@code A1in}. When they fall out of it their numbers are remembered in a
+ * ghost queue, {@code A1out}, without keeping their bytes. Only a block that is
+ * requested again while remembered in {@code A1out} is promoted to the main
+ * LRU queue, {@code Am}.
+ * <p/>
+ * A scan therefore only ever churns {@code A1in}, while the blocks that are
+ * used over and over (for heapsort, the blocks holding the top of the heap)
+ * stay in {@code Am}.
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class TwoQueuePolicy
+		implements ReplacementPolicy
+{
+
+	/**
+	 * First-time blocks, newest first.
+	 */
+	private BufferList in = new BufferList();
+	/**
+	 * Blocks referenced again after leaving {@code A1in}, most recently used
+	 * first.
+	 */
+	private BufferList main = new BufferList();
+	/**
+	 * Numbers of blocks recently dropped from {@code A1in}, oldest first.
+	 */
+	private LinkedHashSet<Integer> out = new LinkedHashSet<>();
+	/**
+	 * The target size of {@code A1in}.
+	 */
+	private int inTarget;
+	/**
+	 * The maximum number of block numbers remembered in {@code A1out}.
+	 */
+	private int outLimit;
+	/**
+	 * The number of hits reported to this policy.
+	 */
+	private long hits;
+	/**
+	 * The number of misses reported to this policy.
+	 */
+	private long misses;
+
+	/**
+	 * Constructs a new {@code TwoQueuePolicy} for a pool of {@code capacity}
+	 * {@link Buffer Buffers}, using the tuning recommended by the authors:
+	 * {@code A1in} holds a quarter of the pool and {@code A1out} remembers half
+	 * as many blocks as the pool holds.
+	 * <p/>
+	 * @param capacity the maximum number of {@link Buffer Buffers} in the pool
+	 */
+	public TwoQueuePolicy(int capacity)
+	{
+		inTarget = Math.max(1, capacity / 4);
+		outLimit = Math.max(1, capacity / 2);
+	}
+
+	@Override
+	public void accessed(Buffer buff)
+	{
+		hits++;
+		//hits inside A1in are deliberately ignored; correlated references
+		//right after a block is loaded say nothing about its long term value
+		if (main.contains(buff))
+		{
+			main.moveToFront(buff);
+		}
+	}
+
+	@Override
+	public void admitted(Buffer buff)
+	{
+		misses++;
+		if (out.remove(buff.getNumber()))
+		{
+			main.addFirst(buff);
+		}
+		else
+		{
+			in.addFirst(buff);
+		}
+	}
+
+	@Override
+	public Buffer evict(int blockNum)
+	{
+		if (in.size() > inTarget || main.size() == 0)
+		{
+			Buffer victim = in.removeLast();
+			out.add(victim.getNumber());
+			if (out.size() > outLimit)
+			{
+				Iterator<Integer> oldest = out.iterator();
+				oldest.next();
+				oldest.remove();
+			}
+			return victim;
+		}
+		return main.removeLast();
+	}
+
+	@Override
+	public void reinstate(Buffer buff)
+	{
+		//a resident block is only remembered in A1out if it was just dropped
+		//from A1in
+		if (out.remove(buff.getNumber()))
+		{
+			in.addLast(buff);
+		}
+		else
+		{
+			main.addLast(buff);
+		}
+	}
+
+	@Override
+	public long getHits()
+	{
+		return hits;
+	}
+
+	@Override
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "2Q";
+	}
+}
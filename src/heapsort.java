@@ -44,6 +44,69 @@ import java.text.DecimalFormat;
  * expected to be a valid abstract pathname which will be used to create a new
  * file.
  * <p/>
+ * Any further arguments are options of the form {@code -name} or
+ * {@code -name=value}:
+ * <ul>
+ * <li>{@code -mapped} accesses the data file through a
+ * {@link MappedBufferPool} instead of a plain {@link BufferPool}</li>
+ * <li>{@code -policy=name} selects the {@link ReplacementPolicy} of the pool:
+ * {@code lru} (the default), {@code clock}, {@code 2q}, {@code lru-k} (with
+ * K = 2, or {@code lru-3} and so on for other values of K) or
+ * {@code arc}</li>
+ * <li>{@code -writeback=n} starts a background thread that writes dirty
+ * buffers back ahead of eviction whenever more than {@code n} are dirty</li>
+ * <li>{@code -prefetch=n} starts a background thread that reads the heap's
+ * next blocks ahead of a sift, and {@code n} blocks ahead of a scan</li>
+ * <li>{@code -segments=n} uses a {@link ConcurrentBufferPool} split into
+ * {@code n} independently locked segments; it cannot be combined with
+ * {@code -mapped}</li>
+ * <li>{@code -direct} keeps the pool's buffers in direct memory outside the
+ * Java heap</li>
+ * <li>{@code -arity=d} sorts with a {@code d}-ary heap instead of a binary
+ * one; {@code -arity=block} picks {@code d} from the number of records per
+ * block so that sibling groups stay within a block</li>
+ * <li>{@code -bottomup} sifts bottom-up (Floyd's heapsort), which makes
+ * fewer comparisons and record reads</li>
+ * <li>{@code -engine=name} selects the sorting engine: {@code heap} (the
+ * default) sorts in place with a heap through the pool, {@code merge} uses
+ * an {@link ExternalSorter}, {@code parallel} a {@link ParallelSorter},
+ * {@code radix} a {@link RadixSorter}</li>
+ * <li>{@code -nofastpath} sends every access through the pool even when the
+ * whole file fits in the buffers; otherwise such a file is sorted by an
+ * {@link InMemorySorter}</li>
+ * <li>{@code -threads=n} sets the number of threads of the {@code parallel}
+ * engine; by default one per available processor</li>
+ * <li>{@code -memory=n} sets the number of records an in-memory engine may
+ * hold at once; by default as many as the pool's buffers hold</li>
+ * <li>{@code -coalesce} writes an evicted dirty buffer together with the dirty
+ * buffers of its neighbouring blocks in one gathering write</li>
+ * <li>{@code -top=k} stops the {@code heap} engine once the {@code k} largest
+ * records are in place, in ascending order, at the end of the file; the rest
+ * of the file is left in heap order</li>
+ * <li>{@code -composite} makes the {@code heap} engine order records by key
+ * and then by value, compared as one normalized {@code int}, so that records
+ * with equal keys come out in a fixed order; a file sorted in memory is
+ * always ordered this way</li>
+ * <li>{@code -output=path} sorts out of place: the data file is only read,
+ * and the sorted records are written sequentially to {@code path}. A heap
+ * sort needs to rewrite its input, so unless the file fits in memory the
+ * {@code heap} engine sorts with an {@link ExternalSorter} instead; the
+ * {@code parallel} and {@code radix} engines and {@code -top} are not
+ * available. Block leaders are reported from the output file</li>
+ * <li>{@code -record=n} treats the file as records of {@code n} bytes
+ * instead of 4, each keyed by its first two bytes, and sorts them with a
+ * {@link TagSorter}; only the {@code heap} engine, without {@code -top} or
+ * {@code -composite}, accepts it</li>
+ * <li>{@code -blocksize=n} reads and writes the data file in blocks of
+ * {@code n} bytes instead of {@link BufferPool#BLOCK_SIZE BLOCK_SIZE}; the
+ * pool then holds {@code n}-byte buffers, and block counts, block leaders
+ * and the statistics are in blocks of that size. {@code -blocksize=auto}
+ * keeps the memory of the given number of default-sized buffers and lets
+ * {@link BufferPool#tuneBlockSize(long, long) tuneBlockSize} pick the block
+ * size from the file size and that budget. The {@code radix} engine always
+ * uses the default size</li>
+ * </ul>
+ * <p/>
  * @author orionf22
  * @author rinaldi1
  */
@@ -59,24 +122,113 @@ public class heapsort
 	 * than overwriting the existing contents.
 	 */
 	private static File statsFile;
+	/**
+	 * The file the sorted records are written to, or {@code null} to sort the
+	 * data file in place.
+	 */
+	private static File outputFile;
+	/**
+	 * The size of every record, in bytes.
+	 */
+	private static int recordSize = IntegerCollection.RECORD_SIZE;
 	/**
 	 * The number of {@link Buffer Buffers} that the {@link BufferPool} is
 	 * allowed to manage.
 	 */
 	private static int buffers;
+	/**
+	 * The size of the blocks the data file is read and written in, in bytes.
+	 */
+	private static int blockSize = BufferPool.BLOCK_SIZE;
+	/**
+	 * Whether the block size is chosen from the file size and the buffer
+	 * budget.
+	 */
+	private static boolean autoBlockSize;
+	/**
+	 * Whether the data file is accessed through a {@link MappedBufferPool}.
+	 */
+	private static boolean mapped;
+	/**
+	 * The name of the {@link ReplacementPolicy} the {@link BufferPool} uses.
+	 */
+	private static String policyName = "lru";
+	/**
+	 * The dirty {@link Buffer} watermark for background write-back, or
+	 * {@code -1} if write-back is disabled.
+	 */
+	private static int writeBackWatermark = -1;
+	/**
+	 * The read-ahead depth for background prefetching, or {@code 0} if
+	 * prefetching is disabled.
+	 */
+	private static int prefetchDepth = 0;
+	/**
+	 * The number of segments of a {@link ConcurrentBufferPool}, or {@code 0}
+	 * to use a single-threaded pool.
+	 */
+	private static int segments = 0;
+	/**
+	 * Whether the pool keeps its {@link Buffer Buffers} in direct memory.
+	 */
+	private static boolean direct;
+	/**
+	 * Whether evictions write runs of adjacent dirty blocks at once.
+	 */
+	private static boolean coalesce;
+	/**
+	 * The number of children per heap position, or {@code 0} to choose it
+	 * from the block size.
+	 */
+	private static int arity = 2;
+	/**
+	 * Whether the heap is sifted bottom-up.
+	 */
+	private static boolean bottomUp;
+	/**
+	 * The name of the sorting engine.
+	 */
+	private static String engine = "heap";
+	/**
+	 * The number of records an in-memory engine may hold, or {@code 0} for as
+	 * many as the pool's buffers hold.
+	 */
+	private static int memoryRecords = 0;
+	/**
+	 * The number of threads of the parallel engine.
+	 */
+	private static int threads = Runtime.getRuntime().availableProcessors();
+	/**
+	 * Whether a file that fits in the buffers is sorted in memory.
+	 */
+	private static boolean fastPath = true;
+	/**
+	 * The number of largest records the heap engine places, or {@code 0} to
+	 * sort the whole file.
+	 */
+	private static int topK = 0;
+	/**
+	 * Whether the heap orders records by key, then value.
+	 */
+	private static boolean composite;
 	/**
 	 * The main sorting "brains".
 	 */
-	private static HeapSorter sorter;
+	private static RecordSorter sorter;
 	/**
 	 * The {@link IntegerCollection} serving as the interface between the pool
 	 * and the sorter.
 	 */
 	private static IntegerCollection collection;
 	/**
-	 * The {@link BufferPool} mediating disk accesses.
+	 * The {@link BufferCache} mediating disk accesses.
 	 */
-	private static BufferPool pool;
+	private static BufferCache pool;
+	/**
+	 * The {@link ReplacementPolicy} of every part of {@link heapsort#pool pool};
+	 * a single entry unless the pool is split into segments.
+	 */
+	private static ReplacementPolicy[] policies;
 	/**
 	 * A publicly available {@link PrintWriter}. All program output comes
 	 * through this writer.
@@ -100,14 +252,43 @@ public class heapsort
 		}
 		else
 		{
-			pool = new BufferPool(buffers, dataFile);
+			if (autoBlockSize)
+			{
+				//keep the memory the default-sized buffers would have used
+				long budget = (long) buffers * BufferPool.BLOCK_SIZE;
+				blockSize = BufferPool.tuneBlockSize(dataFile.length(), budget);
+				buffers = (int) Math.max(1, budget / blockSize);
+			}
+			if (outputFile == null)
+			{
+				openPool(dataFile);
+			}
 			output.println("Input File Size: " + dataFile.length());
-			collection = new IntegerCollection(pool, dataFile.length());
-			sorter = new HeapSorter(collection);
+			if (arity == 0)
+			{
+				arity = IntMaxHeap.blockArity(blockSize
+						/ IntegerCollection.RECORD_SIZE);
+			}
+			sorter = createSorter();
 			//SORT!
 			sorter.sort();
-			//flush the pool prior to writing stats
+			//the parallel merge renames a new file over the data file, which
+			//the pool still has open; read the sorted one instead
+			if (sorter instanceof ParallelSorter)
+			{
+				pool.closeSourceStream();
+				openPool(dataFile);
+			}
+			//an out-of-place sort never touches a pool; the block leaders
+			//are read from the output through one
+			if (outputFile != null)
+			{
+				openPool(outputFile);
+			}
+			//flush the pool prior to writing stats, and count the prefetched
+			//blocks the sort left unused
 			pool.flush();
+			pool.stopPrefetch();
 			writeStats();
 			reportBlockLeaders();
 			//finally, close the file stream
@@ -116,6 +297,157 @@ public class heapsort
 		output.println("End Program");
 	}
 
+	/**
+	 * Opens the {@link BufferPool} over {@code file} with the selected
+	 * options and the {@link IntegerCollection} over the pool.
+	 * <p/>
+	 * @param file the file to access through the pool
+	 * <p/>
+	 * @throws IOException
+	 */
+	private static void openPool(File file) throws IOException
+	{
+		pool = createPool(file);
+		if (direct)
+		{
+			pool.enableDirectStorage();
+		}
+		if (coalesce)
+		{
+			pool.enableCoalescedEviction();
+		}
+		if (writeBackWatermark >= 0)
+		{
+			pool.enableWriteBack(writeBackWatermark);
+		}
+		if (prefetchDepth > 0)
+		{
+			pool.enablePrefetch(prefetchDepth);
+		}
+		collection = new IntegerCollection(pool, file.length());
+	}
+
+	/**
+	 * Creates the {@link RecordSorter} selected by the command line options.
+	 * <p/>
+	 * @return the new {@link RecordSorter}
+	 */
+	private static RecordSorter createSorter()
+	{
+		if (memoryRecords == 0)
+		{
+			memoryRecords = (int) Math.min(Integer.MAX_VALUE, (long) buffers
+					* blockSize / IntegerCollection.RECORD_SIZE);
+		}
+		if (recordSize != IntegerCollection.RECORD_SIZE)
+		{
+			return new TagSorter(dataFile, outputFile, recordSize, buffers,
+					blockSize);
+		}
+		if (outputFile != null)
+		{
+			if (engine.equals("heap") && fastPath
+					&& InMemorySorter.fits(dataFile.length(), buffers, blockSize))
+			{
+				return new InMemorySorter(dataFile, outputFile);
+			}
+			return new ExternalSorter(dataFile, outputFile, memoryRecords,
+					dataFile.getAbsoluteFile().getParentFile(), blockSize);
+		}
+		if (engine.equals("merge"))
+		{
+			return new ExternalSorter(collection, memoryRecords,
+					dataFile.getAbsoluteFile().getParentFile());
+		}
+		if (engine.equals("heap") && fastPath && topK == 0
+				&& InMemorySorter.fits(dataFile.length(), buffers, blockSize))
+		{
+			return new InMemorySorter(dataFile);
+		}
+		if (engine.equals("parallel"))
+		{
+			return new ParallelSorter(dataFile, buffers, threads, arity,
+					bottomUp, blockSize);
+		}
+		if (engine.equals("radix"))
+		{
+			return new RadixSorter(dataFile);
+		}
+		HeapSorter ret = new HeapSorter(collection);
+		ret.setArity(arity);
+		ret.setBottomUp(bottomUp);
+		ret.setTopK(topK);
+		ret.setComposite(composite);
+		return ret;
+	}
+
+	/**
+	 * Creates the {@link BufferCache} over {@code file} selected by the
+	 * command line options.
+	 * <p/>
+	 * @param file the file to access through the pool
+	 * <p/>
+	 * @return the new {@link BufferCache}
+	 * <p/>
+	 * @throws IOException
+	 */
+	private static BufferCache createPool(File file) throws IOException
+	{
+		if (segments > 0)
+		{
+			policies = new ReplacementPolicy[segments];
+			for (int i = 0; i < segments; i++)
+			{
+				policies[i] = createPolicy(policyName,
+						Math.max(1, buffers / segments));
+			}
+			return new ConcurrentBufferPool(buffers, file, policies, blockSize);
+		}
+		ReplacementPolicy policy = createPolicy(policyName, buffers);
+		policies = new ReplacementPolicy[]
+		{
+			policy
+		};
+		if (mapped)
+		{
+			return new MappedBufferPool(buffers, file, policy, blockSize);
+		}
+		return new BufferPool(buffers, file, policy, blockSize);
+	}
+
+	/**
+	 * Creates the {@link ReplacementPolicy} called {@code name} for a pool of
+	 * {@code capacity} {@link Buffer Buffers}.
+	 * <p/>
+	 * @param name     the policy name, as given on the command line
+	 * @param capacity the number of {@link Buffer Buffers} in the pool
+	 * <p/>
+	 * @return the new policy, or {@code null} if {@code name} is unknown
+	 */
+	private static ReplacementPolicy createPolicy(String name, int capacity)
+	{
+		switch (name)
+		{
+			case "lru":
+				return new LRUPolicy();
+			case "clock":
+				return new ClockPolicy();
+			case "2q":
+				return new TwoQueuePolicy(capacity);
+			case "arc":
+				return new ARCPolicy(capacity);
+			case "lru-k":
+				return new LRUKPolicy(2, capacity);
+			default:
+				if (name.matches("lru-[1-9][0-9]*"))
+				{
+					return new LRUKPolicy(Integer.parseInt(name.substring(4)),
+							capacity);
+				}
+				return null;
+		}
+	}
+
 	/**
 	 * Writes program execution statistics to {@code statsFile}. Right
 	 * justification is required with respect to cache hits and disk reads, and
@@ -128,7 +460,7 @@ public class heapsort
 	private static void writeStats() throws IOException
 	{
 		long time = sorter.getSortTime();
-		long numBlocks = dataFile.length() / BufferPool.BLOCK_SIZE;
+		long numBlocks = (dataFile.length() + blockSize - 1) / blockSize;
 		try (FileWriter writer = new FileWriter(statsFile, true))
 		{
 			DecimalFormat formatter = new DecimalFormat("#,###");
@@ -182,11 +514,203 @@ public class heapsort
 			try (BufferedWriter bWriter = new BufferedWriter(writer))
 			{
 				bWriter.write(dataFile.getName() + ", with " + numBlocks
-						+ " blocks and " + buffers + " buffers\n");
+						+ " blocks and " + buffers + " buffers"
+						+ describeOptions() + "\n");
 				bWriter.write(cacheHitStats + cacheMissStats + diskReadStats
-						+ diskWriteStats + "Time: " + time + "\n\n");
+						+ diskWriteStats + "Time: " + time + "\n");
+				if (sorter.getComparisons() >= 0)
+				{
+					bWriter.write("Comparisons: " + formatter.format(
+							sorter.getComparisons()) + "  Record reads: "
+							+ formatter.format(sorter.getRecordReads()) + "\n");
+				}
+				if (sorter instanceof ExternalSorter)
+				{
+					ExternalSorter external = (ExternalSorter) sorter;
+					bWriter.write("Runs: " + formatter.format(
+							external.getRunCount()) + "  Merge passes: "
+							+ external.getMergePasses() + "  Record reads: "
+							+ formatter.format(external.getRecordReads()) + "\n");
+					bWriter.write("Run file reads: " + formatter.format(
+							external.getRunBlocksRead()) + "  Run file writes: "
+							+ formatter.format(external.getRunBlocksWritten())
+							+ "\n");
+					if (outputFile != null)
+					{
+						bWriter.write("Input reads: " + formatter.format(
+								external.getInputBlocksRead())
+								+ "  Output writes: " + formatter.format(
+								external.getOutputBlocksWritten()) + "\n");
+					}
+				}
+				if (sorter instanceof TagSorter)
+				{
+					TagSorter tags = (TagSorter) sorter;
+					bWriter.write("Tag sort of " + tags.getRecordSize()
+							+ "-byte records: " + formatter.format(
+							tags.getRecordReads()) + " record reads  Payload "
+							+ "cache hits: " + formatter.format(
+							tags.getCacheHits()) + "  Payload cache misses: "
+							+ formatter.format(tags.getCacheMisses())
+							+ "  Payload disk reads: "
+							+ formatter.format(tags.getDiskReads())
+							+ "  Blocks written: "
+							+ formatter.format(tags.getBlocksWritten()) + "\n");
+				}
+				if (sorter instanceof InMemorySorter)
+				{
+					bWriter.write("Sorted in memory: one read and one write of "
+							+ formatter.format(dataFile.length()) + " bytes\n");
+				}
+				if (sorter instanceof ParallelSorter)
+				{
+					ParallelSorter parallel = (ParallelSorter) sorter;
+					bWriter.write("Chunks: " + formatter.format(
+							parallel.getChunkCount()) + "  Threads: "
+							+ parallel.getThreadCount() + "  Merge passes: "
+							+ parallel.getMergePasses() + "  Merge reads: "
+							+ formatter.format(parallel.getMergeReads())
+							+ "  Merge writes: "
+							+ formatter.format(parallel.getMergeWrites()) + "\n");
+					bWriter.write("Chunk cache hits: " + formatter.format(
+							parallel.getCacheHits()) + "  Chunk cache misses: "
+							+ formatter.format(parallel.getCacheMisses())
+							+ "  Chunk disk reads: "
+							+ formatter.format(parallel.getDiskReads())
+							+ "  Chunk disk writes: "
+							+ formatter.format(parallel.getDiskWrites()) + "\n");
+				}
+				if (sorter instanceof RadixSorter)
+				{
+					RadixSorter radix = (RadixSorter) sorter;
+					bWriter.write("Radix passes: 3  Blocks read: "
+							+ formatter.format(radix.getBlocksRead())
+							+ "  Blocks written: "
+							+ formatter.format(radix.getBlocksWritten()) + "\n");
+				}
+				long policyHits = 0;
+				long policyMisses = 0;
+				for (ReplacementPolicy policy : policies)
+				{
+					policyHits += policy.getHits();
+					policyMisses += policy.getMisses();
+				}
+				bWriter.write(policies[0].getName() + " policy hits: "
+						+ formatter.format(policyHits) + "  Policy misses: "
+						+ formatter.format(policyMisses) + "\n");
+				if (writeBackWatermark >= 0)
+				{
+					bWriter.write("Background writes: " + formatter.format(
+							pool.getBackgroundWrites()) + "\n");
+				}
+				if (coalesce)
+				{
+					bWriter.write("Write operations: " + formatter.format(
+							pool.getWriteRuns()) + "\n");
+				}
+				if (prefetchDepth > 0)
+				{
+					bWriter.write("Prefetch hits: " + formatter.format(
+							pool.getPrefetchHits()) + "  Prefetches wasted: "
+							+ formatter.format(pool.getPrefetchesWasted()) + "\n");
+				}
+				if (pool instanceof MappedBufferPool)
+				{
+					bWriter.write("Estimated page-ins: " + formatter.format(
+							((MappedBufferPool) pool).getPageIns()) + "\n");
+				}
+				bWriter.write("\n");
+			}
+		}
+	}
+
+	/**
+	 * Describes the non-default options this run used, for the statistics
+	 * header line. Runs with no options produce the original header.
+	 * <p/>
+	 * @return a String of comma-prefixed option descriptions, possibly empty
+	 */
+	private static String describeOptions()
+	{
+		String ret = "";
+		if (autoBlockSize)
+		{
+			ret += ", " + blockSize + "-byte blocks (auto-tuned)";
+		}
+		else if (blockSize != BufferPool.BLOCK_SIZE)
+		{
+			ret += ", " + blockSize + "-byte blocks";
+		}
+		if (mapped)
+		{
+			ret += ", memory-mapped";
+		}
+		if (!pool.getPolicy().getName().equals("LRU"))
+		{
+			ret += ", " + pool.getPolicy().getName() + " replacement";
+		}
+		if (writeBackWatermark >= 0)
+		{
+			ret += ", write-back above " + writeBackWatermark + " dirty";
+		}
+		if (prefetchDepth > 0)
+		{
+			ret += ", prefetch depth " + prefetchDepth;
+		}
+		if (segments > 0)
+		{
+			ret += ", " + segments + " segments";
+		}
+		if (direct)
+		{
+			ret += ", direct buffers";
+		}
+		if (coalesce)
+		{
+			ret += ", coalesced eviction";
+		}
+		if (arity != 2)
+		{
+			ret += ", " + arity + "-ary heap";
+		}
+		if (bottomUp)
+		{
+			ret += ", bottom-up";
+		}
+		if (sorter instanceof HeapSorter && topK > 0)
+		{
+			ret += ", top " + ((HeapSorter) sorter).getSortedCount() + " only";
+		}
+		if (recordSize != IntegerCollection.RECORD_SIZE)
+		{
+			ret += ", " + recordSize + "-byte records";
+		}
+		if (outputFile != null)
+		{
+			ret += ", sorted into " + outputFile.getName();
+			if (engine.equals("heap") && sorter instanceof ExternalSorter)
+			{
+				ret += " by merge with " + memoryRecords + " records in memory";
 			}
 		}
+		if (sorter instanceof HeapSorter && composite)
+		{
+			ret += ", key-then-value order";
+		}
+		if (engine.equals("parallel"))
+		{
+			ret += ", parallel engine with " + threads + " threads";
+		}
+		else if (engine.equals("radix"))
+		{
+			ret += ", radix engine";
+		}
+		else if (!engine.equals("heap"))
+		{
+			ret += ", " + engine + " engine with " + memoryRecords
+					+ " records in memory";
+		}
+		return ret;
 	}
 
 	/**
@@ -251,7 +775,8 @@ public class heapsort
 		if (args == null || args.length < 1)
 		{
 			output.println("No arguments found. Call as heapsort "
-					+ "<data-file-path> <num-buffers> <stats-file-path>");
+					+ "<data-file-path> <num-buffers> <stats-file-path> "
+					+ "[options]");
 			return false;
 		}
 		else
@@ -288,7 +813,193 @@ public class heapsort
 						+ "parameter is a valid String path.");
 				goodToGo = false;
 			}
+			for (int i = 3; i < args.length; i++)
+			{
+				if (!parseOption(args[i]))
+				{
+					goodToGo = false;
+				}
+			}
+			if (mapped && segments > 0)
+			{
+				output.println("-mapped cannot be combined with -segments.");
+				goodToGo = false;
+			}
+			if (outputFile != null && (topK > 0 || engine.equals("parallel")
+					|| engine.equals("radix")))
+			{
+				output.println("-output cannot be combined with "
+						+ (topK > 0 ? "-top." : "the " + engine + " engine."));
+				goodToGo = false;
+			}
+			if (recordSize != IntegerCollection.RECORD_SIZE && (topK > 0
+					|| composite || !engine.equals("heap")))
+			{
+				output.println("-record cannot be combined with " + (topK > 0
+						? "-top." : composite ? "-composite." : "the " + engine
+						+ " engine."));
+				goodToGo = false;
+			}
 			return goodToGo;
 		}
 	}
+
+	/**
+	 * Parses the value of option {@code arg} as a non-negative integer.
+	 * <p/>
+	 * @param arg   the whole option, for error messages
+	 * @param value the value part of the option, possibly {@code null}
+	 * <p/>
+	 * @return the parsed value, or {@code -1} if it is missing or invalid
+	 */
+	private static int parseCount(String arg, String value)
+	{
+		try
+		{
+			int ret = Integer.parseInt(value);
+			if (ret >= 0)
+			{
+				return ret;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			//reported below
+		}
+		output.println("Option " + arg + " needs a non-negative integer value.");
+		return -1;
+	}
+
+	/**
+	 * Parses a single optional command line argument of the form
+	 * {@code -name} or {@code -name=value}.
+	 * <p/>
+	 * @param arg the argument to parse
+	 * <p/>
+	 * @return {@code true} if the option was recognized and valid,
+	 *            {@code false} otherwise
+	 */
+	private static boolean parseOption(String arg)
+	{
+		int split = arg.indexOf('=');
+		String name = split < 0 ? arg : arg.substring(0, split);
+		String value = split < 0 ? null : arg.substring(split + 1);
+		switch (name)
+		{
+			case "-mapped":
+				mapped = true;
+				return true;
+			case "-policy":
+				if (value == null || createPolicy(value.toLowerCase(), 1) == null)
+				{
+					output.println("Unknown replacement policy: " + arg
+							+ ". Use lru, clock, 2q, lru-k or arc.");
+					return false;
+				}
+				policyName = value.toLowerCase();
+				return true;
+			case "-writeback":
+				writeBackWatermark = parseCount(arg, value);
+				return writeBackWatermark >= 0;
+			case "-prefetch":
+				prefetchDepth = parseCount(arg, value);
+				return prefetchDepth >= 0;
+			case "-segments":
+				segments = parseCount(arg, value);
+				return segments >= 0;
+			case "-direct":
+				direct = true;
+				return true;
+			case "-coalesce":
+				coalesce = true;
+				return true;
+			case "-engine":
+				if (!"heap".equals(value) && !"merge".equals(value)
+						&& !"parallel".equals(value) && !"radix".equals(value))
+				{
+					output.println("Unknown engine: " + arg
+							+ ". Use heap, merge, parallel or radix.");
+					return false;
+				}
+				engine = value;
+				return true;
+			case "-nofastpath":
+				fastPath = false;
+				return true;
+			case "-threads":
+				threads = parseCount(arg, value);
+				if (threads < 0)
+				{
+					//parseCount has already reported it
+					return false;
+				}
+				if (threads == 0)
+				{
+					output.println("Option " + arg + " needs at least one thread.");
+					return false;
+				}
+				return true;
+			case "-output":
+				if (value == null || value.isEmpty())
+				{
+					output.println("Option " + arg + " needs a file path.");
+					return false;
+				}
+				outputFile = new File(value);
+				return true;
+			case "-record":
+				recordSize = parseCount(arg, value);
+				if (recordSize < IntegerCollection.RECORD_SIZE)
+				{
+					output.println("Option " + arg + " needs at least "
+							+ IntegerCollection.RECORD_SIZE + " bytes.");
+					return false;
+				}
+				return true;
+			case "-blocksize":
+				if ("auto".equals(value))
+				{
+					autoBlockSize = true;
+					return true;
+				}
+				blockSize = parseCount(arg, value);
+				if (!BufferPool.isValidBlockSize(blockSize))
+				{
+					output.println("Option " + arg + " needs a power of two from "
+							+ BufferPool.MIN_BLOCK_SIZE + " to "
+							+ BufferPool.MAX_BLOCK_SIZE + " or auto.");
+					return false;
+				}
+				return true;
+			case "-composite":
+				composite = true;
+				return true;
+			case "-top":
+				topK = parseCount(arg, value);
+				return topK >= 0;
+			case "-memory":
+				memoryRecords = parseCount(arg, value);
+				return memoryRecords >= 0;
+			case "-bottomup":
+				bottomUp = true;
+				return true;
+			case "-arity":
+				if ("block".equals(value))
+				{
+					arity = 0;
+					return true;
+				}
+				arity = parseCount(arg, value);
+				if (arity < 2)
+				{
+					output.println("Option " + arg + " needs a value of at least 2"
+							+ " or block.");
+					return false;
+				}
+				return true;
+			default:
+				output.println("Unknown option: " + arg);
+				return false;
+		}
+	}
 }
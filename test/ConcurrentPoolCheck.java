@@ -0,0 +1,338 @@
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code ConcurrentPoolCheck} exercises a {@link ConcurrentBufferPool} from
+ * several threads at once and checks that no data is lost or mixed up and
+ * that the pool's counters add up.
+ * <p/>
+ * The check file holds one {@code int} per record, tagging the record's index
+ * in its upper 24 bits and a version in its lower 8. Every thread owns the
+ * records whose index leaves its own number modulo the thread count, and
+ * mixes reads of random records, ranged reads within a block, writes of a new
+ * version to its own records and writes through pinned
+ * {@link Buffer Buffers}. Every value read must carry the index of the
+ * record it was read from, and every value a thread reads from its own
+ * records must be the version it last wrote. After all threads are done the
+ * pool is flushed and the file is read back directly, and must hold exactly
+ * the versions last written.
+ * <p/>
+ * Every operation touches exactly one block, so the hits and misses of the
+ * pool must add up to the number of operations, less the pins refused because
+ * every {@link Buffer} of a segment was pinned, and the misses must equal the
+ * disk reads.
+ * <p/>
+ * Usage: {@code ConcurrentPoolCheck <file> <blocks> <buffers> <segments>
+ * <threads> <operations per thread>}
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class ConcurrentPoolCheck
+{
+
+	/**
+	 * The number of records in one default-sized block.
+	 */
+	private static final int RECORDS_PER_BLOCK = BufferPool.BLOCK_SIZE
+			/ IntegerCollection.RECORD_SIZE;
+	/**
+	 * The pool under test.
+	 */
+	private static ConcurrentBufferPool pool;
+	/**
+	 * The number of records in the check file.
+	 */
+	private static int records;
+	/**
+	 * The number of worker threads.
+	 */
+	private static int threads;
+	/**
+	 * The total number of operations performed by all threads.
+	 */
+	private static AtomicLong operations = new AtomicLong();
+	/**
+	 * The total number of pins refused because a segment was fully pinned.
+	 */
+	private static AtomicLong refused = new AtomicLong();
+	/**
+	 * The total number of wrong values seen by all threads.
+	 */
+	private static AtomicLong errors = new AtomicLong();
+
+	/**
+	 * Runs the check.
+	 * <p/>
+	 * @param args the file, block count, buffer count, segment count, thread
+	 *                count and operations per thread
+	 * <p/>
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args)
+			throws IOException, InterruptedException
+	{
+		if (args.length != 6)
+		{
+			System.out.println("Usage: ConcurrentPoolCheck <file> <blocks> "
+					+ "<buffers> <segments> <threads> <operations per thread>");
+			return;
+		}
+		File file = new File(args[0]);
+		int blocks = Integer.parseInt(args[1]);
+		int buffers = Integer.parseInt(args[2]);
+		int segments = Integer.parseInt(args[3]);
+		threads = Integer.parseInt(args[4]);
+		int perThread = Integer.parseInt(args[5]);
+		records = blocks * RECORDS_PER_BLOCK;
+		if (records >= 1 << 24)
+		{
+			System.out.println("At most " + ((1 << 24) / RECORDS_PER_BLOCK - 1)
+					+ " blocks can be checked.");
+			return;
+		}
+		createFile(file);
+		pool = new ConcurrentBufferPool(buffers, file, segments);
+
+		Worker[] workers = new Worker[threads];
+		long time = System.currentTimeMillis();
+		for (int i = 0; i < threads; i++)
+		{
+			workers[i] = new Worker(i, perThread);
+			workers[i].start();
+		}
+		for (Worker worker : workers)
+		{
+			worker.join();
+		}
+		time = System.currentTimeMillis() - time;
+		pool.flush();
+		pool.closeSourceStream();
+
+		long lost = verifyFile(file, workers);
+		long hits = pool.getCacheHits();
+		long misses = pool.getCacheMisses();
+		long expected = operations.get() - refused.get();
+		boolean countsOk = hits + misses == expected
+				&& misses == pool.getDiskReads();
+		System.out.println(threads + " threads, " + operations.get()
+				+ " operations in " + time + " ms");
+		System.out.println("Hits: " + hits + "  Misses: " + misses
+				+ "  Disk reads: " + pool.getDiskReads() + "  Disk writes: "
+				+ pool.getDiskWrites() + "  Refused pins: " + refused.get());
+		System.out.println("Wrong values read: " + errors.get()
+				+ "  Wrong values in file: " + lost + "  Counters "
+				+ (countsOk ? "add up" : "do not add up; expected " + expected
+						+ " hits and misses"));
+		System.out.println(errors.get() == 0 && lost == 0 && countsOk
+				? "PASSED" : "FAILED");
+	}
+
+	/**
+	 * Writes the check file: every record tagged with its index and version
+	 * {@code 0}.
+	 * <p/>
+	 * @param file the file to write
+	 * <p/>
+	 * @throws IOException
+	 */
+	private static void createFile(File file) throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file))))
+		{
+			for (int i = 0; i < records; i++)
+			{
+				out.writeInt(i << 8);
+			}
+		}
+	}
+
+	/**
+	 * Reads the check file back directly and counts the records that do not
+	 * hold the version their owner last wrote.
+	 * <p/>
+	 * @param file    the check file
+	 * @param workers the finished threads
+	 * <p/>
+	 * @return the number of wrong records
+	 * <p/>
+	 * @throws IOException
+	 */
+	private static long verifyFile(File file, Worker[] workers)
+			throws IOException
+	{
+		long ret = 0;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+		{
+			byte[] block = new byte[BufferPool.BLOCK_SIZE];
+			for (int b = 0; b < records / RECORDS_PER_BLOCK; b++)
+			{
+				raf.readFully(block);
+				for (int r = 0; r < RECORDS_PER_BLOCK; r++)
+				{
+					int i = b * RECORDS_PER_BLOCK + r;
+					int value = ((block[4 * r] & 0xff) << 24)
+							| ((block[4 * r + 1] & 0xff) << 16)
+							| ((block[4 * r + 2] & 0xff) << 8)
+							| (block[4 * r + 3] & 0xff);
+					if (value != workers[i % threads].expected(i))
+					{
+						ret++;
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * One thread of the check.
+	 */
+	private static class Worker
+			extends Thread
+	{
+
+		/**
+		 * The number of this thread; it owns the records with this index
+		 * modulo the thread count.
+		 */
+		private int id;
+		/**
+		 * The number of operations to perform.
+		 */
+		private int count;
+		/**
+		 * The version last written to each owned record, by owned index.
+		 */
+		private byte[] versions;
+		/**
+		 * The source of operations and records.
+		 */
+		private Random random;
+
+		/**
+		 * Constructs a new {@code Worker}.
+		 * <p/>
+		 * @param id    the number of this thread
+		 * @param count the number of operations to perform
+		 */
+		private Worker(int id, int count)
+		{
+			this.id = id;
+			this.count = count;
+			this.versions = new byte[(records - id + threads - 1) / threads];
+			this.random = new Random(id);
+		}
+
+		/**
+		 * Returns the value owned record {@code i} must hold.
+		 * <p/>
+		 * @param i the index of a record owned by this thread
+		 * <p/>
+		 * @return the record's index and last written version
+		 */
+		private int expected(int i)
+		{
+			return (i << 8) | (versions[i / threads] & 0xff);
+		}
+
+		@Override
+		public void run()
+		{
+			int[] range = new int[RECORDS_PER_BLOCK];
+			try
+			{
+				for (int n = 0; n < count; n++)
+				{
+					int op = random.nextInt(10);
+					if (op < 5)
+					{
+						//read any record
+						int i = random.nextInt(records);
+						check(i, pool.getInt(4L * i));
+					}
+					else if (op < 7)
+					{
+						//read the rest of the block of any record
+						int i = random.nextInt(records);
+						int len = RECORDS_PER_BLOCK - i % RECORDS_PER_BLOCK;
+						pool.getInts(range, 0, len, 4L * i);
+						for (int k = 0; k < len; k++)
+						{
+							check(i + k, range[k]);
+						}
+					}
+					else if (op < 9)
+					{
+						//write a new version of an owned record
+						int i = owned();
+						versions[i / threads]++;
+						pool.setInt(expected(i), 4L * i);
+					}
+					else
+					{
+						//write an owned record through a pinned Buffer
+						int i = owned();
+						Buffer buff;
+						try
+						{
+							buff = pool.pin(4L * i);
+						}
+						catch (IllegalStateException ex)
+						{
+							refused.incrementAndGet();
+							operations.incrementAndGet();
+							continue;
+						}
+						int offset = (4 * i) % BufferPool.BLOCK_SIZE;
+						check(i, buff.getInt(offset));
+						versions[i / threads]++;
+						buff.setInt(offset, expected(i));
+						buff.makeDirty();
+						pool.unpin(buff);
+					}
+					operations.incrementAndGet();
+				}
+			}
+			catch (IOException ex)
+			{
+				System.out.println("Thread " + id + ": " + ex);
+				errors.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Picks a random record owned by this thread.
+		 * <p/>
+		 * @return the index of the record
+		 */
+		private int owned()
+		{
+			return random.nextInt(versions.length) * threads + id;
+		}
+
+		/**
+		 * Checks that {@code value}, read from record {@code i}, carries that
+		 * record's index, and for an owned record the version last written.
+		 * <p/>
+		 * @param i     the index of the record read
+		 * @param value the value read
+		 */
+		private void check(int i, int value)
+		{
+			if ((value >>> 8) != i || (i % threads == id && value != expected(i)))
+			{
+				errors.incrementAndGet();
+			}
+		}
+	}
+}
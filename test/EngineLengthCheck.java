@@ -0,0 +1,260 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * {@code EngineLengthCheck} runs every sorting engine on a data file whose
+ * length is not a whole number of records and checks that each one sorts the
+ * whole records, leaves the bytes past the last whole record as they were and
+ * keeps the file's length. The out-of-place engines are checked the same way
+ * on their output files, whose length must also be the input's. An engine
+ * may instead refuse such a file with an {@link IOException}, provided it
+ * leaves the file untouched.
+ * <p/>
+ * The check file is created next to the given path and removed afterwards;
+ * each engine sorts a fresh copy of it.
+ * <p/>
+ * Usage: {@code EngineLengthCheck <directory> <records> <buffers>}
+ * <p/>
+ * @author orionf22
+ * @author rinaldi1
+ */
+public class EngineLengthCheck
+{
+
+	/**
+	 * The number of bytes past the last whole record.
+	 */
+	private static final int TAIL = 2;
+	/**
+	 * The unsorted check file.
+	 */
+	private static File original;
+	/**
+	 * The number of buffers each engine may use.
+	 */
+	private static int buffers;
+	/**
+	 * The number of engines that failed.
+	 */
+	private static int failures;
+
+	/**
+	 * Runs the check.
+	 * <p/>
+	 * @param args the directory, record count and buffer count
+	 * <p/>
+	 * @throws IOException
+	 * @throws HeapException
+	 */
+	public static void main(String[] args) throws IOException, HeapException
+	{
+		if (args.length != 3)
+		{
+			System.out.println("Usage: EngineLengthCheck <directory> <records> "
+					+ "<buffers>");
+			return;
+		}
+		File dir = new File(args[0]);
+		int records = Integer.parseInt(args[1]);
+		buffers = Integer.parseInt(args[2]);
+		original = new File(dir, "lengthcheck.bin");
+		File data = new File(dir, "lengthcheck.data");
+		File output = new File(dir, "lengthcheck.out");
+		try
+		{
+			createFile(records);
+			for (String engine : new String[]
+			{
+				"heap", "merge", "radix", "memory", "parallel", "tag",
+				"merge-out", "memory-out", "tag-out"
+			})
+			{
+				Files.copy(original.toPath(), data.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+				output.delete();
+				boolean outOfPlace = engine.endsWith("-out");
+				try
+				{
+					sort(engine, data, outOfPlace ? output : null);
+				}
+				catch (IOException ex)
+				{
+					boolean untouched = sameBytes(original, data);
+					System.out.println(engine + ": refused (" + ex.getMessage()
+							+ ")" + (untouched ? "" : ", but modified the file"));
+					if (!untouched)
+					{
+						failures++;
+					}
+					continue;
+				}
+				report(engine, outOfPlace ? output : data);
+				if (outOfPlace && !sameBytes(original, data))
+				{
+					System.out.println(engine + ": input was modified");
+					failures++;
+				}
+			}
+		}
+		finally
+		{
+			original.delete();
+			data.delete();
+			output.delete();
+		}
+		System.out.println(failures == 0 ? "PASSED" : "FAILED");
+	}
+
+	/**
+	 * Writes the check file: {@code records} random records followed by
+	 * {@link EngineLengthCheck#TAIL TAIL} bytes of a partial record.
+	 * <p/>
+	 * @param records the number of whole records
+	 * <p/>
+	 * @throws IOException
+	 */
+	private static void createFile(int records) throws IOException
+	{
+		Random random = new Random(records);
+		byte[] bytes = new byte[records * IntegerCollection.RECORD_SIZE + TAIL];
+		random.nextBytes(bytes);
+		Files.write(original.toPath(), bytes);
+	}
+
+	/**
+	 * Sorts {@code data} with {@code engine}, into {@code output} if it is
+	 * not {@code null}.
+	 * <p/>
+	 * @param engine the name of the engine
+	 * @param data   the file to sort
+	 * @param output the file to sort into, or {@code null} to sort in place
+	 * <p/>
+	 * @throws IOException
+	 * @throws HeapException
+	 */
+	private static void sort(String engine, File data, File output)
+			throws IOException, HeapException
+	{
+		File dir = data.getAbsoluteFile().getParentFile();
+		int memoryRecords = buffers * BufferPool.BLOCK_SIZE
+				/ IntegerCollection.RECORD_SIZE;
+		if (engine.startsWith("heap") || engine.equals("merge"))
+		{
+			BufferPool pool = new BufferPool(buffers, data, new LRUPolicy());
+			IntegerCollection collection = new IntegerCollection(pool,
+					data.length());
+			if (engine.equals("heap"))
+			{
+				new HeapSorter(collection).sort();
+			}
+			else
+			{
+				new ExternalSorter(collection, memoryRecords, dir).sort();
+			}
+			pool.flush();
+			pool.closeSourceStream();
+		}
+		else if (engine.equals("merge-out"))
+		{
+			new ExternalSorter(data, output, memoryRecords, dir).sort();
+		}
+		else if (engine.equals("radix"))
+		{
+			new RadixSorter(data).sort();
+		}
+		else if (engine.startsWith("memory"))
+		{
+			new InMemorySorter(data, output).sort();
+		}
+		else if (engine.equals("parallel"))
+		{
+			new ParallelSorter(data, buffers, 4, 2, false).sort();
+		}
+		else
+		{
+			new TagSorter(data, output, IntegerCollection.RECORD_SIZE, buffers)
+					.sort();
+		}
+	}
+
+	/**
+	 * Checks the file an engine sorted against the check file and prints the
+	 * outcome.
+	 * <p/>
+	 * @param engine the name of the engine
+	 * @param sorted the file it sorted into
+	 * <p/>
+	 * @throws IOException
+	 */
+	private static void report(String engine, File sorted) throws IOException
+	{
+		byte[] before = Files.readAllBytes(original.toPath());
+		byte[] after = Files.readAllBytes(sorted.toPath());
+		String problem = null;
+		if (after.length != before.length)
+		{
+			problem = "length " + after.length + " instead of " + before.length;
+		}
+		else
+		{
+			ByteBuffer in = ByteBuffer.wrap(before);
+			ByteBuffer out = ByteBuffer.wrap(after);
+			int records = before.length / IntegerCollection.RECORD_SIZE;
+			long sumBefore = 0;
+			long sumAfter = 0;
+			int prev = Integer.MIN_VALUE;
+			for (int i = 0; i < records; i++)
+			{
+				sumBefore += in.getInt();
+				int packed = out.getInt();
+				sumAfter += packed;
+				int key = IntegerCollection.key(packed);
+				if (key < prev && problem == null)
+				{
+					problem = "record " + i + " out of order";
+				}
+				prev = key;
+			}
+			if (problem == null && sumBefore != sumAfter)
+			{
+				problem = "records lost or changed";
+			}
+			for (int i = records * IntegerCollection.RECORD_SIZE;
+					i < before.length && problem == null; i++)
+			{
+				if (before[i] != after[i])
+				{
+					problem = "partial record changed";
+				}
+			}
+		}
+		if (problem != null)
+		{
+			failures++;
+		}
+		System.out.println(engine + ": " + (problem == null ? "ok" : problem));
+	}
+
+	/**
+	 * Determines if two files hold the same bytes.
+	 * <p/>
+	 * @param a one file
+	 * @param b the other file
+	 * <p/>
+	 * @return {@code true} if their contents are equal
+	 * <p/>
+	 * @throws IOException
+	 */
+	private static boolean sameBytes(File a, File b) throws IOException
+	{
+		return Arrays.equals(Files.readAllBytes(a.toPath()),
+				Files.readAllBytes(b.toPath()));
+	}
+}